@@ -27,16 +27,42 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.HashMap;
+import java.math.MathContext;
 import java.util.List;
-import java.util.Map;
 
 import net.zeminvaders.lang.ast.RootNode;
+import net.zeminvaders.lang.bytecode.BytecodeCompiler;
+import net.zeminvaders.lang.bytecode.StackMachine;
+import net.zeminvaders.lang.register.RegisterCompiler;
+import net.zeminvaders.lang.register.RegisterMachine;
+import net.zeminvaders.lang.runtime.ArrayAddFunction;
+import net.zeminvaders.lang.runtime.ArrayDotFunction;
+import net.zeminvaders.lang.runtime.ArrayMaxFunction;
+import net.zeminvaders.lang.runtime.ArrayMinFunction;
+import net.zeminvaders.lang.runtime.ArrayMultiplyFunction;
 import net.zeminvaders.lang.runtime.ArrayPushFunction;
+import net.zeminvaders.lang.runtime.ArrayScaleFunction;
+import net.zeminvaders.lang.runtime.ArraySumFunction;
+import net.zeminvaders.lang.runtime.Environment;
+import net.zeminvaders.lang.runtime.FindAllFunction;
 import net.zeminvaders.lang.runtime.Function;
+import net.zeminvaders.lang.runtime.IndexOfFunction;
+import net.zeminvaders.lang.runtime.JoinFunction;
 import net.zeminvaders.lang.runtime.LenFunction;
+import net.zeminvaders.lang.runtime.LowerFunction;
+import net.zeminvaders.lang.runtime.MatchFunction;
+import net.zeminvaders.lang.runtime.PatternCache;
 import net.zeminvaders.lang.runtime.PrintFunction;
 import net.zeminvaders.lang.runtime.PrintLineFunction;
+import net.zeminvaders.lang.runtime.RangeFunction;
+import net.zeminvaders.lang.runtime.ReplaceFunction;
+import net.zeminvaders.lang.runtime.ReplaceReFunction;
+import net.zeminvaders.lang.runtime.SplitFunction;
+import net.zeminvaders.lang.runtime.StartsWithFunction;
+import net.zeminvaders.lang.runtime.SubstrFunction;
+import net.zeminvaders.lang.runtime.TrimFunction;
+import net.zeminvaders.lang.runtime.UpperFunction;
+import net.zeminvaders.lang.runtime.ZemNumber;
 import net.zeminvaders.lang.runtime.ZemObject;
 
 /**
@@ -47,20 +73,229 @@ import net.zeminvaders.lang.runtime.ZemObject;
  */
 public class Interpreter {
     /**
-     * Map of variables to their objects
+     * Default number of interpreted calls before a function is compiled
      */
-    private Map<String, ZemObject> symbolTable = new HashMap<String, ZemObject>();
+    static final public int DEFAULT_JIT_THRESHOLD = 1000;
 
     /**
-     * Setup interpreter with empty symbol table
+     * Default precision and rounding of decimal arithmetic. 34 significant
+     * digits rounded half even, the IEEE 754 decimal128 format. Integer
+     * arithmetic other than division is always exact. Other results that
+     * fit are exact, and others such as 1 / 3 are rounded instead of
+     * growing without bound.
+     */
+    static final public MathContext DEFAULT_MATH_CONTEXT = MathContext.DECIMAL128;
+
+    /**
+     * Global variables
+     */
+    private Environment globals = new Environment(null);
+
+    /**
+     * Environment of the function currently being evaluated
+     */
+    private Environment environment = globals;
+
+    /**
+     * Function currently being evaluated. Null at the top level.
+     */
+    private Function function;
+
+    /**
+     * Call in tail position to make once the current function returns
+     */
+    private Function tailFunction;
+    private Environment tailEnvironment;
+    private SourcePosition tailPosition;
+
+    /**
+     * How scripts are executed
+     */
+    private ExecutionEngine engine;
+
+    /**
+     * How arithmetic is done on numbers
+     */
+    private NumberMode numberMode;
+
+    /**
+     * Precision and rounding of decimal arithmetic
+     */
+    private MathContext mathContext = DEFAULT_MATH_CONTEXT;
+
+    /**
+     * Number of interpreted calls before a function is compiled to JVM bytecode
+     */
+    private int jitThreshold = DEFAULT_JIT_THRESHOLD;
+
+    /**
+     * Compiled patterns of the regular expression built-in functions
+     */
+    private PatternCache patternCache = new PatternCache(PatternCache.DEFAULT_CAPACITY);
+
+    /**
+     * Set by a return statement until the function it returns from completes
+     */
+    private boolean returning = false;
+
+    /**
+     * Setup interpreter with empty global environment
      * and register built-in functions.
      */
     public Interpreter() {
+        this(ExecutionEngine.TREE_WALKER);
+    }
+
+    /**
+     * Setup interpreter with empty global environment
+     * and register built-in functions.
+     *
+     * @param engine How scripts are executed
+     */
+    public Interpreter(ExecutionEngine engine) {
+        this(engine, NumberMode.DECIMAL);
+    }
+
+    /**
+     * Setup interpreter with empty global environment
+     * and register built-in functions.
+     *
+     * @param engine     How scripts are executed
+     * @param numberMode How arithmetic is done on numbers
+     */
+    public Interpreter(ExecutionEngine engine, NumberMode numberMode) {
+        this.engine = engine;
+        this.numberMode = numberMode;
         // Register built-in functions
-        symbolTable.put("print", new PrintFunction());
-        symbolTable.put("println", new PrintLineFunction());
-        symbolTable.put("len", new LenFunction());
-        symbolTable.put("array_push", new ArrayPushFunction());
+        globals.set("print", new PrintFunction());
+        globals.set("println", new PrintLineFunction());
+        globals.set("len", new LenFunction());
+        globals.set("array_push", new ArrayPushFunction());
+        globals.set("array_sum", new ArraySumFunction());
+        globals.set("array_dot", new ArrayDotFunction());
+        globals.set("array_add", new ArrayAddFunction());
+        globals.set("array_multiply", new ArrayMultiplyFunction());
+        globals.set("array_scale", new ArrayScaleFunction());
+        globals.set("array_min", new ArrayMinFunction());
+        globals.set("array_max", new ArrayMaxFunction());
+        globals.set("range", new RangeFunction());
+        globals.set("split", new SplitFunction());
+        globals.set("join", new JoinFunction());
+        globals.set("substr", new SubstrFunction());
+        globals.set("index_of", new IndexOfFunction());
+        globals.set("replace", new ReplaceFunction());
+        globals.set("starts_with", new StartsWithFunction());
+        globals.set("trim", new TrimFunction());
+        globals.set("upper", new UpperFunction());
+        globals.set("lower", new LowerFunction());
+        globals.set("match", new MatchFunction());
+        globals.set("find_all", new FindAllFunction());
+        globals.set("replace_re", new ReplaceReFunction());
+    }
+
+    public ExecutionEngine getExecutionEngine() {
+        return engine;
+    }
+
+    public void setExecutionEngine(ExecutionEngine engine) {
+        this.engine = engine;
+    }
+
+    public NumberMode getNumberMode() {
+        return numberMode;
+    }
+
+    /**
+     * Set how arithmetic is done on numbers. Applies to scripts evaluated
+     * after the mode is set.
+     *
+     * @param numberMode How arithmetic is done on numbers
+     */
+    public void setNumberMode(NumberMode numberMode) {
+        this.numberMode = numberMode;
+    }
+
+    /**
+     * Convert a number to the form used by the number mode. Arithmetic on
+     * a double gives a double, so only the numbers a script starts from,
+     * its literals and the numbers returned by builtin functions, need to
+     * be converted.
+     *
+     * @param number The number to convert
+     * @return The number in the form of the number mode
+     */
+    public ZemNumber toNumberMode(ZemNumber number) {
+        if (numberMode == NumberMode.DOUBLE) {
+            return number.toDouble();
+        }
+        return number;
+    }
+
+    /**
+     * @return Compiled patterns of the regular expression built-in functions
+     */
+    public PatternCache getPatternCache() {
+        return patternCache;
+    }
+
+    public MathContext getMathContext() {
+        return mathContext;
+    }
+
+    /**
+     * Set the precision and rounding of decimal arithmetic. It does not
+     * apply to adding, subtracting, multiplying and raising to a
+     * non-negative integer power integers, which are exact. A precision of
+     * zero gives exact results, and division without an exact result is
+     * an error.
+     *
+     * @param mathContext Precision and rounding of decimal arithmetic
+     */
+    public void setMathContext(MathContext mathContext) {
+        this.mathContext = mathContext;
+    }
+
+    public int getJitThreshold() {
+        return jitThreshold;
+    }
+
+    /**
+     * Set the number of interpreted calls before a user function is
+     * compiled to JVM bytecode. Zero compiles functions on their first
+     * call and a negative threshold disables the compiler.
+     *
+     * @param jitThreshold Number of interpreted calls
+     */
+    public void setJitThreshold(int jitThreshold) {
+        this.jitThreshold = jitThreshold;
+    }
+
+    /**
+     * Check if a return statement is unwinding the current function.
+     * Statements that evaluate other statements stop as soon as this is set.
+     */
+    public boolean isReturning() {
+        return returning;
+    }
+
+    public void setReturning(boolean returning) {
+        this.returning = returning;
+    }
+
+    /**
+     * Get the global environment.
+     */
+    public Environment getGlobals() {
+        return globals;
+    }
+
+    /**
+     * Get the environment of the function currently being evaluated.
+     *
+     * @return The current environment
+     */
+    public Environment getEnvironment() {
+        return environment;
     }
 
     /**
@@ -71,10 +306,11 @@ public class Interpreter {
      * @return The value of the variable
      */
     public ZemObject getVariable(String name, SourcePosition pos) {
-        if (!symbolTable.containsKey(name)) {
+        ZemObject value = environment.get(name);
+        if (value == null) {
             throw new UnsetVariableException(name, pos);
         }
-        return symbolTable.get(name);
+        return value;
     }
 
     /**
@@ -84,7 +320,7 @@ public class Interpreter {
      * @param value New value for the variable
      */
     public void setVariable(String name, ZemObject value) {
-        symbolTable.put(name, value);
+        environment.set(name, value);
     }
 
     /**
@@ -99,6 +335,15 @@ public class Interpreter {
         }
     }
 
+    /**
+     * Get the function currently being evaluated.
+     *
+     * @return The current function or null at the top level
+     */
+    public Function getFunction() {
+        return function;
+    }
+
     /**
      * Call a function.
      *
@@ -109,15 +354,28 @@ public class Interpreter {
      * @return Return value from function
      */
     public ZemObject callFunction(Function function, List<ZemObject> args, SourcePosition pos, String functionName) {
-        // Save the symbolTable
-        Map<String, ZemObject> savedSymbolTable =
-            new HashMap<String, ZemObject>(symbolTable);
-        // Setup symbolTable for function
+        return invoke(function, bindArguments(function, args, pos, functionName), pos);
+    }
+
+    /**
+     * Create the environment for a call of a function with the parameters
+     * set to the arguments.
+     *
+     * @param function The function to call
+     * @param args List of arguments to pass to function
+     * @param pos  Position in source code of the function call
+     * @param functionName Name of the function. Null is passed for anonymous functions.
+     * @return Environment for the call
+     */
+    public Environment bindArguments(Function function, List<ZemObject> args, SourcePosition pos, String functionName) {
+        // Function gets a new environment chained to where it was declared
+        Environment parent = function.getEnvironment();
+        Environment callEnvironment = new Environment(parent == null ? globals : parent,
+                function.getVariableNames(), function.getFrameSize());
         int noMissingArgs = 0;
         int noRequiredArgs = 0;
         for (int paramIndex = 0;
                 paramIndex < function.getParameterCount(); paramIndex++) {
-            String parameterName = function.getParameterName(paramIndex);
             ZemObject value = function.getDefaultValue(paramIndex);
             if (value == null) {
                 noRequiredArgs++;
@@ -129,17 +387,60 @@ public class Interpreter {
             if (value == null) {
                 noMissingArgs++;
             }
-            setVariable(parameterName, value);
+            callEnvironment.set(paramIndex, value);
         }
         if (noMissingArgs > 0) {
             throw new TooFewArgumentsException(functionName, noRequiredArgs,
                     args.size(), pos);
         }
-        ZemObject ret = function.eval(this, pos);
-        // Restore symbolTable
-        symbolTable = savedSymbolTable;
+        return callEnvironment;
+    }
+
+    /**
+     * Call a function with the parameters already bound.
+     *
+     * @param function        The function to call
+     * @param callEnvironment Environment for the call with the parameters set
+     * @param pos             Position in source code of the function call
+     * @return Return value from function
+     */
+    public ZemObject invoke(Function function, Environment callEnvironment, SourcePosition pos) {
+        Environment savedEnvironment = environment;
+        Function savedFunction = this.function;
+        environment = callEnvironment;
+        this.function = function;
+        try {
+            ZemObject value = function.eval(this, pos);
+            // Trampoline for calls in tail position, so they run in constant stack
+            while (tailFunction != null) {
+                Function next = tailFunction;
+                environment = tailEnvironment;
+                pos = tailPosition;
+                tailFunction = null;
+                tailEnvironment = null;
+                tailPosition = null;
+                this.function = next;
+                value = next.eval(this, pos);
+            }
+            return value;
+        } finally {
+            environment = savedEnvironment;
+            this.function = savedFunction;
+        }
+    }
 
-        return ret;
+    /**
+     * Schedule a call in tail position. The call is made by invoke once
+     * the current function returns, instead of nesting inside it.
+     *
+     * @param function        The function to call
+     * @param callEnvironment Environment for the call with the parameters set
+     * @param pos             Position in source code of the function call
+     */
+    public void tailCall(Function function, Environment callEnvironment, SourcePosition pos) {
+        tailFunction = function;
+        tailEnvironment = callEnvironment;
+        tailPosition = pos;
     }
 
     /**
@@ -172,9 +473,33 @@ public class Interpreter {
      * @throws IOException
      */
     public ZemObject eval(Reader reader) throws IOException {
+        RootNode program = parse(reader);
+        if (engine == ExecutionEngine.STACK_VM) {
+            return new StackMachine(this).execute(new BytecodeCompiler().compile(program));
+        } else if (engine == ExecutionEngine.REGISTER_VM) {
+            return new RegisterMachine(this).execute(new RegisterCompiler().compile(program));
+        }
+        try {
+            return program.eval(this);
+        } finally {
+            // Return at the top level ends the script
+            returning = false;
+        }
+    }
+
+    /**
+     * Parse a script, optimize it and resolve its variables.
+     *
+     * @param reader The reader that contains the script
+     * @return The abstract syntax tree of the script
+     * @throws IOException
+     */
+    public RootNode parse(Reader reader) throws IOException {
         Lexer lexer = new Lexer(reader);
         Parser parser = new Parser(lexer);
         RootNode program = parser.program();
-        return program.eval(this);
+        new Optimizer(this).optimize(program);
+        new Resolver().resolve(program);
+        return program;
     }
 }
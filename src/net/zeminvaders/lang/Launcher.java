@@ -21,8 +21,15 @@
  */
 package net.zeminvaders.lang;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+import net.zeminvaders.lang.ast.RootNode;
+import net.zeminvaders.lang.register.RegisterCompiler;
 
 /**
  * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
@@ -30,7 +37,41 @@ import java.io.IOException;
 public class Launcher {
     public static void main(String[] args) throws IOException {
         Interpreter interpreter = new Interpreter();
-        interpreter.eval(new File(args[0]));
+        String file = null;
+        boolean disassemble = false;
+        for (String arg : args) {
+            if (arg.equals("--engine=tree")) {
+                interpreter.setExecutionEngine(ExecutionEngine.TREE_WALKER);
+            } else if (arg.equals("--engine=stack")) {
+                interpreter.setExecutionEngine(ExecutionEngine.STACK_VM);
+            } else if (arg.equals("--engine=register")) {
+                interpreter.setExecutionEngine(ExecutionEngine.REGISTER_VM);
+            } else if (arg.equals("--numbers=decimal")) {
+                interpreter.setNumberMode(NumberMode.DECIMAL);
+            } else if (arg.equals("--numbers=double")) {
+                interpreter.setNumberMode(NumberMode.DOUBLE);
+            } else if (arg.startsWith("--precision=")) {
+                int precision = Integer.parseInt(arg.substring("--precision=".length()));
+                interpreter.setMathContext(new MathContext(precision, RoundingMode.HALF_EVEN));
+            } else if (arg.startsWith("--jit-threshold=")) {
+                interpreter.setJitThreshold(Integer.parseInt(arg.substring("--jit-threshold=".length())));
+            } else if (arg.equals("--disassemble")) {
+                disassemble = true;
+            } else {
+                file = arg;
+            }
+        }
+        if (file == null) {
+            System.err.println("Usage: Launcher [--engine=tree|stack|register] [--numbers=decimal|double] [--precision=n] [--jit-threshold=n] [--disassemble] script");
+            System.exit(1);
+        }
+        if (disassemble) {
+            // Print the register machine code instead of running the script
+            RootNode program = interpreter.parse(new BufferedReader(new FileReader(file)));
+            System.out.print(new RegisterCompiler().compile(program));
+            return;
+        }
+        interpreter.eval(new File(file));
         //TODO Print nice error messages instead of throwing IOExceptions
     }
 }
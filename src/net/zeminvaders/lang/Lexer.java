@@ -23,6 +23,10 @@ package net.zeminvaders.lang;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import net.zeminvaders.lang.runtime.ZemNumber;
 
 /**
  * The <a href="http://en.wikipedia.org/wiki/Lexical_analysis#Scanner">lexer</a>
@@ -36,6 +40,11 @@ public class Lexer {
     private int lineNo = 1;
     private int columnNo = 1;
     private PeekReader in;
+    /**
+     * Digits of the number being matched, in a long while they fit.
+     */
+    private long unscaledValue;
+    private StringBuilder digits;
 
     public Lexer(Reader in) throws IOException {
         this.in = new PeekReader(in, 2);
@@ -251,51 +260,54 @@ public class Lexer {
         return new Token(pos, TokenType.COMMENT, sb.toString());
     }
 
-    private int matchDigits(StringBuilder sb) {
-        int character = lookAhead(1);
-        int count = 0;
-        while (character >= '0' && character <= '9') {
-            sb.append((char) character);
-            character = next();
-            count++;
-        }
-        if (count == 0) {
-            throw new LexerException("Unexpected '" + ((char) character) + "' character", lineNo, columnNo);
+    /**
+     * Get the value of a digit.
+     *
+     * @param character Character of the digit
+     * @param radix     Radix of the number
+     * @return Value of the digit. Return -1 if not a digit of the radix.
+     */
+    static private int digitValue(int character, int radix) {
+        int value;
+        if (character >= '0' && character <= '9') {
+            value = character - '0';
+        } else if (character >= 'a' && character <= 'f') {
+            value = character - 'a' + 10;
+        } else if (character >= 'A' && character <= 'F') {
+            value = character - 'A' + 10;
+        } else {
+            return -1;
         }
-        return count;
+        return value < radix ? value : -1;
     }
 
-    private void matchDecimalNumber(StringBuilder sb) {
-        int character = lookAhead(1);
-        // IntegerPart
-        if (character >= '0' && character <= '9') {
-            matchDigits(sb);
-            character = lookAhead(1);
-        }
-        // FractionPart
-        if (character == '.') {
-            sb.append('.');
-            character = next();
-            matchDigits(sb);
-            character = lookAhead(1);
-        }
-        // Exponent
-        if (character == 'e' || character == 'E') {
-            sb.append('e');
-            character = next();
-            if (character == '-' || character == '+') {
-                sb.append(character);
-                character = next();
+    /**
+     * Add a digit to the number being matched. Digits are accumulated in
+     * a long and only copied to a StringBuilder once they no longer fit.
+     */
+    private void appendDigit(int value, int radix) {
+        if (digits == null) {
+            if (unscaledValue <= (Long.MAX_VALUE - value) / radix) {
+                unscaledValue = unscaledValue * radix + value;
+                return;
             }
-            matchDigits(sb);
+            digits = new StringBuilder(Long.toString(unscaledValue, radix));
         }
+        digits.append(Character.forDigit(value, radix));
     }
 
-    private int matchOctalDigits(StringBuilder sb) {
+    /**
+     * Match the digits of a number.
+     *
+     * @param radix Radix of the number
+     * @return Number of digits matched
+     */
+    private int matchDigits(int radix) {
         int character = lookAhead(1);
         int count = 0;
-        while (character >= '0' && character <= '7') {
-            sb.append((char) character);
+        int value;
+        while ((value = digitValue(character, radix)) >= 0) {
+            appendDigit(value, radix);
             character = next();
             count++;
         }
@@ -305,55 +317,94 @@ public class Lexer {
         return count;
     }
 
-    private int matchHexDigits(StringBuilder sb) {
+    private long matchExponent() {
         int character = lookAhead(1);
         int count = 0;
-        while ( (character >= '0' && character <= '9') ||
-                (character >= 'a' && character <= 'f') ||
-                (character >= 'A' && character <= 'F')) {
-            sb.append((char) character);
+        long exponent = 0;
+        while (character >= '0' && character <= '9') {
+            // Stop accumulating once out of range, the error is raised by the caller
+            if (exponent <= Integer.MAX_VALUE) {
+                exponent = exponent * 10 + (character - '0');
+            }
             character = next();
             count++;
         }
         if (count == 0) {
             throw new LexerException("Unexpected '" + ((char) character) + "' character", lineNo, columnNo);
         }
-        return count;
+        return exponent;
     }
 
-    private int matchBinaryDigits(StringBuilder sb) {
+    private ZemNumber matchDecimalNumber() {
         int character = lookAhead(1);
-        int count = 0;
-        while (character == '0' || character == '1') {
-            sb.append((char) character);
+        long scale = 0;
+        // IntegerPart
+        if (character >= '0' && character <= '9') {
+            matchDigits(10);
+            character = lookAhead(1);
+        }
+        // FractionPart
+        if (character == '.') {
             character = next();
-            count++;
+            scale = matchDigits(10);
+            character = lookAhead(1);
         }
-        if (count == 0) {
-            throw new LexerException("Unexpected '" + ((char) character) + "' character", lineNo, columnNo);
+        // Exponent
+        if (character == 'e' || character == 'E') {
+            character = next();
+            boolean negative = character == '-';
+            if (character == '-' || character == '+') {
+                character = next();
+            }
+            long exponent = matchExponent();
+            scale += negative ? exponent : -exponent;
         }
-        return count;
+        if (scale < Integer.MIN_VALUE || scale > Integer.MAX_VALUE) {
+            throw new LexerException("Number out of range", lineNo, columnNo);
+        }
+        return toNumber(10, (int) scale);
+    }
+
+    /**
+     * Get the value of the digits matched.
+     *
+     * @param radix Radix of the digits
+     * @param scale Number of digits after the decimal point
+     */
+    private ZemNumber toNumber(int radix, int scale) {
+        if (digits == null) {
+            if (scale == 0) {
+                return ZemNumber.valueOf(unscaledValue);
+            }
+            return ZemNumber.valueOf(BigDecimal.valueOf(unscaledValue, scale));
+        }
+        return ZemNumber.valueOf(new BigDecimal(new BigInteger(digits.toString(), radix), scale));
     }
 
     private Token matchNumber() {
         SourcePosition pos = new SourcePosition(lineNo, columnNo);
-        StringBuilder sb = new StringBuilder();
+        unscaledValue = 0;
+        digits = null;
+        ZemNumber value;
         int digit = lookAhead(1);
         char secondDigit = (char) lookAhead(2);
         if (digit == '0' && (secondDigit == 'o' || secondDigit == 'O')) {
-            sb.append(match('0'));
-            sb.append(match(secondDigit));
-            matchOctalDigits(sb);
+            match('0');
+            match(secondDigit);
+            matchDigits(8);
+            value = toNumber(8, 0);
         } else if (digit == '0' && (secondDigit == 'x' || secondDigit == 'X')) {
-            sb.append(match('0'));
-            sb.append(match(secondDigit));
-            matchHexDigits(sb);
+            match('0');
+            match(secondDigit);
+            matchDigits(16);
+            value = toNumber(16, 0);
         } else if (digit == '0' && (secondDigit == 'b' || secondDigit == 'B')) {
-            sb.append(match('0'));
-            sb.append(match(secondDigit));
-            matchBinaryDigits(sb);
+            match('0');
+            match(secondDigit);
+            matchDigits(2);
+            value = toNumber(2, 0);
         } else {
-            matchDecimalNumber(sb);
+            value = matchDecimalNumber();
         }
         /*
          * Check that another number does not immediately follow as this means
@@ -365,7 +416,7 @@ public class Lexer {
         if (character == '.' || (character >= '0' && character <= '9')) {
             throw new LexerException("Unexpected '" + ((char) character) + "' character", lineNo, columnNo);
         }
-        return new Token(pos, TokenType.NUMBER, sb.toString());
+        return new NumberToken(pos, value);
     }
 
     /**
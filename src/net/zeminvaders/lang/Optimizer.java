@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+import net.zeminvaders.lang.ast.AddOpNode;
+import net.zeminvaders.lang.ast.AndOpNode;
+import net.zeminvaders.lang.ast.ArrayNode;
+import net.zeminvaders.lang.ast.AssignNode;
+import net.zeminvaders.lang.ast.BinaryOpNode;
+import net.zeminvaders.lang.ast.BlockNode;
+import net.zeminvaders.lang.ast.ConcatOpNode;
+import net.zeminvaders.lang.ast.CountedWhileNode;
+import net.zeminvaders.lang.ast.DictionaryEntryNode;
+import net.zeminvaders.lang.ast.DictionaryNode;
+import net.zeminvaders.lang.ast.DivideOpNode;
+import net.zeminvaders.lang.ast.EqualsOpNode;
+import net.zeminvaders.lang.ast.FalseNode;
+import net.zeminvaders.lang.ast.ForeachNode;
+import net.zeminvaders.lang.ast.FunctionCallNode;
+import net.zeminvaders.lang.ast.FunctionNode;
+import net.zeminvaders.lang.ast.IArithmeticOpNode;
+import net.zeminvaders.lang.ast.IBooleanOpNode;
+import net.zeminvaders.lang.ast.IfNode;
+import net.zeminvaders.lang.ast.LookupNode;
+import net.zeminvaders.lang.ast.MultiplyOpNode;
+import net.zeminvaders.lang.ast.Node;
+import net.zeminvaders.lang.ast.NumberNode;
+import net.zeminvaders.lang.ast.OrOpNode;
+import net.zeminvaders.lang.ast.RelationalOpNode;
+import net.zeminvaders.lang.ast.ReturnNode;
+import net.zeminvaders.lang.ast.RootNode;
+import net.zeminvaders.lang.ast.StringNode;
+import net.zeminvaders.lang.ast.SubtractOpNode;
+import net.zeminvaders.lang.ast.TrueNode;
+import net.zeminvaders.lang.ast.UnaryOpNode;
+import net.zeminvaders.lang.ast.VariableNode;
+import net.zeminvaders.lang.ast.WhileNode;
+import net.zeminvaders.lang.runtime.ZemBoolean;
+import net.zeminvaders.lang.runtime.ZemNumber;
+import net.zeminvaders.lang.runtime.ZemObject;
+import net.zeminvaders.lang.runtime.ZemString;
+
+/**
+ * Folds constant expressions and simplifies algebraic identities of a
+ * parsed program, so they are not recomputed each time they are evaluated.
+ *
+ * An operator with constant operands is replaced by its value, at the
+ * position of the operator. An operator that raises an error is left in
+ * place so the error is reported at the same position when the program
+ * runs. Identities like x * 1 and true && x are only simplified when the
+ * other operand is known to already have the type the operator converts
+ * it to, so no type errors are lost.
+ *
+ * Number literals are converted to the number mode of the interpreter and
+ * repeated literals share the same value. While loops that count an integer
+ * variable are replaced by a CountedWhileNode.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class Optimizer {
+    private Interpreter interpreter;
+
+    /**
+     * Number constants of the program, so repeated literals share one value
+     */
+    private Map<String, ZemNumber> numbers = new HashMap<String, ZemNumber>();
+
+    /**
+     * @param interpreter Interpreter used to evaluate constant expressions
+     */
+    public Optimizer(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * Optimize a program.
+     *
+     * @param program The program to optimize
+     */
+    public void optimize(RootNode program) {
+        optimizeNode(program);
+    }
+
+    /**
+     * Optimize a node and its children.
+     *
+     * @return The node to use in place of the node
+     */
+    private Node optimizeNode(Node node) {
+        if (node instanceof BinaryOpNode) {
+            BinaryOpNode op = (BinaryOpNode) node;
+            op.setLeft(optimizeNode(op.getLeft()));
+            op.setRight(optimizeNode(op.getRight()));
+            return simplify(op);
+        } else if (node instanceof UnaryOpNode) {
+            UnaryOpNode op = (UnaryOpNode) node;
+            op.setOperand(optimizeNode(op.getOperand()));
+            if (isConstant(op.getOperand())) {
+                return fold(op);
+            }
+        } else if (node instanceof BlockNode) {
+            optimizeList(((BlockNode) node).getStatements());
+        } else if (node instanceof IfNode) {
+            IfNode ifNode = (IfNode) node;
+            ifNode.setTestCondition(optimizeNode(ifNode.getTestCondition()));
+            optimizeNode(ifNode.getThenBlock());
+            if (ifNode.getElseBlock() != null) {
+                optimizeNode(ifNode.getElseBlock());
+            }
+        } else if (node instanceof WhileNode) {
+            WhileNode whileNode = (WhileNode) node;
+            whileNode.setTestCondition(optimizeNode(whileNode.getTestCondition()));
+            optimizeNode(whileNode.getLoopBody());
+            return countLoop(whileNode);
+        } else if (node instanceof ForeachNode) {
+            optimizeNode(((ForeachNode) node).getLoopBody());
+        } else if (node instanceof FunctionNode) {
+            FunctionNode function = (FunctionNode) node;
+            // Default values are assignments to the parameters
+            for (Node param : function.getParameters()) {
+                optimizeNode(param);
+            }
+            optimizeNode(function.getBody());
+        } else if (node instanceof FunctionCallNode) {
+            FunctionCallNode call = (FunctionCallNode) node;
+            call.setFunctionNode(optimizeNode(call.getFunctionNode()));
+            optimizeList(call.getArguments());
+        } else if (node instanceof ReturnNode) {
+            ReturnNode returnNode = (ReturnNode) node;
+            returnNode.setExpression(optimizeNode(returnNode.getExpression()));
+        } else if (node instanceof LookupNode) {
+            LookupNode lookup = (LookupNode) node;
+            lookup.setKey(optimizeNode(lookup.getKey()));
+        } else if (node instanceof ArrayNode) {
+            optimizeList(((ArrayNode) node).getElements());
+        } else if (node instanceof DictionaryNode) {
+            for (DictionaryEntryNode entry : ((DictionaryNode) node).getElements()) {
+                optimizeNode(entry);
+            }
+        } else if (node instanceof DictionaryEntryNode) {
+            DictionaryEntryNode entry = (DictionaryEntryNode) node;
+            entry.setKey(optimizeNode(entry.getKey()));
+            entry.setValue(optimizeNode(entry.getValue()));
+        } else if (node instanceof NumberNode) {
+            ZemNumber number = ((NumberNode) node).getValue();
+            ZemNumber interned = intern(interpreter.toNumberMode(number));
+            if (interned != number) {
+                return new NumberNode(node.getPosition(), interned);
+            }
+        }
+        return node;
+    }
+
+    private void optimizeList(List<Node> nodes) {
+        ListIterator<Node> it = nodes.listIterator();
+        while (it.hasNext()) {
+            Node node = it.next();
+            Node optimized = optimizeNode(node);
+            if (optimized != node) {
+                it.set(optimized);
+            }
+        }
+    }
+
+    /**
+     * Simplify a binary operator whose operands have been optimized.
+     */
+    private Node simplify(BinaryOpNode op) {
+        Node left = op.getLeft();
+        Node right = op.getRight();
+        if (op instanceof AndOpNode) {
+            if (left instanceof FalseNode) {
+                // Right operand is never evaluated
+                return left;
+            } else if (left instanceof TrueNode && isBoolean(right)) {
+                return right;
+            } else if (right instanceof TrueNode && isBoolean(left)) {
+                return left;
+            }
+        } else if (op instanceof OrOpNode) {
+            if (left instanceof TrueNode) {
+                return left;
+            } else if (left instanceof FalseNode && isBoolean(right)) {
+                return right;
+            } else if (right instanceof FalseNode && isBoolean(left)) {
+                return left;
+            }
+        }
+        if ((op instanceof IArithmeticOpNode || op instanceof IBooleanOpNode
+                || op instanceof ConcatOpNode || op instanceof RelationalOpNode)
+                && isConstant(left) && isConstant(right)) {
+            return fold(op);
+        }
+        if (op instanceof AddOpNode) {
+            if (isNumber(left) && isNumber(right, "0")) {
+                return left;
+            } else if (isNumber(left, "0") && isNumber(right)) {
+                return right;
+            }
+        } else if (op instanceof SubtractOpNode) {
+            if (isNumber(left) && isNumber(right, "0")) {
+                return left;
+            }
+        } else if (op instanceof MultiplyOpNode) {
+            if (isNumber(left) && isNumber(right, "1")) {
+                return left;
+            } else if (isNumber(left, "1") && isNumber(right)) {
+                return right;
+            }
+        } else if (op instanceof DivideOpNode) {
+            if (isNumber(left) && isNumber(right, "1")) {
+                return left;
+            }
+        } else if (op instanceof ConcatOpNode) {
+            if (isString(left) && isString(right, "")) {
+                return left;
+            } else if (isString(left, "") && isString(right)) {
+                return right;
+            }
+        }
+        return op;
+    }
+
+    /**
+     * Replace an operator with constant operands by its value.
+     */
+    private Node fold(Node op) {
+        ZemObject value;
+        try {
+            value = op.eval(interpreter);
+        } catch (ZemException e) {
+            // Leave the error to be raised at its position when the program runs
+            return op;
+        } catch (ArithmeticException e) {
+            return op;
+        }
+        if (value instanceof ZemNumber) {
+            return new NumberNode(op.getPosition(), intern((ZemNumber) value));
+        } else if (value instanceof ZemString) {
+            return new StringNode(op.getPosition(), (ZemString) value);
+        } else if (value instanceof ZemBoolean) {
+            if (((ZemBoolean) value).booleanValue()) {
+                return new TrueNode(op.getPosition());
+            }
+            return new FalseNode(op.getPosition());
+        }
+        return op;
+    }
+
+    /**
+     * Get the shared instance of a number constant. Numbers are equal
+     * regardless of scale, so they are told apart by how they print.
+     */
+    private ZemNumber intern(ZemNumber number) {
+        String key = number.toString();
+        ZemNumber interned = numbers.get(key);
+        if (interned == null) {
+            numbers.put(key, number);
+            return number;
+        }
+        return interned;
+    }
+
+    /**
+     * Replace a while loop that counts an integer variable to a bound,
+     * while (i < n) { ...; i = i + 1; }, with a CountedWhileNode. The
+     * bound is a literal or another variable, and the step an integer.
+     */
+    private Node countLoop(WhileNode loop) {
+        Node test = loop.getTestCondition();
+        if (!(test instanceof RelationalOpNode) || test instanceof EqualsOpNode
+                || !(loop.getLoopBody() instanceof BlockNode)) {
+            return loop;
+        }
+        RelationalOpNode comparison = (RelationalOpNode) test;
+        if (!(comparison.getLeft() instanceof VariableNode)) {
+            return loop;
+        }
+        String name = ((VariableNode) comparison.getLeft()).getName();
+        Node bound = comparison.getRight();
+        if (!(bound instanceof NumberNode || bound instanceof VariableNode) || isVariable(bound, name)) {
+            return loop;
+        }
+        BlockNode body = (BlockNode) loop.getLoopBody();
+        List<Node> statements = body.getStatements();
+        if (statements.isEmpty() || !(statements.get(statements.size() - 1) instanceof AssignNode)) {
+            return loop;
+        }
+        AssignNode increment = (AssignNode) statements.get(statements.size() - 1);
+        if (!isVariable(increment.getLeft(), name)) {
+            return loop;
+        }
+        // i + c, c + i or i - c
+        Node step = null;
+        boolean negate = false;
+        if (increment.getRight() instanceof AddOpNode) {
+            AddOpNode add = (AddOpNode) increment.getRight();
+            if (isVariable(add.getLeft(), name)) {
+                step = add.getRight();
+            } else if (isVariable(add.getRight(), name)) {
+                step = add.getLeft();
+            }
+        } else if (increment.getRight() instanceof SubtractOpNode) {
+            SubtractOpNode subtract = (SubtractOpNode) increment.getRight();
+            if (isVariable(subtract.getLeft(), name)) {
+                step = subtract.getRight();
+                negate = true;
+            }
+        }
+        if (!(step instanceof NumberNode) || !((NumberNode) step).getValue().isLongForm()) {
+            return loop;
+        }
+        long amount = ((NumberNode) step).getValue().longValue();
+        if (negate) {
+            if (amount == Long.MIN_VALUE) {
+                return loop;
+            }
+            amount = -amount;
+        }
+        boolean readsCounter = false;
+        for (Node statement : statements.subList(0, statements.size() - 1)) {
+            readsCounter |= mayRead(statement, name);
+        }
+        return new CountedWhileNode(loop.getPosition(), comparison, body, amount, readsCounter);
+    }
+
+    private boolean isVariable(Node node, String name) {
+        return node instanceof VariableNode && ((VariableNode) node).getName().equals(name);
+    }
+
+    /**
+     * Check if evaluating a node may read a variable. Function calls may
+     * read any variable.
+     */
+    private boolean mayRead(Node node, String name) {
+        if (node instanceof VariableNode) {
+            return isVariable(node, name);
+        } else if (node instanceof FunctionCallNode || node instanceof FunctionNode) {
+            return true;
+        } else if (node instanceof BinaryOpNode) {
+            BinaryOpNode op = (BinaryOpNode) node;
+            return mayRead(op.getLeft(), name) || mayRead(op.getRight(), name);
+        } else if (node instanceof UnaryOpNode) {
+            return mayRead(((UnaryOpNode) node).getOperand(), name);
+        } else if (node instanceof BlockNode) {
+            return mayReadAny(((BlockNode) node).getStatements(), name);
+        } else if (node instanceof IfNode) {
+            IfNode ifNode = (IfNode) node;
+            return mayRead(ifNode.getTestCondition(), name) || mayRead(ifNode.getThenBlock(), name)
+                || (ifNode.getElseBlock() != null && mayRead(ifNode.getElseBlock(), name));
+        } else if (node instanceof WhileNode) {
+            WhileNode whileNode = (WhileNode) node;
+            return mayRead(whileNode.getTestCondition(), name) || mayRead(whileNode.getLoopBody(), name);
+        } else if (node instanceof ForeachNode) {
+            ForeachNode foreach = (ForeachNode) node;
+            return mayRead(foreach.getOnVariable(), name) || mayRead(foreach.getAsNode(), name)
+                || mayRead(foreach.getLoopBody(), name);
+        } else if (node instanceof DictionaryEntryNode) {
+            DictionaryEntryNode entry = (DictionaryEntryNode) node;
+            return mayRead(entry.getKey(), name) || mayRead(entry.getValue(), name);
+        } else if (node instanceof ReturnNode) {
+            return mayRead(((ReturnNode) node).getExpression(), name);
+        } else if (node instanceof LookupNode) {
+            LookupNode lookup = (LookupNode) node;
+            return mayRead(lookup.getVariable(), name) || mayRead(lookup.getKey(), name);
+        } else if (node instanceof ArrayNode) {
+            return mayReadAny(((ArrayNode) node).getElements(), name);
+        } else if (node instanceof DictionaryNode) {
+            for (DictionaryEntryNode entry : ((DictionaryNode) node).getElements()) {
+                if (mayRead(entry, name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean mayReadAny(List<Node> nodes, String name) {
+        for (Node node : nodes) {
+            if (mayRead(node, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isConstant(Node node) {
+        return node instanceof NumberNode || node instanceof StringNode
+            || node instanceof TrueNode || node instanceof FalseNode;
+    }
+
+    /**
+     * Check if a node always evaluates to a number.
+     */
+    private boolean isNumber(Node node) {
+        return node instanceof NumberNode || node instanceof IArithmeticOpNode;
+    }
+
+    /**
+     * Check if a node is a number literal written exactly as given. The
+     * scale of a BigDecimal is kept by arithmetic, so 1.0 is not an
+     * identity of multiply.
+     */
+    private boolean isNumber(Node node, String literal) {
+        return node instanceof NumberNode
+            && ((NumberNode) node).getValue().toString().equals(literal);
+    }
+
+    /**
+     * Check if a node always evaluates to a boolean.
+     */
+    private boolean isBoolean(Node node) {
+        return node instanceof TrueNode || node instanceof FalseNode
+            || node instanceof IBooleanOpNode || node instanceof RelationalOpNode;
+    }
+
+    /**
+     * Check if a node always evaluates to a string.
+     */
+    private boolean isString(Node node) {
+        return node instanceof StringNode || node instanceof ConcatOpNode;
+    }
+
+    private boolean isString(Node node, String literal) {
+        return node instanceof StringNode
+            && ((StringNode) node).getValue().toString().equals(literal);
+    }
+}
@@ -21,8 +21,10 @@
  */
 package net.zeminvaders.lang;
 
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import net.zeminvaders.lang.ast.AddOpNode;
 import net.zeminvaders.lang.ast.AndOpNode;
@@ -60,6 +62,7 @@ import net.zeminvaders.lang.ast.SubtractOpNode;
 import net.zeminvaders.lang.ast.TrueNode;
 import net.zeminvaders.lang.ast.VariableNode;
 import net.zeminvaders.lang.ast.WhileNode;
+import net.zeminvaders.lang.runtime.ZemString;
 
 /**
  * Check the syntax and convert the Token stream into Abstract Syntax Tree.
@@ -69,6 +72,8 @@ import net.zeminvaders.lang.ast.WhileNode;
 public class Parser {
     // Look ahead buffer for reading tokens from the lexer
     TokenBuffer lookAheadBuffer;
+    // String literals of the program, so equal literals share one ZemString
+    private Map<String, ZemString> strings = new HashMap<String, ZemString>();
 
     public Parser(Lexer lexer) {
         lookAheadBuffer = new TokenBuffer(lexer, 2);
@@ -251,14 +256,23 @@ public class Parser {
         return new DictionaryEntryNode(pos, key, value);
     }
 
+    private StringNode stringLiteral() {
+        Token t = match(TokenType.STRING_LITERAL);
+        ZemString literal = strings.get(t.getText());
+        if (literal == null) {
+            literal = new ZemString(t.getText());
+            strings.put(t.getText(), literal);
+        }
+        return new StringNode(t.getPosition(), literal);
+    }
+
     private Node key() {
         // STRING_LITERAL | NUMBER
         if (lookAhead(1) == TokenType.STRING_LITERAL) {
-            Token t = match(TokenType.STRING_LITERAL);
-            return new StringNode(t.getPosition(), t.getText());
+            return stringLiteral();
         } else {
-            Token t = match(TokenType.NUMBER);
-            return new NumberNode(t.getPosition(), t.getText());
+            NumberToken t = (NumberToken) match(TokenType.NUMBER);
+            return new NumberNode(t.getPosition(), t.getValue());
         }
     }
 
@@ -428,8 +442,8 @@ public class Parser {
         // | variable
         TokenType type = lookAhead(1);
         if (type == TokenType.NUMBER) {
-            Token t = match(TokenType.NUMBER);
-            return new NumberNode(t.getPosition(), t.getText());
+            NumberToken t = (NumberToken) match(TokenType.NUMBER);
+            return new NumberNode(t.getPosition(), t.getValue());
         } else if (type == TokenType.TRUE) {
             return new TrueNode(match(TokenType.TRUE).getPosition());
         } else if (type == TokenType.FALSE) {
@@ -527,8 +541,7 @@ public class Parser {
     private Node string() {
         // STRING_LITERAL | boolExpr
         if (lookAhead(1) == TokenType.STRING_LITERAL) {
-            Token t = match(TokenType.STRING_LITERAL);
-            return new StringNode(t.getPosition(), t.getText());
+            return stringLiteral();
         } else {
             return booleanExpression();
         }
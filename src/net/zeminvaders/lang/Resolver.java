@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.zeminvaders.lang.ast.AssignNode;
+import net.zeminvaders.lang.ast.ArrayNode;
+import net.zeminvaders.lang.ast.BinaryOpNode;
+import net.zeminvaders.lang.ast.BlockNode;
+import net.zeminvaders.lang.ast.DictionaryEntryNode;
+import net.zeminvaders.lang.ast.DictionaryNode;
+import net.zeminvaders.lang.ast.ForeachNode;
+import net.zeminvaders.lang.ast.FunctionCallNode;
+import net.zeminvaders.lang.ast.FunctionNode;
+import net.zeminvaders.lang.ast.IfNode;
+import net.zeminvaders.lang.ast.LookupNode;
+import net.zeminvaders.lang.ast.Node;
+import net.zeminvaders.lang.ast.ReturnNode;
+import net.zeminvaders.lang.ast.RootNode;
+import net.zeminvaders.lang.ast.UnaryOpNode;
+import net.zeminvaders.lang.ast.VariableNode;
+import net.zeminvaders.lang.ast.WhileNode;
+
+/**
+ * Resolves variables to slots in the function environments so the
+ * interpreter can access them by index instead of by name.
+ *
+ * Every variable assigned in a function body (including parameters and
+ * foreach variables) is local to that function. A variable used inside a
+ * function is bound to the innermost enclosing function that declares it.
+ * Variables not declared in any enclosing function are globals and are
+ * still looked up by name.
+ *
+ * Calls in tail position are marked so the interpreter can make them
+ * without growing the stack.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class Resolver {
+    /**
+     * Local variables of a function being resolved.
+     */
+    private static class Scope {
+        private Scope parent;
+        private List<String> names = new ArrayList<String>();
+
+        public Scope(Scope parent) {
+            this.parent = parent;
+        }
+
+        public void declare(String name) {
+            if (!names.contains(name)) {
+                names.add(name);
+            }
+        }
+
+        public int indexOf(String name) {
+            return names.indexOf(name);
+        }
+    }
+
+    /**
+     * Scope of the function being resolved. Null at the top level.
+     */
+    private Scope scope;
+
+    /**
+     * Resolve the variables in a program.
+     *
+     * @param program The program to resolve
+     */
+    public void resolve(RootNode program) {
+        resolveNode(program);
+    }
+
+    private void resolveNode(Node node) {
+        if (node instanceof VariableNode) {
+            resolveVariable((VariableNode) node);
+        } else if (node instanceof FunctionNode) {
+            resolveFunction((FunctionNode) node);
+        } else if (node instanceof AssignNode) {
+            // Value is evaluated before the assignment
+            AssignNode assign = (AssignNode) node;
+            resolveNode(assign.getRight());
+            resolveNode(assign.getLeft());
+        } else if (node instanceof BinaryOpNode) {
+            BinaryOpNode op = (BinaryOpNode) node;
+            resolveNode(op.getLeft());
+            resolveNode(op.getRight());
+        } else if (node instanceof UnaryOpNode) {
+            resolveNode(((UnaryOpNode) node).getOperand());
+        } else if (node instanceof BlockNode) {
+            for (Node statement : ((BlockNode) node).getStatements()) {
+                resolveNode(statement);
+            }
+        } else if (node instanceof IfNode) {
+            IfNode ifNode = (IfNode) node;
+            resolveNode(ifNode.getTestCondition());
+            resolveNode(ifNode.getThenBlock());
+            if (ifNode.getElseBlock() != null) {
+                resolveNode(ifNode.getElseBlock());
+            }
+        } else if (node instanceof WhileNode) {
+            WhileNode whileNode = (WhileNode) node;
+            resolveNode(whileNode.getTestCondition());
+            resolveNode(whileNode.getLoopBody());
+        } else if (node instanceof ForeachNode) {
+            ForeachNode foreach = (ForeachNode) node;
+            resolveNode(foreach.getOnVariable());
+            resolveNode(foreach.getAsNode());
+            resolveNode(foreach.getLoopBody());
+        } else if (node instanceof DictionaryEntryNode) {
+            DictionaryEntryNode entry = (DictionaryEntryNode) node;
+            resolveNode(entry.getKey());
+            resolveNode(entry.getValue());
+        } else if (node instanceof FunctionCallNode) {
+            FunctionCallNode call = (FunctionCallNode) node;
+            resolveNode(call.getFunctionNode());
+            for (Node arg : call.getArguments()) {
+                resolveNode(arg);
+            }
+        } else if (node instanceof ReturnNode) {
+            Node expression = ((ReturnNode) node).getExpression();
+            if (scope != null && expression instanceof FunctionCallNode) {
+                ((FunctionCallNode) expression).setTailCall(true);
+            }
+            resolveNode(expression);
+        } else if (node instanceof LookupNode) {
+            LookupNode lookup = (LookupNode) node;
+            resolveNode(lookup.getVariable());
+            resolveNode(lookup.getKey());
+        } else if (node instanceof ArrayNode) {
+            for (Node element : ((ArrayNode) node).getElements()) {
+                resolveNode(element);
+            }
+        } else if (node instanceof DictionaryNode) {
+            for (Node entry : ((DictionaryNode) node).getElements()) {
+                resolveNode(entry);
+            }
+        }
+        // Otherwise node is a constant and has nothing to resolve
+    }
+
+    private void resolveVariable(VariableNode var) {
+        int depth = 0;
+        for (Scope s = scope; s != null; s = s.parent) {
+            int slot = s.indexOf(var.getName());
+            if (slot >= 0) {
+                var.resolve(depth, slot);
+                return;
+            }
+            depth++;
+        }
+        // Global variable
+    }
+
+    private void resolveFunction(FunctionNode function) {
+        // Default values are evaluated where the function is declared
+        for (Node param : function.getParameters()) {
+            if (param instanceof AssignNode) {
+                resolveNode(((AssignNode) param).getRight());
+            }
+        }
+        Scope functionScope = new Scope(scope);
+        for (Node param : function.getParameters()) {
+            if (param instanceof AssignNode) {
+                param = ((AssignNode) param).getLeft();
+            }
+            functionScope.declare(((VariableNode) param).getName());
+        }
+        declareLocals(functionScope, function.getBody());
+        markTailCalls(function.getBody());
+        scope = functionScope;
+        resolveNode(function.getBody());
+        scope = functionScope.parent;
+        function.setVariableNames(functionScope.names.toArray(new String[functionScope.names.size()]));
+    }
+
+    /**
+     * Mark the calls whose value is the value of a function body. Calls
+     * returned by a return statement are marked when the return is resolved.
+     */
+    private void markTailCalls(Node statement) {
+        if (statement instanceof FunctionCallNode) {
+            ((FunctionCallNode) statement).setTailCall(true);
+        } else if (statement instanceof BlockNode) {
+            List<Node> statements = ((BlockNode) statement).getStatements();
+            if (!statements.isEmpty()) {
+                markTailCalls(statements.get(statements.size() - 1));
+            }
+        } else if (statement instanceof IfNode) {
+            IfNode ifNode = (IfNode) statement;
+            markTailCalls(ifNode.getThenBlock());
+            if (ifNode.getElseBlock() != null) {
+                markTailCalls(ifNode.getElseBlock());
+            }
+        }
+    }
+
+    /**
+     * Find the variables assigned by the statements of a function body.
+     * Nested functions are not searched since they have their own scope.
+     */
+    private void declareLocals(Scope functionScope, Node statement) {
+        if (statement instanceof AssignNode) {
+            Node var = ((AssignNode) statement).getLeft();
+            if (var instanceof VariableNode) {
+                functionScope.declare(((VariableNode) var).getName());
+            }
+        } else if (statement instanceof BlockNode) {
+            for (Node node : ((BlockNode) statement).getStatements()) {
+                declareLocals(functionScope, node);
+            }
+        } else if (statement instanceof IfNode) {
+            IfNode ifNode = (IfNode) statement;
+            declareLocals(functionScope, ifNode.getThenBlock());
+            if (ifNode.getElseBlock() != null) {
+                declareLocals(functionScope, ifNode.getElseBlock());
+            }
+        } else if (statement instanceof WhileNode) {
+            declareLocals(functionScope, ((WhileNode) statement).getLoopBody());
+        } else if (statement instanceof ForeachNode) {
+            ForeachNode foreach = (ForeachNode) statement;
+            Node as = foreach.getAsNode();
+            if (as instanceof DictionaryEntryNode) {
+                functionScope.declare(((VariableNode) ((DictionaryEntryNode) as).getKey()).getName());
+                functionScope.declare(((VariableNode) ((DictionaryEntryNode) as).getValue()).getName());
+            } else {
+                functionScope.declare(((VariableNode) as).getName());
+            }
+            declareLocals(functionScope, foreach.getLoopBody());
+        }
+    }
+}
@@ -57,11 +57,11 @@ public class Token {
         if (!(obj instanceof Token))
             return false;
         Token other = (Token) obj;
-        return this.type == other.type && this.text.equals(other.text) && this.position.equals(other.position);
+        return this.type == other.type && this.getText().equals(other.getText()) && this.position.equals(other.position);
     }
 
     @Override
     public String toString() {
-        return type + ",'" + text + "'";
+        return type + ",'" + getText() + "'";
     }
 }
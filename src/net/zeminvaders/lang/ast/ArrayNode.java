@@ -42,6 +42,10 @@ public class ArrayNode extends Node {
         this.elements = elements;
     }
 
+    public List<Node> getElements() {
+        return elements;
+    }
+
     @Override
     public ZemObject eval(Interpreter interpreter) {
         List<ZemObject> items = new ArrayList<ZemObject>(elements.size());
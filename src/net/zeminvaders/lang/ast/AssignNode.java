@@ -41,8 +41,7 @@ public class AssignNode extends BinaryOpNode {
         Node left = getLeft();
         ZemObject value = getRight().eval(interpreter);
         if (left instanceof VariableNode) {
-            String name = ((VariableNode) left).getName();
-            interpreter.setVariable(name, value);
+            ((VariableNode) left).assign(interpreter, value);
             return value;
         } else if (left instanceof LookupNode) {
             ((LookupNode) left).set(interpreter, value);
@@ -58,6 +58,10 @@ public abstract class BinaryOpNode extends Node {
         return left;
     }
 
+    public void setLeft(Node left) {
+        this.left = left;
+    }
+
     /**
      * Get right operand
      */
@@ -65,6 +69,10 @@ public abstract class BinaryOpNode extends Node {
         return right;
     }
 
+    public void setRight(Node right) {
+        this.right = right;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -44,7 +44,7 @@ public class BlockNode extends Node {
         return statements.get(index);
     }
 
-    protected List<Node> getStatements() {
+    public List<Node> getStatements() {
         return statements;
     }
 
@@ -53,6 +53,9 @@ public class BlockNode extends Node {
         ZemObject ret = null;
         for (Node statement : statements) {
             ret = statement.eval(interpreter);
+            if (interpreter.isReturning()) {
+                return ret;
+            }
         }
         return ret;
     }
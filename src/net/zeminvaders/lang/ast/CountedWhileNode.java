@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.ast;
+
+import java.util.List;
+
+import net.zeminvaders.lang.Interpreter;
+import net.zeminvaders.lang.SourcePosition;
+import net.zeminvaders.lang.runtime.ZemNumber;
+import net.zeminvaders.lang.runtime.ZemObject;
+
+/**
+ * while loop that counts an integer variable up or down to a bound:
+ *
+ * <pre>
+ * while (i &lt; n) { ...; i = i + 1; }
+ * </pre>
+ *
+ * The counter is kept in a long while it and the bound are integers. It
+ * is only stored in the variable each iteration if the body may read it,
+ * otherwise once the loop ends. If anything else changes the counter, or
+ * it stops being an integer, the rest of the loop runs as a plain while.
+ *
+ * Created by the Optimizer; compiled like any other while loop.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class CountedWhileNode extends WhileNode {
+    /**
+     * Comparisons of the counter with the bound.
+     */
+    static final private int LESS_THEN = 0;
+    static final private int LESS_EQUAL = 1;
+    static final private int GREATER_THEN = 2;
+    static final private int GREATER_EQUAL = 3;
+    static final private int NOT_EQUAL = 4;
+
+    private VariableNode counter;
+    private Node bound;
+    private int comparison;
+    private long step;
+    private Node[] statements;
+    private Node increment;
+    private boolean readsCounter;
+
+    /**
+     * @param pos           Source position of the loop
+     * @param testCondition Comparison of the counter variable with the bound
+     * @param loopBody      Body of the loop, ending with the increment
+     * @param step          Amount added to the counter by the increment
+     * @param readsCounter  If the body, other than the increment, or the
+     *                      bound may read the counter
+     */
+    public CountedWhileNode(SourcePosition pos, RelationalOpNode testCondition, BlockNode loopBody,
+            long step, boolean readsCounter) {
+        super(pos, testCondition, loopBody);
+        this.counter = (VariableNode) testCondition.getLeft();
+        this.bound = testCondition.getRight();
+        if (testCondition instanceof LessThanOpNode) {
+            comparison = LESS_THEN;
+        } else if (testCondition instanceof LessEqualOpNode) {
+            comparison = LESS_EQUAL;
+        } else if (testCondition instanceof GreaterThanOpNode) {
+            comparison = GREATER_THEN;
+        } else if (testCondition instanceof GreaterEqualOpNode) {
+            comparison = GREATER_EQUAL;
+        } else {
+            comparison = NOT_EQUAL;
+        }
+        this.step = step;
+        List<Node> body = loopBody.getStatements();
+        this.statements = body.subList(0, body.size() - 1).toArray(new Node[body.size() - 1]);
+        this.increment = body.get(body.size() - 1);
+        this.readsCounter = readsCounter;
+    }
+
+    static private boolean isLong(ZemObject value) {
+        return value instanceof ZemNumber && ((ZemNumber) value).isLongForm();
+    }
+
+    private boolean test(long i, long limit) {
+        switch (comparison) {
+            case LESS_THEN:
+                return i < limit;
+            case LESS_EQUAL:
+                return i <= limit;
+            case GREATER_THEN:
+                return i > limit;
+            case GREATER_EQUAL:
+                return i >= limit;
+            default:
+                return i != limit;
+        }
+    }
+
+    /**
+     * Store the counter in the variable if the variable is behind.
+     *
+     * @param current Value in the variable, or null if behind the counter
+     * @return Value in the variable
+     */
+    private ZemObject store(Interpreter interpreter, long i, ZemObject current) {
+        if (current == null) {
+            current = ZemNumber.valueOf(i);
+            counter.assign(interpreter, current);
+        }
+        return current;
+    }
+
+    @Override
+    public ZemObject eval(Interpreter interpreter) {
+        ZemObject current = counter.eval(interpreter);
+        if (!isLong(current)) {
+            return loop(interpreter, null);
+        }
+        long i = ((ZemNumber) current).longValue();
+        ZemObject ret = null;
+        while (true) {
+            ZemObject limit = bound.eval(interpreter);
+            if (!isLong(limit)) {
+                if (current == null) {
+                    ret = store(interpreter, i, current);
+                }
+                return loop(interpreter, ret);
+            }
+            if (!test(i, ((ZemNumber) limit).longValue())) {
+                break;
+            }
+            for (int s = 0; s < statements.length; s++) {
+                ret = statements[s].eval(interpreter);
+                if (interpreter.isReturning()) {
+                    store(interpreter, i, current);
+                    return ret;
+                }
+            }
+            long next = i + step;
+            if (((i ^ next) & (step ^ next)) < 0 || (readsCounter && counter.eval(interpreter) != current)) {
+                // Counter no longer fits in a long, or the body changed it
+                store(interpreter, i, current);
+                return loop(interpreter, increment.eval(interpreter));
+            }
+            i = next;
+            if (readsCounter) {
+                current = ZemNumber.valueOf(i);
+                counter.assign(interpreter, current);
+                ret = current;
+            } else {
+                current = null;
+            }
+        }
+        if (current == null) {
+            ret = store(interpreter, i, current);
+        }
+        return ret;
+    }
+}
@@ -45,10 +45,18 @@ public class DictionaryEntryNode extends Node {
         return key;
     }
 
+    public void setKey(Node key) {
+        this.key = key;
+    }
+
     public Node getValue() {
         return value;
     }
 
+    public void setValue(Node value) {
+        this.value = value;
+    }
+
     @Override
     public ZemObject eval(Interpreter interpreter) {
         return new DictionaryEntry(key.eval(interpreter), value.eval(interpreter));
@@ -44,6 +44,10 @@ public class DictionaryNode extends Node {
         this.elements = elements;
     }
 
+    public List<DictionaryEntryNode> getElements() {
+        return elements;
+    }
+
     @Override
     public ZemObject eval(Interpreter interpreter) {
         Map<ZemObject, ZemObject> entries = new LinkedHashMap<ZemObject, ZemObject>(elements.size());
@@ -47,25 +47,47 @@ public class ForeachNode extends Node {
         this.loopBody = loopBody;
     }
 
+    public VariableNode getOnVariable() {
+        return onVariableNode;
+    }
+
+    /**
+     * Get the loop variable. Either a VariableNode or a DictionaryEntryNode
+     * for key : value loops.
+     */
+    public Node getAsNode() {
+        return asNode;
+    }
+
+    public Node getLoopBody() {
+        return loopBody;
+    }
+
     @Override
     public ZemObject eval(Interpreter interpreter) {
-        ZemObject onVariable = interpreter.getVariable(onVariableNode.getName(), onVariableNode.getPosition());
+        ZemObject onVariable = onVariableNode.eval(interpreter);
         ZemObject ret = null;
         if (onVariable instanceof ZemArray) {
-            String asVariableName = asNode.toString();
+            VariableNode asVariable = (VariableNode) asNode;
             for (ZemObject element : (ZemArray) onVariable) {
-                interpreter.setVariable(asVariableName, element);
+                asVariable.assign(interpreter, element);
                 ret = loopBody.eval(interpreter);
+                if (interpreter.isReturning()) {
+                    return ret;
+                }
             }
             return ret;
         } else if (onVariable instanceof Dictionary) {
             DictionaryEntryNode entryNode = (DictionaryEntryNode) asNode;
-            String keyName = ((VariableNode) entryNode.getKey()).getName();
-            String valueName = ((VariableNode) entryNode.getValue()).getName();
+            VariableNode keyVariable = (VariableNode) entryNode.getKey();
+            VariableNode valueVariable = (VariableNode) entryNode.getValue();
             for (Map.Entry<ZemObject, ZemObject> entry : (Dictionary) onVariable) {
-                interpreter.setVariable(keyName, entry.getKey());
-                interpreter.setVariable(valueName, entry.getValue());
+                keyVariable.assign(interpreter, entry.getKey());
+                valueVariable.assign(interpreter, entry.getValue());
                 ret = loopBody.eval(interpreter);
+                if (interpreter.isReturning()) {
+                    return ret;
+                }
             }
             return ret;
         }
@@ -22,11 +22,15 @@
 package net.zeminvaders.lang.ast;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import net.zeminvaders.lang.Interpreter;
 import net.zeminvaders.lang.InvalidTypeException;
 import net.zeminvaders.lang.SourcePosition;
+import net.zeminvaders.lang.TooFewArgumentsException;
+import net.zeminvaders.lang.runtime.ArgumentBinding;
+import net.zeminvaders.lang.runtime.Environment;
 import net.zeminvaders.lang.runtime.Function;
 import net.zeminvaders.lang.runtime.ZemObject;
 
@@ -38,35 +42,212 @@ import net.zeminvaders.lang.runtime.ZemObject;
 public class FunctionCallNode extends Node {
     final static public List<Node> NO_ARGUMENTS = new ArrayList<Node>(0);
 
+    /**
+     * Number of functions the inline cache of a call site remembers before
+     * the call site is treated as megamorphic.
+     */
+    final static private int MAX_CACHED_FUNCTIONS = 4;
+
     private Node functionNode;
     private List<Node> arguments;
 
+    // Inline cache of the function looked up by name
+    private Function cachedFunction;
+    private Environment cachedGlobals;
+    private int cachedFunctionVersion;
+
+    // Inline cache of the argument bindings of the functions called
+    private ArgumentBinding[] bindings;
+    private int bindingCount = 0;
+
+    // Call is the last thing its function does
+    private boolean tailCall = false;
+
     public FunctionCallNode(SourcePosition pos, Node functionNode, List<Node> arguments) {
         super(pos);
         this.functionNode = functionNode;
         this.arguments = arguments;
     }
 
-    private String getFunctionName() {
+    public Node getFunctionNode() {
+        return functionNode;
+    }
+
+    public void setFunctionNode(Node functionNode) {
+        this.functionNode = functionNode;
+    }
+
+    public List<Node> getArguments() {
+        return arguments;
+    }
+
+    public boolean isTailCall() {
+        return tailCall;
+    }
+
+    /**
+     * Mark the call as being in tail position. Instead of nesting inside
+     * the calling function, a tail call is made once the calling function
+     * returns.
+     */
+    public void setTailCall(boolean tailCall) {
+        this.tailCall = tailCall;
+    }
+
+    public String getFunctionName() {
         if (functionNode instanceof VariableNode) {
             return ((VariableNode) functionNode).getName();
         }
         return null;
     }
 
-    @Override
-    public ZemObject eval(Interpreter interpreter) {
+    /**
+     * Evaluate the function expression. A function looked up by name is
+     * remembered until a variable that may hide or replace it is set.
+     */
+    private Function resolveFunction(Interpreter interpreter) {
+        boolean byName = functionNode instanceof VariableNode
+            && ((VariableNode) functionNode).getSlot() < 0;
+        int version = 0;
+        if (byName) {
+            version = interpreter.getEnvironment().getFunctionVersion();
+            if (cachedFunction != null && cachedFunctionVersion == version
+                    && cachedGlobals == interpreter.getGlobals()) {
+                return cachedFunction;
+            }
+        }
         ZemObject expression = functionNode.eval(interpreter);
         if (!(expression instanceof Function)) {
             throw new InvalidTypeException("Call to invalid function", getPosition());
         }
         Function function = (Function) expression;
-        // Evaluate the arguments
-        List<ZemObject> args = new ArrayList<ZemObject>(arguments.size());
-        for (Node node : arguments) {
-            args.add(node.eval(interpreter));
+        if (byName) {
+            cachedFunction = function;
+            cachedGlobals = interpreter.getGlobals();
+            cachedFunctionVersion = version;
         }
-        return interpreter.callFunction(function, args, getPosition(), getFunctionName());
+        return function;
+    }
+
+    /**
+     * Find the argument binding for a function in the inline cache.
+     *
+     * @return The argument binding or null if the call site is megamorphic
+     */
+    private ArgumentBinding lookupBinding(Function function) {
+        for (int i = 0; i < bindingCount; i++) {
+            if (bindings[i].getFunction() == function) {
+                return bindings[i];
+            }
+        }
+        if (bindingCount == MAX_CACHED_FUNCTIONS) {
+            return null;
+        }
+        if (bindings == null) {
+            bindings = new ArgumentBinding[MAX_CACHED_FUNCTIONS];
+        }
+        ArgumentBinding binding = new ArgumentBinding(function, arguments.size());
+        bindings[bindingCount++] = binding;
+        return binding;
+    }
+
+    /**
+     * Evaluate the arguments into the parameter slots of a call.
+     */
+    private void evalArguments(Interpreter interpreter, ArgumentBinding binding, ZemObject[] slots) {
+        int parameterCount = binding.getParameterCount();
+        boolean missingArguments = binding.hasMissingArguments();
+        for (int i = 0; i < arguments.size(); i++) {
+            ZemObject value = arguments.get(i).eval(interpreter);
+            if (i < parameterCount) {
+                slots[i] = value;
+                if (value == null) {
+                    missingArguments = true;
+                }
+            }
+        }
+        if (missingArguments) {
+            throw new TooFewArgumentsException(getFunctionName(), binding.getRequiredCount(),
+                    arguments.size(), getPosition());
+        }
+    }
+
+    /**
+     * Call a function with arguments that are already evaluated, using the
+     * inline cache of this call site. Compiled code makes its calls with
+     * this method.
+     *
+     * @param function The function to call
+     * @param args     Values of the arguments
+     * @return Return value of the function, or null for a call in tail
+     *         position, which is made once the calling function returns
+     */
+    public ZemObject call(Interpreter interpreter, Function function, ZemObject[] args) {
+        ArgumentBinding binding = lookupBinding(function);
+        Environment callEnvironment;
+        if (binding == null) {
+            List<ZemObject> list = Arrays.asList(args);
+            if (!tailCall) {
+                return interpreter.callFunction(function, list, getPosition(), getFunctionName());
+            }
+            callEnvironment = interpreter.bindArguments(function, list, getPosition(), getFunctionName());
+        } else {
+            callEnvironment = binding.createEnvironment(interpreter.getGlobals());
+            ZemObject[] slots = callEnvironment.getSlots();
+            boolean missingArguments = binding.hasMissingArguments();
+            for (int i = 0; i < args.length && i < binding.getParameterCount(); i++) {
+                slots[i] = args[i];
+                if (args[i] == null) {
+                    missingArguments = true;
+                }
+            }
+            if (missingArguments) {
+                throw new TooFewArgumentsException(getFunctionName(), binding.getRequiredCount(),
+                        args.length, getPosition());
+            }
+        }
+        if (!tailCall) {
+            return interpreter.invoke(function, callEnvironment, getPosition());
+        }
+        interpreter.tailCall(function, callEnvironment, getPosition());
+        return null;
+    }
+
+    @Override
+    public ZemObject eval(Interpreter interpreter) {
+        Function function = resolveFunction(interpreter);
+        ArgumentBinding binding = lookupBinding(function);
+        Environment callEnvironment;
+        if (binding == null) {
+            List<ZemObject> args = new ArrayList<ZemObject>(arguments.size());
+            for (Node node : arguments) {
+                args.add(node.eval(interpreter));
+            }
+            if (!tailCall) {
+                return interpreter.callFunction(function, args, getPosition(), getFunctionName());
+            }
+            callEnvironment = interpreter.bindArguments(function, args, getPosition(), getFunctionName());
+        } else if (tailCall && function == interpreter.getFunction()
+                && !interpreter.getEnvironment().isCaptured()) {
+            // Self call in tail position reuses the environment of the current call
+            ZemObject[] values = new ZemObject[binding.getParameterCount()];
+            evalArguments(interpreter, binding, values);
+            callEnvironment = interpreter.getEnvironment();
+            binding.resetEnvironment(callEnvironment);
+            System.arraycopy(values, 0, callEnvironment.getSlots(), 0,
+                    Math.min(values.length, arguments.size()));
+        } else {
+            // Evaluate the arguments straight into the parameter slots
+            callEnvironment = binding.createEnvironment(interpreter.getGlobals());
+            evalArguments(interpreter, binding, callEnvironment.getSlots());
+        }
+        if (!tailCall) {
+            return interpreter.invoke(function, callEnvironment, getPosition());
+        }
+        interpreter.tailCall(function, callEnvironment, getPosition());
+        // Nothing else runs in the calling function
+        interpreter.setReturning(true);
+        return null;
     }
 
     @Override
@@ -26,6 +26,8 @@ import java.util.List;
 
 import net.zeminvaders.lang.Interpreter;
 import net.zeminvaders.lang.SourcePosition;
+import net.zeminvaders.lang.jit.HotFunction;
+import net.zeminvaders.lang.runtime.Environment;
 import net.zeminvaders.lang.runtime.Parameter;
 import net.zeminvaders.lang.runtime.UserFunction;
 import net.zeminvaders.lang.runtime.ZemObject;
@@ -40,11 +42,44 @@ public class FunctionNode extends Node {
 
     private List<Node> parameters;
     private Node body;
+    private String[] variableNames;
+    private HotFunction hotFunction;
 
     public FunctionNode(SourcePosition pos, List<Node> parameters, Node body) {
         super(pos);
         this.parameters = parameters;
         this.body = body;
+        this.hotFunction = new HotFunction(body);
+    }
+
+    /**
+     * Get the parameters. Each parameter is either a VariableNode or an
+     * AssignNode when the parameter has a default value.
+     */
+    public List<Node> getParameters() {
+        return parameters;
+    }
+
+    public Node getBody() {
+        return body;
+    }
+
+    /**
+     * Get the names of the local variables, parameters first. Return null
+     * if the function has not been resolved.
+     */
+    public String[] getVariableNames() {
+        return variableNames;
+    }
+
+    /**
+     * Set the names of the local variables, parameters first. Called by
+     * the Resolver.
+     *
+     * @param variableNames Names of the local variable slots
+     */
+    public void setVariableNames(String[] variableNames) {
+        this.variableNames = variableNames;
     }
 
     @Override
@@ -67,7 +102,10 @@ public class FunctionNode extends Node {
             Parameter param = new Parameter(parameterName, parameterValue);
             params.add(param);
         }
-        return new UserFunction(params, body);
+        Environment environment = interpreter.getEnvironment();
+        // The new function keeps the environment alive after the call
+        environment.capture();
+        return new UserFunction(params, body, environment, variableNames, hotFunction);
     }
 
     @Override
@@ -47,6 +47,10 @@ public class IfNode extends Node {
         return testCondition;
     }
 
+    public void setTestCondition(Node testCondition) {
+        this.testCondition = testCondition;
+    }
+
     public Node getThenBlock() {
         return thenBlock;
     }
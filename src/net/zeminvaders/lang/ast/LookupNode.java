@@ -45,32 +45,72 @@ public class LookupNode extends Node {
         this.keyNode = keyNode;
     }
 
-    public ZemObject get(Interpreter interpreter) {
-        ZemObject var = interpreter.getVariable(varNode.getName(), varNode.getPosition());
-        ZemObject ret = null;
+    public VariableNode getVariable() {
+        return varNode;
+    }
+
+    public Node getKey() {
+        return keyNode;
+    }
+
+    public void setKey(Node keyNode) {
+        this.keyNode = keyNode;
+    }
+
+    /**
+     * Check that a value can be used in a lookup.
+     *
+     * @param var The array or dictionary being looked up
+     * @param pos Source position of the lookup
+     */
+    static public void checkType(ZemObject var, SourcePosition pos) {
+        if (!(var instanceof ZemArray) && !(var instanceof Dictionary)) {
+            throw new InvalidTypeException("lookup expects an array or dictionary.", pos);
+        }
+    }
+
+    /**
+     * Get an element from an array or dictionary.
+     *
+     * @param var    Array or dictionary, already checked by checkType
+     * @param key    Index or key of the element
+     * @param keyPos Source position of the key
+     */
+    static public ZemObject get(ZemObject var, ZemObject key, SourcePosition keyPos) {
         if (var instanceof ZemArray) {
-            int index = keyNode.eval(interpreter).toNumber(keyNode.getPosition()).intValue();
+            int index = key.toNumber(keyPos).intValue();
             return ((ZemArray) var).get(index);
-        } else if (var instanceof Dictionary) {
-            ZemObject key = keyNode.eval(interpreter);
-            return ((Dictionary) var).get(key);
         }
-        throw new InvalidTypeException("lookup expects an array or dictionary.", getPosition());
+        return ((Dictionary) var).get(key);
     }
 
-    public void set(Interpreter interpreter, ZemObject result) {
-        ZemObject var = interpreter.getVariable(varNode.getName(), varNode.getPosition());
-        ZemObject ret = null;
+    /**
+     * Set an element of an array or dictionary.
+     *
+     * @param var    Array or dictionary, already checked by checkType
+     * @param key    Index or key of the element
+     * @param keyPos Source position of the key
+     * @param value  New value of the element
+     */
+    static public void set(ZemObject var, ZemObject key, SourcePosition keyPos, ZemObject value) {
         if (var instanceof ZemArray) {
-            int index = keyNode.eval(interpreter).toNumber(keyNode.getPosition()).intValue();
-            ((ZemArray) var).set(index, result);
-            return;
-        } else if (var instanceof Dictionary) {
-            ZemObject key = keyNode.eval(interpreter);
-            ((Dictionary) var).set(key, result);
-            return;
+            int index = key.toNumber(keyPos).intValue();
+            ((ZemArray) var).set(index, value);
+        } else {
+            ((Dictionary) var).set(key, value);
         }
-        throw new InvalidTypeException("lookup expects an array or dictionary.", getPosition());
+    }
+
+    public ZemObject get(Interpreter interpreter) {
+        ZemObject var = varNode.eval(interpreter);
+        checkType(var, getPosition());
+        return get(var, keyNode.eval(interpreter), keyNode.getPosition());
+    }
+
+    public void set(Interpreter interpreter, ZemObject result) {
+        ZemObject var = varNode.eval(interpreter);
+        checkType(var, getPosition());
+        set(var, keyNode.eval(interpreter), keyNode.getPosition(), result);
     }
 
     @Override
@@ -21,10 +21,10 @@
  */
 package net.zeminvaders.lang.ast;
 
-import net.zeminvaders.lang.Interpreter;
+import java.math.MathContext;
+
 import net.zeminvaders.lang.SourcePosition;
 import net.zeminvaders.lang.runtime.ZemNumber;
-import net.zeminvaders.lang.runtime.ZemObject;
 
 /**
  * Mod (%) operator. Gives the remainder from the division of the dividend
@@ -32,15 +32,13 @@ import net.zeminvaders.lang.runtime.ZemObject;
  *
  * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
  */
-public class ModOpNode extends BinaryOpNode implements IArithmeticOpNode {
+public class ModOpNode extends ArithmeticOpNode {
     public ModOpNode(SourcePosition pos, Node left, Node right) {
         super(pos, "%", left, right);
     }
 
     @Override
-    public ZemObject eval(Interpreter interpreter) {
-        ZemNumber left = getLeft().eval(interpreter).toNumber(getLeft().getPosition());
-        ZemNumber right = getRight().eval(interpreter).toNumber(getRight().getPosition());
-        return left.remainder(right);
+    protected ZemNumber apply(ZemNumber left, ZemNumber right, MathContext mc) {
+        return left.remainder(right, mc);
     }
 }
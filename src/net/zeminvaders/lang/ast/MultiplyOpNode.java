@@ -21,25 +21,23 @@
  */
 package net.zeminvaders.lang.ast;
 
-import net.zeminvaders.lang.Interpreter;
+import java.math.MathContext;
+
 import net.zeminvaders.lang.SourcePosition;
 import net.zeminvaders.lang.runtime.ZemNumber;
-import net.zeminvaders.lang.runtime.ZemObject;
 
 /**
  * Multiply (*) operator.
  *
  * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
  */
-public class MultiplyOpNode extends BinaryOpNode implements IArithmeticOpNode {
+public class MultiplyOpNode extends ArithmeticOpNode {
     public MultiplyOpNode(SourcePosition pos, Node left, Node right) {
         super(pos, "*", left, right);
     }
 
     @Override
-    public ZemObject eval(Interpreter interpreter) {
-        ZemNumber left = getLeft().eval(interpreter).toNumber(getLeft().getPosition());
-        ZemNumber right = getRight().eval(interpreter).toNumber(getRight().getPosition());
-        return left.multiply(right);
+    protected ZemNumber apply(ZemNumber left, ZemNumber right, MathContext mc) {
+        return left.multiply(right, mc);
     }
 }
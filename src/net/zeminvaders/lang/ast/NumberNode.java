@@ -36,7 +36,16 @@ public class NumberNode extends Node {
 
     public NumberNode(SourcePosition pos, String number) {
         super(pos);
-        this.number = new ZemNumber(number);
+        this.number = ZemNumber.valueOf(number);
+    }
+
+    public NumberNode(SourcePosition pos, ZemNumber number) {
+        super(pos);
+        this.number = number;
+    }
+
+    public ZemNumber getValue() {
+        return number;
     }
 
     @Override
@@ -21,25 +21,23 @@
  */
 package net.zeminvaders.lang.ast;
 
-import net.zeminvaders.lang.Interpreter;
+import java.math.MathContext;
+
 import net.zeminvaders.lang.SourcePosition;
 import net.zeminvaders.lang.runtime.ZemNumber;
-import net.zeminvaders.lang.runtime.ZemObject;
 
 /**
  * Power (^) operator. For example: <code>2<sup>2</sup> == 4</code>.
  *
  * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
  */
-public class PowerOpNode extends BinaryOpNode implements IArithmeticOpNode {
+public class PowerOpNode extends ArithmeticOpNode {
     public PowerOpNode(SourcePosition pos, Node left, Node right) {
         super(pos, "^", left, right);
     }
 
     @Override
-    public ZemObject eval(Interpreter interpreter) {
-        ZemNumber left = getLeft().eval(interpreter).toNumber(getLeft().getPosition());
-        ZemNumber right = getRight().eval(interpreter).toNumber(getRight().getPosition());
-        return left.power(right);
+    protected ZemNumber apply(ZemNumber left, ZemNumber right, MathContext mc) {
+        return left.power(right, mc);
     }
 }
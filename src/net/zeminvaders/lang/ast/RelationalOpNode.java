@@ -38,27 +38,57 @@ public abstract class RelationalOpNode extends BinaryOpNode {
         super(pos, operator, left, right);
     }
 
-    protected void checkTypes(ZemObject left, ZemObject right) {
+    static private void checkTypes(ZemObject left, ZemObject right, SourcePosition pos) {
         if (!left.getClass().equals(right.getClass())) {
-            throw new TypeMismatchException(getPosition(), left.getClass(), right.getClass());
+            throw new TypeMismatchException(pos, left.getClass(), right.getClass());
         }
     }
 
-    protected int compare(Interpreter interpreter) {
-        ZemObject left = getLeft().eval(interpreter);
-        ZemObject right = getRight().eval(interpreter);
-        checkTypes(left, right);
+    /**
+     * Compare two operands of a relational operator.
+     *
+     * @param left  Left operand
+     * @param right Right operand
+     * @param pos   Source position of the operator
+     * @return Negative, zero or positive as left is less then, equal to or
+     *         greater then right
+     */
+    static public int compare(ZemObject left, ZemObject right, SourcePosition pos) {
+        checkTypes(left, right, pos);
         try {
             return left.compareTo(right);
         } catch (UnsupportedOperationException e) {
-            throw new InvalidOperatorException(getPosition());
+            throw new InvalidOperatorException(pos);
         }
     }
 
+    /**
+     * Test two operands of an equality operator for equality.
+     *
+     * @param left  Left operand
+     * @param right Right operand
+     * @param pos   Source position of the operator
+     */
+    static public ZemBoolean equal(ZemObject left, ZemObject right, SourcePosition pos) {
+        checkTypes(left, right, pos);
+        return ZemBoolean.valueOf(left.equals(right));
+    }
+
+    /**
+     * Evaluate and compare the operands.
+     */
+    protected int compare(Interpreter interpreter) {
+        ZemObject left = getLeft().eval(interpreter);
+        ZemObject right = getRight().eval(interpreter);
+        return compare(left, right, getPosition());
+    }
+
+    /**
+     * Evaluate the operands and test them for equality.
+     */
     protected ZemBoolean equals(Interpreter interpreter) {
         ZemObject left = getLeft().eval(interpreter);
         ZemObject right = getRight().eval(interpreter);
-        checkTypes(left, right);
-        return ZemBoolean.valueOf(left.equals(right));
+        return equal(left, right, getPosition());
     }
 }
@@ -23,7 +23,6 @@ package net.zeminvaders.lang.ast;
 
 import net.zeminvaders.lang.Interpreter;
 import net.zeminvaders.lang.SourcePosition;
-import net.zeminvaders.lang.runtime.ReturnException;
 import net.zeminvaders.lang.runtime.ZemObject;
 
 /**
@@ -39,9 +38,20 @@ public class ReturnNode extends Node {
         this.expression = expression;
     }
 
+    public Node getExpression() {
+        return expression;
+    }
+
+    public void setExpression(Node expression) {
+        this.expression = expression;
+    }
+
     @Override
     public ZemObject eval(Interpreter interpreter) {
-        throw new ReturnException(expression.eval(interpreter));
+        ZemObject value = expression.eval(interpreter);
+        // Enclosing statements stop when they see the return flag
+        interpreter.setReturning(true);
+        return value;
     }
 
     @Override
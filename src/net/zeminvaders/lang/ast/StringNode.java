@@ -39,6 +39,15 @@ public class StringNode extends Node {
         this.literal = new ZemString(literal);
     }
 
+    public StringNode(SourcePosition pos, ZemString literal) {
+        super(pos);
+        this.literal = literal;
+    }
+
+    public ZemString getValue() {
+        return literal;
+    }
+
     @Override
     public ZemObject eval(Interpreter interpreter) {
         return literal;
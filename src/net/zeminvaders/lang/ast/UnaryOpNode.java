@@ -52,6 +52,10 @@ public abstract class UnaryOpNode extends Node {
         return operand;
     }
 
+    public void setOperand(Node operand) {
+        this.operand = operand;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
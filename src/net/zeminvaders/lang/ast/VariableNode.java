@@ -32,6 +32,8 @@ import net.zeminvaders.lang.runtime.ZemObject;
  */
 public class VariableNode extends Node {
     private String name;
+    private int depth = -1;
+    private int slot = -1;
 
     public VariableNode(SourcePosition pos, String variableName) {
         super(pos);
@@ -42,6 +44,47 @@ public class VariableNode extends Node {
         return name;
     }
 
+    /**
+     * Get the number of environments out from the current environment
+     * the variable is stored in.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Get the slot index of the variable. Return -1 if the variable has not
+     * been resolved to a slot.
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Bind the variable to a slot in an environment. Called by the Resolver.
+     *
+     * @param depth Number of environments out from the current environment
+     * @param slot  Slot index in that environment
+     */
+    public void resolve(int depth, int slot) {
+        this.depth = depth;
+        this.slot = slot;
+    }
+
+    /**
+     * Assign a value to the variable.
+     *
+     * @param interpreter
+     * @param value New value for the variable
+     */
+    public void assign(Interpreter interpreter, ZemObject value) {
+        if (slot >= 0) {
+            interpreter.getEnvironment().set(slot, value);
+        } else {
+            interpreter.setVariable(name, value);
+        }
+    }
+
     @Override
     public String toString() {
         return getName();
@@ -49,6 +92,13 @@ public class VariableNode extends Node {
 
     @Override
     public ZemObject eval(Interpreter interpreter) {
+        if (slot >= 0) {
+            ZemObject value = interpreter.getEnvironment().get(depth, slot);
+            if (value != null) {
+                return value;
+            }
+            // Local variable not assigned yet, fall back to enclosing scopes
+        }
         return interpreter.getVariable(name, getPosition());
     }
 }
@@ -44,15 +44,32 @@ public class WhileNode extends Node {
         return testCondition;
     }
 
+    public void setTestCondition(Node testCondition) {
+        this.testCondition = testCondition;
+    }
+
     public Node getLoopBody() {
         return loopBody;
     }
 
     @Override
     public ZemObject eval(Interpreter interpreter) {
-        ZemObject ret = null;
+        return loop(interpreter, null);
+    }
+
+    /**
+     * Run the loop from its test condition.
+     *
+     * @param interpreter
+     * @param ret Value of the loop if the body is not evaluated
+     * @return Value of the last statement evaluated in the body
+     */
+    protected ZemObject loop(Interpreter interpreter, ZemObject ret) {
         while (testCondition.eval(interpreter).toBoolean(testCondition.getPosition()).booleanValue()) {
             ret = loopBody.eval(interpreter);
+            if (interpreter.isReturning()) {
+                return ret;
+            }
         }
         return ret;
     }
@@ -0,0 +1,498 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.bytecode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.zeminvaders.lang.InvalidTypeException;
+import net.zeminvaders.lang.SourcePosition;
+import net.zeminvaders.lang.ast.AddOpNode;
+import net.zeminvaders.lang.ast.AndOpNode;
+import net.zeminvaders.lang.ast.ArrayNode;
+import net.zeminvaders.lang.ast.AssignNode;
+import net.zeminvaders.lang.ast.BinaryOpNode;
+import net.zeminvaders.lang.ast.BlockNode;
+import net.zeminvaders.lang.ast.ConcatOpNode;
+import net.zeminvaders.lang.ast.DictionaryEntryNode;
+import net.zeminvaders.lang.ast.DictionaryNode;
+import net.zeminvaders.lang.ast.DivideOpNode;
+import net.zeminvaders.lang.ast.EqualsOpNode;
+import net.zeminvaders.lang.ast.FalseNode;
+import net.zeminvaders.lang.ast.ForeachNode;
+import net.zeminvaders.lang.ast.FunctionCallNode;
+import net.zeminvaders.lang.ast.FunctionNode;
+import net.zeminvaders.lang.ast.GreaterEqualOpNode;
+import net.zeminvaders.lang.ast.GreaterThanOpNode;
+import net.zeminvaders.lang.ast.IfNode;
+import net.zeminvaders.lang.ast.LessEqualOpNode;
+import net.zeminvaders.lang.ast.LessThanOpNode;
+import net.zeminvaders.lang.ast.LookupNode;
+import net.zeminvaders.lang.ast.ModOpNode;
+import net.zeminvaders.lang.ast.MultiplyOpNode;
+import net.zeminvaders.lang.ast.NegateOpNode;
+import net.zeminvaders.lang.ast.Node;
+import net.zeminvaders.lang.ast.NotEqualsOpNode;
+import net.zeminvaders.lang.ast.NotOpNode;
+import net.zeminvaders.lang.ast.NumberNode;
+import net.zeminvaders.lang.ast.OrOpNode;
+import net.zeminvaders.lang.ast.PowerOpNode;
+import net.zeminvaders.lang.ast.ReturnNode;
+import net.zeminvaders.lang.ast.RootNode;
+import net.zeminvaders.lang.ast.StringNode;
+import net.zeminvaders.lang.ast.SubtractOpNode;
+import net.zeminvaders.lang.ast.TrueNode;
+import net.zeminvaders.lang.ast.VariableNode;
+import net.zeminvaders.lang.ast.WhileNode;
+import net.zeminvaders.lang.runtime.ZemBoolean;
+import net.zeminvaders.lang.runtime.ZemObject;
+
+/**
+ * Compiles a resolved abstract syntax tree to bytecode for the StackMachine.
+ *
+ * Every statement leaves its value on the stack when the value is wanted,
+ * so the value of a program or function body is the value of the last
+ * statement evaluated, the same as the tree walking interpreter.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class BytecodeCompiler {
+    private int[] code = new int[64];
+    private int size = 0;
+    private List<ZemObject> constants = new ArrayList<ZemObject>();
+    private List<String> names = new ArrayList<String>();
+    private List<SourcePosition> positions = new ArrayList<SourcePosition>();
+    private List<CodeBlock> blocks = new ArrayList<CodeBlock>();
+    private int stackDepth = 0;
+    private int maxStack = 0;
+
+    /**
+     * Compile a program.
+     *
+     * @param program Program that has been resolved by the Resolver
+     * @return Bytecode for the program
+     */
+    public CodeBlock compile(RootNode program) {
+        compile(program, true);
+        emit(Opcode.RETURN, -1);
+        return createBlock(new String[0], new boolean[0], null);
+    }
+
+    private CodeBlock compileFunction(FunctionNode function) {
+        List<Node> parameters = function.getParameters();
+        String[] parameterNames = new String[parameters.size()];
+        boolean[] parameterDefaults = new boolean[parameters.size()];
+        for (int i = 0; i < parameterNames.length; i++) {
+            Node param = parameters.get(i);
+            if (param instanceof AssignNode) {
+                param = ((AssignNode) param).getLeft();
+                parameterDefaults[i] = true;
+            }
+            parameterNames[i] = ((VariableNode) param).getName();
+        }
+        compile(function.getBody(), true);
+        emit(Opcode.RETURN, -1);
+        return createBlock(parameterNames, parameterDefaults, function.getVariableNames());
+    }
+
+    private CodeBlock createBlock(String[] parameterNames, boolean[] parameterDefaults, String[] variableNames) {
+        int[] instructions = new int[size];
+        System.arraycopy(code, 0, instructions, 0, size);
+        return new CodeBlock(instructions,
+                constants.toArray(new ZemObject[constants.size()]),
+                names.toArray(new String[names.size()]),
+                positions.toArray(new SourcePosition[positions.size()]),
+                blocks.toArray(new CodeBlock[blocks.size()]),
+                maxStack, parameterNames, parameterDefaults, variableNames);
+    }
+
+    /**
+     * Emit an instruction.
+     *
+     * @param opcode     The opcode
+     * @param stackDelta Change in the depth of the operand stack
+     * @param operands   The operands
+     */
+    private void emit(int opcode, int stackDelta, int... operands) {
+        if (size + operands.length + 1 > code.length) {
+            int[] newCode = new int[code.length * 2 + operands.length];
+            System.arraycopy(code, 0, newCode, 0, size);
+            code = newCode;
+        }
+        code[size++] = opcode;
+        for (int operand : operands) {
+            code[size++] = operand;
+        }
+        adjustStack(stackDelta);
+    }
+
+    private void adjustStack(int stackDelta) {
+        stackDepth += stackDelta;
+        if (stackDepth > maxStack) {
+            maxStack = stackDepth;
+        }
+    }
+
+    /**
+     * Point the jump whose target operand is at the given index to the
+     * current end of the code.
+     */
+    private void patchJump(int operandIndex) {
+        code[operandIndex] = size;
+    }
+
+    private int constant(ZemObject value) {
+        for (int i = 0; i < constants.size(); i++) {
+            if (constants.get(i) == value) {
+                return i;
+            }
+        }
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    private int name(String name) {
+        int index = names.indexOf(name);
+        if (index < 0) {
+            names.add(name);
+            index = names.size() - 1;
+        }
+        return index;
+    }
+
+    private int position(SourcePosition pos) {
+        for (int i = 0; i < positions.size(); i++) {
+            if (positions.get(i) == pos) {
+                return i;
+            }
+        }
+        positions.add(pos);
+        return positions.size() - 1;
+    }
+
+    /**
+     * Compile a node.
+     *
+     * @param node      Node to compile
+     * @param wantValue Whether the value of the node is left on the stack
+     */
+    private void compile(Node node, boolean wantValue) {
+        if (node instanceof BlockNode) {
+            compileBlock((BlockNode) node, wantValue);
+        } else if (node instanceof AssignNode) {
+            compileAssign((AssignNode) node, wantValue);
+        } else if (node instanceof IfNode) {
+            compileIf((IfNode) node, wantValue);
+        } else if (node instanceof WhileNode) {
+            compileWhile((WhileNode) node, wantValue);
+        } else if (node instanceof ForeachNode) {
+            compileForeach((ForeachNode) node, wantValue);
+        } else if (node instanceof ReturnNode) {
+            compileExpression(((ReturnNode) node).getExpression());
+            emit(Opcode.RETURN, -1);
+            if (wantValue) {
+                // Code after return is unreachable
+                adjustStack(1);
+            }
+        } else {
+            compileExpression(node);
+            if (!wantValue) {
+                emit(Opcode.POP, -1);
+            }
+        }
+    }
+
+    private void compileBlock(BlockNode block, boolean wantValue) {
+        List<Node> statements = block.getStatements();
+        if (statements.isEmpty()) {
+            if (wantValue) {
+                emit(Opcode.NULL, 1);
+            }
+            return;
+        }
+        int last = statements.size() - 1;
+        int i = 0;
+        for (Node statement : statements) {
+            compile(statement, wantValue && i == last);
+            i++;
+        }
+    }
+
+    private void compileAssign(AssignNode assign, boolean wantValue) {
+        Node left = assign.getLeft();
+        compileExpression(assign.getRight());
+        if (left instanceof VariableNode) {
+            if (wantValue) {
+                emit(Opcode.DUP, 1);
+            }
+            compileStore((VariableNode) left);
+        } else if (left instanceof LookupNode) {
+            LookupNode lookup = (LookupNode) left;
+            compileExpression(lookup.getVariable());
+            emit(Opcode.CHECK_LOOKUP, 0, position(lookup.getPosition()));
+            compileExpression(lookup.getKey());
+            emit(Opcode.SET_INDEX, -2, position(lookup.getKey().getPosition()));
+            if (!wantValue) {
+                emit(Opcode.POP, -1);
+            }
+        } else {
+            throw new InvalidTypeException("Left hand of assignment must be a variable.", left.getPosition());
+        }
+    }
+
+    private void compileStore(VariableNode var) {
+        if (var.getSlot() >= 0) {
+            emit(Opcode.STORE_LOCAL, -1, var.getSlot());
+        } else {
+            emit(Opcode.STORE_NAME, -1, name(var.getName()));
+        }
+    }
+
+    private void compileIf(IfNode ifNode, boolean wantValue) {
+        Node test = ifNode.getTestCondition();
+        compileExpression(test);
+        emit(Opcode.JUMP_IF_FALSE, -1, 0, position(test.getPosition()));
+        int elseJump = size - 2;
+        compile(ifNode.getThenBlock(), wantValue);
+        emit(Opcode.JUMP, 0, 0);
+        int endJump = size - 1;
+        if (wantValue) {
+            // Only one branch leaves a value on the stack
+            adjustStack(-1);
+        }
+        patchJump(elseJump);
+        if (ifNode.getElseBlock() != null) {
+            compile(ifNode.getElseBlock(), wantValue);
+        } else if (wantValue) {
+            emit(Opcode.CONST, 1, constant(ZemBoolean.FALSE));
+        }
+        patchJump(endJump);
+    }
+
+    private void compileWhile(WhileNode whileNode, boolean wantValue) {
+        Node test = whileNode.getTestCondition();
+        if (wantValue) {
+            // Value of a loop that never runs its body
+            emit(Opcode.NULL, 1);
+        }
+        int loopStart = size;
+        compileExpression(test);
+        emit(Opcode.JUMP_IF_FALSE, -1, 0, position(test.getPosition()));
+        int exitJump = size - 2;
+        if (wantValue) {
+            emit(Opcode.POP, -1);
+        }
+        compile(whileNode.getLoopBody(), wantValue);
+        emit(Opcode.JUMP, 0, loopStart);
+        patchJump(exitJump);
+    }
+
+    private void compileForeach(ForeachNode foreach, boolean wantValue) {
+        VariableNode onVariable = foreach.getOnVariable();
+        Node as = foreach.getAsNode();
+        boolean isEntry = as instanceof DictionaryEntryNode;
+        compileExpression(onVariable);
+        emit(Opcode.ITERATOR, 0, isEntry ? 1 : 0, position(onVariable.getPosition()));
+        if (wantValue) {
+            emit(Opcode.NULL, 1);
+        }
+        int loopStart = size;
+        int withResult = wantValue ? 1 : 0;
+        if (isEntry) {
+            DictionaryEntryNode entry = (DictionaryEntryNode) as;
+            emit(Opcode.NEXT_ENTRY, 2, 0, withResult);
+            int exitJump = size - 2;
+            compileStore((VariableNode) entry.getValue());
+            compileStore((VariableNode) entry.getKey());
+            compileLoopBody(foreach.getLoopBody(), wantValue, loopStart);
+            patchJump(exitJump);
+        } else {
+            emit(Opcode.NEXT, 1, 0, withResult);
+            int exitJump = size - 2;
+            compileStore((VariableNode) as);
+            compileLoopBody(foreach.getLoopBody(), wantValue, loopStart);
+            patchJump(exitJump);
+        }
+        // NEXT pops the iterator when the loop finishes
+        adjustStack(-1);
+    }
+
+    private void compileLoopBody(Node body, boolean wantValue, int loopStart) {
+        if (wantValue) {
+            // Replace the previous value with the value of this iteration
+            emit(Opcode.POP, -1);
+        }
+        compile(body, wantValue);
+        emit(Opcode.JUMP, 0, loopStart);
+    }
+
+    private void compileExpression(Node node) {
+        if (node instanceof NumberNode) {
+            emit(Opcode.CONST, 1, constant(((NumberNode) node).getValue()));
+        } else if (node instanceof StringNode) {
+            emit(Opcode.CONST, 1, constant(((StringNode) node).getValue()));
+        } else if (node instanceof TrueNode) {
+            emit(Opcode.CONST, 1, constant(ZemBoolean.TRUE));
+        } else if (node instanceof FalseNode) {
+            emit(Opcode.CONST, 1, constant(ZemBoolean.FALSE));
+        } else if (node instanceof VariableNode) {
+            compileLoad((VariableNode) node);
+        } else if (node instanceof AndOpNode || node instanceof OrOpNode) {
+            BinaryOpNode op = (BinaryOpNode) node;
+            compileExpression(op.getLeft());
+            emit(Opcode.TO_BOOLEAN, 0, position(op.getLeft().getPosition()));
+            int jumpOp = node instanceof AndOpNode ?
+                    Opcode.JUMP_IF_FALSE_OR_POP : Opcode.JUMP_IF_TRUE_OR_POP;
+            emit(jumpOp, -1, 0);
+            int endJump = size - 1;
+            compileExpression(op.getRight());
+            emit(Opcode.TO_BOOLEAN, 0, position(op.getRight().getPosition()));
+            patchJump(endJump);
+        } else if (node instanceof ConcatOpNode) {
+            BinaryOpNode op = (BinaryOpNode) node;
+            compileExpression(op.getLeft());
+            compileExpression(op.getRight());
+            emit(Opcode.CONCAT, -1);
+        } else if (node instanceof AssignNode || node instanceof BlockNode
+                || node instanceof IfNode || node instanceof WhileNode
+                || node instanceof ForeachNode || node instanceof ReturnNode) {
+            compile(node, true);
+        } else if (node instanceof BinaryOpNode) {
+            compileBinaryOp((BinaryOpNode) node);
+        } else if (node instanceof NegateOpNode) {
+            Node operand = ((NegateOpNode) node).getOperand();
+            compileExpression(operand);
+            emit(Opcode.NEGATE, 0, position(operand.getPosition()));
+        } else if (node instanceof NotOpNode) {
+            Node operand = ((NotOpNode) node).getOperand();
+            compileExpression(operand);
+            emit(Opcode.NOT, 0, position(operand.getPosition()));
+        } else if (node instanceof FunctionCallNode) {
+            compileCall((FunctionCallNode) node);
+        } else if (node instanceof FunctionNode) {
+            compileFunctionDeclaration((FunctionNode) node);
+        } else if (node instanceof LookupNode) {
+            LookupNode lookup = (LookupNode) node;
+            compileExpression(lookup.getVariable());
+            emit(Opcode.CHECK_LOOKUP, 0, position(lookup.getPosition()));
+            compileExpression(lookup.getKey());
+            emit(Opcode.GET_INDEX, -1, position(lookup.getKey().getPosition()));
+        } else if (node instanceof ArrayNode) {
+            List<Node> elements = ((ArrayNode) node).getElements();
+            for (Node element : elements) {
+                compileExpression(element);
+            }
+            emit(Opcode.ARRAY, 1 - elements.size(), elements.size());
+        } else if (node instanceof DictionaryNode) {
+            List<DictionaryEntryNode> elements = ((DictionaryNode) node).getElements();
+            for (DictionaryEntryNode entry : elements) {
+                compileExpression(entry.getKey());
+                compileExpression(entry.getValue());
+            }
+            emit(Opcode.DICTIONARY, 1 - 2 * elements.size(), elements.size());
+        } else {
+            throw new IllegalArgumentException("Unable to compile " + node);
+        }
+    }
+
+    private void compileLoad(VariableNode var) {
+        int pos = position(var.getPosition());
+        if (var.getSlot() < 0) {
+            emit(Opcode.LOAD_NAME, 1, name(var.getName()), pos);
+        } else if (var.getDepth() == 0) {
+            emit(Opcode.LOAD_LOCAL, 1, var.getSlot(), name(var.getName()), pos);
+        } else {
+            emit(Opcode.LOAD_OUTER, 1, var.getDepth(), var.getSlot(), name(var.getName()), pos);
+        }
+    }
+
+    private void compileBinaryOp(BinaryOpNode op) {
+        int opcode;
+        boolean arithmetic = true;
+        if (op instanceof AddOpNode) {
+            opcode = Opcode.ADD;
+        } else if (op instanceof SubtractOpNode) {
+            opcode = Opcode.SUBTRACT;
+        } else if (op instanceof MultiplyOpNode) {
+            opcode = Opcode.MULTIPLY;
+        } else if (op instanceof DivideOpNode) {
+            opcode = Opcode.DIVIDE;
+        } else if (op instanceof ModOpNode) {
+            opcode = Opcode.MOD;
+        } else if (op instanceof PowerOpNode) {
+            opcode = Opcode.POWER;
+        } else {
+            arithmetic = false;
+            if (op instanceof LessThanOpNode) {
+                opcode = Opcode.LESS_THAN;
+            } else if (op instanceof LessEqualOpNode) {
+                opcode = Opcode.LESS_EQUAL;
+            } else if (op instanceof GreaterThanOpNode) {
+                opcode = Opcode.GREATER_THAN;
+            } else if (op instanceof GreaterEqualOpNode) {
+                opcode = Opcode.GREATER_EQUAL;
+            } else if (op instanceof EqualsOpNode) {
+                opcode = Opcode.EQUAL;
+            } else if (op instanceof NotEqualsOpNode) {
+                opcode = Opcode.NOT_EQUAL;
+            } else {
+                throw new IllegalArgumentException("Unable to compile " + op);
+            }
+        }
+        compileExpression(op.getLeft());
+        compileExpression(op.getRight());
+        if (arithmetic) {
+            emit(opcode, -1, position(op.getLeft().getPosition()),
+                    position(op.getRight().getPosition()));
+        } else {
+            emit(opcode, -1, position(op.getPosition()));
+        }
+    }
+
+    private void compileCall(FunctionCallNode call) {
+        Node functionNode = call.getFunctionNode();
+        List<Node> arguments = call.getArguments();
+        compileExpression(functionNode);
+        for (Node arg : arguments) {
+            compileExpression(arg);
+        }
+        int functionName = -1;
+        if (functionNode instanceof VariableNode) {
+            functionName = name(((VariableNode) functionNode).getName());
+        }
+        emit(call.isTailCall() ? Opcode.TAIL_CALL : Opcode.CALL, -arguments.size(), arguments.size(),
+                position(call.getPosition()), functionName);
+    }
+
+    private void compileFunctionDeclaration(FunctionNode function) {
+        int defaults = 0;
+        for (Node param : function.getParameters()) {
+            if (param instanceof AssignNode) {
+                // Default values are evaluated when the function is declared
+                compileExpression(((AssignNode) param).getRight());
+                defaults++;
+            }
+        }
+        blocks.add(new BytecodeCompiler().compileFunction(function));
+        emit(Opcode.FUNCTION, 1 - defaults, blocks.size() - 1);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.bytecode;
+
+import net.zeminvaders.lang.SourcePosition;
+import net.zeminvaders.lang.runtime.ZemObject;
+
+/**
+ * Compiled bytecode for the program or a function body, together with the
+ * pools its instructions refer to.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class CodeBlock {
+    private int[] code;
+    private ZemObject[] constants;
+    private String[] names;
+    private SourcePosition[] positions;
+    private CodeBlock[] blocks;
+    private int maxStack;
+    private String[] parameterNames;
+    private boolean[] parameterDefaults;
+    private String[] variableNames;
+
+    /**
+     * @param code              Instructions
+     * @param constants         Constant pool
+     * @param names             Variable name pool
+     * @param positions         Source position pool
+     * @param blocks            Code blocks of nested functions
+     * @param maxStack          Maximum depth of the operand stack
+     * @param parameterNames    Names of the function parameters
+     * @param parameterDefaults Which parameters have a default value
+     * @param variableNames     Names of the local variable slots, null for
+     *                          the top level of the program
+     */
+    public CodeBlock(int[] code, ZemObject[] constants, String[] names,
+            SourcePosition[] positions, CodeBlock[] blocks, int maxStack,
+            String[] parameterNames, boolean[] parameterDefaults,
+            String[] variableNames) {
+        this.code = code;
+        this.constants = constants;
+        this.names = names;
+        this.positions = positions;
+        this.blocks = blocks;
+        this.maxStack = maxStack;
+        this.parameterNames = parameterNames;
+        this.parameterDefaults = parameterDefaults;
+        this.variableNames = variableNames;
+    }
+
+    public int[] getCode() {
+        return code;
+    }
+
+    public ZemObject[] getConstants() {
+        return constants;
+    }
+
+    public String[] getNames() {
+        return names;
+    }
+
+    public SourcePosition[] getPositions() {
+        return positions;
+    }
+
+    public CodeBlock[] getBlocks() {
+        return blocks;
+    }
+
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    public String[] getParameterNames() {
+        return parameterNames;
+    }
+
+    public boolean[] getParameterDefaults() {
+        return parameterDefaults;
+    }
+
+    public String[] getVariableNames() {
+        return variableNames;
+    }
+
+    /**
+     * List the instructions, one per line.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        int pc = 0;
+        while (pc < code.length) {
+            int opcode = code[pc];
+            sb.append(pc);
+            sb.append(": ");
+            sb.append(Opcode.NAMES[opcode]);
+            for (int i = 1; i <= Opcode.OPERAND_COUNTS[opcode]; i++) {
+                sb.append(' ');
+                sb.append(code[pc + i]);
+            }
+            if (opcode == Opcode.CONST) {
+                sb.append(" (").append(constants[code[pc + 1]]).append(')');
+            } else if (opcode == Opcode.LOAD_NAME || opcode == Opcode.STORE_NAME) {
+                sb.append(" (").append(names[code[pc + 1]]).append(')');
+            }
+            sb.append('\n');
+            pc += 1 + Opcode.OPERAND_COUNTS[opcode];
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.bytecode;
+
+import java.util.List;
+
+import net.zeminvaders.lang.Interpreter;
+import net.zeminvaders.lang.SourcePosition;
+import net.zeminvaders.lang.runtime.Environment;
+import net.zeminvaders.lang.runtime.Function;
+import net.zeminvaders.lang.runtime.Parameter;
+import net.zeminvaders.lang.runtime.ZemObject;
+
+/**
+ * A user declared function compiled to bytecode.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class CompiledFunction extends Function {
+    private List<Parameter> parameters;
+    private CodeBlock block;
+    private Environment environment;
+
+    public CompiledFunction(List<Parameter> parameters, CodeBlock block, Environment environment) {
+        this.parameters = parameters;
+        this.block = block;
+        this.environment = environment;
+    }
+
+    public CodeBlock getBlock() {
+        return block;
+    }
+
+    @Override
+    public String[] getVariableNames() {
+        if (block.getVariableNames() == null) {
+            return super.getVariableNames();
+        }
+        return block.getVariableNames();
+    }
+
+    @Override
+    public Environment getEnvironment() {
+        return environment;
+    }
+
+    @Override
+    public int getParameterCount() {
+        return parameters.size();
+    }
+
+    @Override
+    public String getParameterName(int index) {
+        return parameters.get(index).getName();
+    }
+
+    @Override
+    public ZemObject getDefaultValue(int index) {
+        return parameters.get(index).getDefaultValue();
+    }
+
+    @Override
+    public ZemObject eval(Interpreter interpreter, SourcePosition pos) {
+        return new StackMachine(interpreter).execute(block);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.bytecode;
+
+/**
+ * Instruction set of the StackMachine. Each instruction is an opcode
+ * followed by its operands. Operands that refer to names, constants,
+ * code blocks and source positions are indexes into the pools of the
+ * CodeBlock.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+final public class Opcode {
+    /** Push null */
+    static final public int NULL = 0;
+    /** CONST constant: Push a constant */
+    static final public int CONST = 1;
+    /** POP: Discard the top of the stack */
+    static final public int POP = 2;
+    /** DUP: Duplicate the top of the stack */
+    static final public int DUP = 3;
+    /** LOAD_NAME name position: Push variable looked up by name */
+    static final public int LOAD_NAME = 4;
+    /** STORE_NAME name: Pop value into variable by name */
+    static final public int STORE_NAME = 5;
+    /** LOAD_LOCAL slot name position: Push local variable */
+    static final public int LOAD_LOCAL = 6;
+    /** STORE_LOCAL slot: Pop value into local variable */
+    static final public int STORE_LOCAL = 7;
+    /** LOAD_OUTER depth slot name position: Push variable of enclosing function */
+    static final public int LOAD_OUTER = 8;
+    /** ADD leftPosition rightPosition */
+    static final public int ADD = 9;
+    /** SUBTRACT leftPosition rightPosition */
+    static final public int SUBTRACT = 10;
+    /** MULTIPLY leftPosition rightPosition */
+    static final public int MULTIPLY = 11;
+    /** DIVIDE leftPosition rightPosition */
+    static final public int DIVIDE = 12;
+    /** MOD leftPosition rightPosition */
+    static final public int MOD = 13;
+    /** POWER leftPosition rightPosition */
+    static final public int POWER = 14;
+    /** NEGATE position */
+    static final public int NEGATE = 15;
+    /** NOT position */
+    static final public int NOT = 16;
+    /** CONCAT */
+    static final public int CONCAT = 17;
+    /** LESS_THAN position */
+    static final public int LESS_THAN = 18;
+    /** LESS_EQUAL position */
+    static final public int LESS_EQUAL = 19;
+    /** GREATER_THAN position */
+    static final public int GREATER_THAN = 20;
+    /** GREATER_EQUAL position */
+    static final public int GREATER_EQUAL = 21;
+    /** EQUAL position */
+    static final public int EQUAL = 22;
+    /** NOT_EQUAL position */
+    static final public int NOT_EQUAL = 23;
+    /** TO_BOOLEAN position: Check the top of the stack is a boolean */
+    static final public int TO_BOOLEAN = 24;
+    /** JUMP target */
+    static final public int JUMP = 25;
+    /** JUMP_IF_FALSE target position: Pop condition and jump if false */
+    static final public int JUMP_IF_FALSE = 26;
+    /** JUMP_IF_FALSE_OR_POP target: Jump if top is false, otherwise pop it */
+    static final public int JUMP_IF_FALSE_OR_POP = 27;
+    /** JUMP_IF_TRUE_OR_POP target: Jump if top is true, otherwise pop it */
+    static final public int JUMP_IF_TRUE_OR_POP = 28;
+    /** CALL argumentCount position name: Call function below the arguments */
+    static final public int CALL = 29;
+    /** RETURN: Return top of the stack from the code block */
+    static final public int RETURN = 30;
+    /** FUNCTION block: Create function, popping its default values */
+    static final public int FUNCTION = 31;
+    /** ARRAY size: Pop elements into a new array */
+    static final public int ARRAY = 32;
+    /** DICTIONARY size: Pop key, value pairs into a new dictionary */
+    static final public int DICTIONARY = 33;
+    /** CHECK_LOOKUP position: Check top is an array or dictionary */
+    static final public int CHECK_LOOKUP = 34;
+    /** GET_INDEX keyPosition: Pop key and array, push element */
+    static final public int GET_INDEX = 35;
+    /** SET_INDEX keyPosition: Pop key, array and value, set element, push value */
+    static final public int SET_INDEX = 36;
+    /** ITERATOR kind position: Replace array or dictionary with an iterator */
+    static final public int ITERATOR = 37;
+    /** NEXT target withResult: Push next element or pop iterator and jump */
+    static final public int NEXT = 38;
+    /** NEXT_ENTRY target withResult: Push next key and value or pop iterator and jump */
+    static final public int NEXT_ENTRY = 39;
+    /** TAIL_CALL argumentCount position name: Call function once the code block returns */
+    static final public int TAIL_CALL = 40;
+
+    /**
+     * Names of the opcodes, indexed by opcode.
+     */
+    static final public String[] NAMES = {
+        "NULL", "CONST", "POP", "DUP", "LOAD_NAME", "STORE_NAME",
+        "LOAD_LOCAL", "STORE_LOCAL", "LOAD_OUTER", "ADD", "SUBTRACT",
+        "MULTIPLY", "DIVIDE", "MOD", "POWER", "NEGATE", "NOT", "CONCAT",
+        "LESS_THAN", "LESS_EQUAL", "GREATER_THAN", "GREATER_EQUAL", "EQUAL",
+        "NOT_EQUAL", "TO_BOOLEAN", "JUMP", "JUMP_IF_FALSE",
+        "JUMP_IF_FALSE_OR_POP", "JUMP_IF_TRUE_OR_POP", "CALL", "RETURN",
+        "FUNCTION", "ARRAY", "DICTIONARY", "CHECK_LOOKUP", "GET_INDEX",
+        "SET_INDEX", "ITERATOR", "NEXT", "NEXT_ENTRY", "TAIL_CALL"
+    };
+
+    /**
+     * Number of operands, indexed by opcode.
+     */
+    static final public int[] OPERAND_COUNTS = {
+        0, 1, 0, 0, 2, 1,
+        3, 1, 4, 2, 2,
+        2, 2, 2, 2, 1, 1, 0,
+        1, 1, 1, 1, 1,
+        1, 1, 1, 2,
+        1, 1, 3, 0,
+        1, 1, 1, 1, 1,
+        1, 2, 2, 2, 3
+    };
+
+    private Opcode() {
+    }
+}
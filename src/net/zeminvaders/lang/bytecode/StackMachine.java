@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.bytecode;
+
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.zeminvaders.lang.Interpreter;
+import net.zeminvaders.lang.InvalidTypeException;
+import net.zeminvaders.lang.SourcePosition;
+import net.zeminvaders.lang.ast.LookupNode;
+import net.zeminvaders.lang.ast.RelationalOpNode;
+import net.zeminvaders.lang.runtime.Dictionary;
+import net.zeminvaders.lang.runtime.Environment;
+import net.zeminvaders.lang.runtime.Function;
+import net.zeminvaders.lang.runtime.Parameter;
+import net.zeminvaders.lang.runtime.ZemArray;
+import net.zeminvaders.lang.runtime.ZemBoolean;
+import net.zeminvaders.lang.runtime.ZemNumber;
+import net.zeminvaders.lang.runtime.ZemObject;
+
+/**
+ * Stack based virtual machine that executes the bytecode generated by the
+ * BytecodeCompiler. Local variables live in the slots of the environment
+ * the interpreter sets up for each function call.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class StackMachine {
+    private Interpreter interpreter;
+
+    public StackMachine(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * Execute a code block in the current environment of the interpreter.
+     *
+     * @param block The code block to execute
+     * @return The value returned by the code block
+     */
+    @SuppressWarnings("unchecked")
+    public ZemObject execute(CodeBlock block) {
+        final int[] code = block.getCode();
+        final ZemObject[] constants = block.getConstants();
+        final String[] names = block.getNames();
+        final SourcePosition[] positions = block.getPositions();
+        final Environment env = interpreter.getEnvironment();
+        final Object[] stack = new Object[block.getMaxStack()];
+        int sp = 0;
+        int pc = 0;
+        while (true) {
+            switch (code[pc]) {
+                case Opcode.NULL: {
+                    stack[sp++] = null;
+                    pc += 1;
+                    break;
+                }
+                case Opcode.CONST: {
+                    stack[sp++] = constants[code[pc + 1]];
+                    pc += 2;
+                    break;
+                }
+                case Opcode.POP: {
+                    stack[--sp] = null;
+                    pc += 1;
+                    break;
+                }
+                case Opcode.DUP: {
+                    stack[sp] = stack[sp - 1];
+                    sp++;
+                    pc += 1;
+                    break;
+                }
+                case Opcode.LOAD_NAME: {
+                    stack[sp++] = interpreter.getVariable(names[code[pc + 1]], positions[code[pc + 2]]);
+                    pc += 3;
+                    break;
+                }
+                case Opcode.STORE_NAME: {
+                    interpreter.setVariable(names[code[pc + 1]], (ZemObject) stack[--sp]);
+                    pc += 2;
+                    break;
+                }
+                case Opcode.LOAD_LOCAL: {
+                    ZemObject value = env.get(0, code[pc + 1]);
+                    if (value == null) {
+                        // Local variable not assigned yet, fall back to enclosing scopes
+                        value = interpreter.getVariable(names[code[pc + 2]], positions[code[pc + 3]]);
+                    }
+                    stack[sp++] = value;
+                    pc += 4;
+                    break;
+                }
+                case Opcode.STORE_LOCAL: {
+                    env.set(code[pc + 1], (ZemObject) stack[--sp]);
+                    pc += 2;
+                    break;
+                }
+                case Opcode.LOAD_OUTER: {
+                    ZemObject value = env.get(code[pc + 1], code[pc + 2]);
+                    if (value == null) {
+                        value = interpreter.getVariable(names[code[pc + 3]], positions[code[pc + 4]]);
+                    }
+                    stack[sp++] = value;
+                    pc += 5;
+                    break;
+                }
+                case Opcode.ADD:
+                case Opcode.SUBTRACT:
+                case Opcode.MULTIPLY:
+                case Opcode.DIVIDE:
+                case Opcode.MOD:
+                case Opcode.POWER: {
+                    ZemNumber left = ((ZemObject) stack[sp - 2]).toNumber(positions[code[pc + 1]]);
+                    ZemNumber right = ((ZemObject) stack[sp - 1]).toNumber(positions[code[pc + 2]]);
+                    stack[--sp] = null;
+                    stack[sp - 1] = arithmetic(code[pc], left, right);
+                    pc += 3;
+                    break;
+                }
+                case Opcode.NEGATE: {
+                    stack[sp - 1] = ((ZemObject) stack[sp - 1]).toNumber(positions[code[pc + 1]]).negate();
+                    pc += 2;
+                    break;
+                }
+                case Opcode.NOT: {
+                    stack[sp - 1] = ((ZemObject) stack[sp - 1]).toBoolean(positions[code[pc + 1]]).not();
+                    pc += 2;
+                    break;
+                }
+                case Opcode.CONCAT: {
+                    ZemObject right = (ZemObject) stack[--sp];
+                    stack[sp] = null;
+                    stack[sp - 1] = ((ZemObject) stack[sp - 1]).toZString().concat(right.toZString());
+                    pc += 1;
+                    break;
+                }
+                case Opcode.LESS_THAN:
+                case Opcode.LESS_EQUAL:
+                case Opcode.GREATER_THAN:
+                case Opcode.GREATER_EQUAL:
+                case Opcode.EQUAL:
+                case Opcode.NOT_EQUAL: {
+                    ZemObject right = (ZemObject) stack[--sp];
+                    stack[sp] = null;
+                    stack[sp - 1] = relational(code[pc], (ZemObject) stack[sp - 1], right,
+                            positions[code[pc + 1]]);
+                    pc += 2;
+                    break;
+                }
+                case Opcode.TO_BOOLEAN: {
+                    ((ZemObject) stack[sp - 1]).toBoolean(positions[code[pc + 1]]);
+                    pc += 2;
+                    break;
+                }
+                case Opcode.JUMP: {
+                    pc = code[pc + 1];
+                    break;
+                }
+                case Opcode.JUMP_IF_FALSE: {
+                    ZemObject test = (ZemObject) stack[--sp];
+                    stack[sp] = null;
+                    if (test.toBoolean(positions[code[pc + 2]]).booleanValue()) {
+                        pc += 3;
+                    } else {
+                        pc = code[pc + 1];
+                    }
+                    break;
+                }
+                case Opcode.JUMP_IF_FALSE_OR_POP: {
+                    if (stack[sp - 1] == ZemBoolean.FALSE) {
+                        pc = code[pc + 1];
+                    } else {
+                        stack[--sp] = null;
+                        pc += 2;
+                    }
+                    break;
+                }
+                case Opcode.JUMP_IF_TRUE_OR_POP: {
+                    if (stack[sp - 1] == ZemBoolean.TRUE) {
+                        pc = code[pc + 1];
+                    } else {
+                        stack[--sp] = null;
+                        pc += 2;
+                    }
+                    break;
+                }
+                case Opcode.CALL:
+                case Opcode.TAIL_CALL: {
+                    int argCount = code[pc + 1];
+                    SourcePosition pos = positions[code[pc + 2]];
+                    Object callee = stack[sp - argCount - 1];
+                    if (!(callee instanceof Function)) {
+                        throw new InvalidTypeException("Call to invalid function", pos);
+                    }
+                    List<ZemObject> args = new ArrayList<ZemObject>(argCount);
+                    for (int i = sp - argCount; i < sp; i++) {
+                        args.add((ZemObject) stack[i]);
+                        stack[i] = null;
+                    }
+                    sp -= argCount;
+                    String functionName = code[pc + 3] < 0 ? null : names[code[pc + 3]];
+                    if (code[pc] == Opcode.TAIL_CALL) {
+                        interpreter.tailCall((Function) callee, interpreter.bindArguments((Function) callee,
+                                args, pos, functionName), pos);
+                        return null;
+                    }
+                    stack[sp - 1] = interpreter.callFunction((Function) callee, args, pos, functionName);
+                    pc += 4;
+                    break;
+                }
+                case Opcode.RETURN: {
+                    return (ZemObject) stack[sp - 1];
+                }
+                case Opcode.FUNCTION: {
+                    CodeBlock functionBlock = block.getBlocks()[code[pc + 1]];
+                    String[] parameterNames = functionBlock.getParameterNames();
+                    boolean[] parameterDefaults = functionBlock.getParameterDefaults();
+                    int defaults = 0;
+                    for (boolean hasDefault : parameterDefaults) {
+                        if (hasDefault) {
+                            defaults++;
+                        }
+                    }
+                    List<Parameter> params = new ArrayList<Parameter>(parameterNames.length);
+                    int defaultIndex = sp - defaults;
+                    for (int i = 0; i < parameterNames.length; i++) {
+                        ZemObject defaultValue = null;
+                        if (parameterDefaults[i]) {
+                            defaultValue = (ZemObject) stack[defaultIndex];
+                            stack[defaultIndex++] = null;
+                        }
+                        params.add(new Parameter(parameterNames[i], defaultValue));
+                    }
+                    sp -= defaults;
+                    stack[sp++] = new CompiledFunction(params, functionBlock, env);
+                    pc += 2;
+                    break;
+                }
+                case Opcode.ARRAY: {
+                    int count = code[pc + 1];
+                    List<ZemObject> elements = new ArrayList<ZemObject>(count);
+                    for (int i = sp - count; i < sp; i++) {
+                        elements.add((ZemObject) stack[i]);
+                        stack[i] = null;
+                    }
+                    sp -= count;
+                    stack[sp++] = new ZemArray(elements);
+                    pc += 2;
+                    break;
+                }
+                case Opcode.DICTIONARY: {
+                    int count = code[pc + 1];
+                    Map<ZemObject, ZemObject> entries = new LinkedHashMap<ZemObject, ZemObject>(count);
+                    for (int i = sp - 2 * count; i < sp; i += 2) {
+                        entries.put((ZemObject) stack[i], (ZemObject) stack[i + 1]);
+                        stack[i] = null;
+                        stack[i + 1] = null;
+                    }
+                    sp -= 2 * count;
+                    stack[sp++] = new Dictionary(entries);
+                    pc += 2;
+                    break;
+                }
+                case Opcode.CHECK_LOOKUP: {
+                    LookupNode.checkType((ZemObject) stack[sp - 1], positions[code[pc + 1]]);
+                    pc += 2;
+                    break;
+                }
+                case Opcode.GET_INDEX: {
+                    ZemObject key = (ZemObject) stack[--sp];
+                    stack[sp] = null;
+                    stack[sp - 1] = LookupNode.get((ZemObject) stack[sp - 1], key, positions[code[pc + 1]]);
+                    pc += 2;
+                    break;
+                }
+                case Opcode.SET_INDEX: {
+                    ZemObject key = (ZemObject) stack[--sp];
+                    ZemObject var = (ZemObject) stack[--sp];
+                    stack[sp] = null;
+                    stack[sp + 1] = null;
+                    LookupNode.set(var, key, positions[code[pc + 1]], (ZemObject) stack[sp - 1]);
+                    pc += 2;
+                    break;
+                }
+                case Opcode.ITERATOR: {
+                    Object collection = stack[sp - 1];
+                    boolean isEntry = code[pc + 1] == 1;
+                    if (!isEntry && collection instanceof ZemArray) {
+                        stack[sp - 1] = ((ZemArray) collection).iterator();
+                    } else if (isEntry && collection instanceof Dictionary) {
+                        stack[sp - 1] = ((Dictionary) collection).iterator();
+                    } else {
+                        throw new InvalidTypeException("foreach expects an array or dictionary.",
+                                positions[code[pc + 2]]);
+                    }
+                    pc += 3;
+                    break;
+                }
+                case Opcode.NEXT:
+                case Opcode.NEXT_ENTRY: {
+                    boolean withResult = code[pc + 2] == 1;
+                    int iteratorIndex = withResult ? sp - 2 : sp - 1;
+                    Iterator<?> iterator = (Iterator<?>) stack[iteratorIndex];
+                    if (!iterator.hasNext()) {
+                        if (withResult) {
+                            stack[iteratorIndex] = stack[sp - 1];
+                        }
+                        stack[--sp] = null;
+                        pc = code[pc + 1];
+                    } else if (code[pc] == Opcode.NEXT) {
+                        stack[sp++] = iterator.next();
+                        pc += 3;
+                    } else {
+                        Map.Entry<ZemObject, ZemObject> entry =
+                            (Map.Entry<ZemObject, ZemObject>) iterator.next();
+                        stack[sp++] = entry.getKey();
+                        stack[sp++] = entry.getValue();
+                        pc += 3;
+                    }
+                    break;
+                }
+                default: {
+                    throw new IllegalStateException("Invalid opcode " + code[pc] + " at " + pc);
+                }
+            }
+        }
+    }
+
+    private ZemNumber arithmetic(int opcode, ZemNumber left, ZemNumber right) {
+        MathContext mc = interpreter.getMathContext();
+        switch (opcode) {
+            case Opcode.ADD:
+                return left.add(right, mc);
+            case Opcode.SUBTRACT:
+                return left.subtract(right, mc);
+            case Opcode.MULTIPLY:
+                return left.multiply(right, mc);
+            case Opcode.DIVIDE:
+                return left.divide(right, mc);
+            case Opcode.MOD:
+                return left.remainder(right, mc);
+            default:
+                return left.power(right, mc);
+        }
+    }
+
+    private ZemBoolean relational(int opcode, ZemObject left, ZemObject right, SourcePosition pos) {
+        switch (opcode) {
+            case Opcode.LESS_THAN:
+                return ZemBoolean.valueOf(RelationalOpNode.compare(left, right, pos) < 0);
+            case Opcode.LESS_EQUAL:
+                return ZemBoolean.valueOf(RelationalOpNode.compare(left, right, pos) <= 0);
+            case Opcode.GREATER_THAN:
+                return ZemBoolean.valueOf(RelationalOpNode.compare(left, right, pos) > 0);
+            case Opcode.GREATER_EQUAL:
+                return ZemBoolean.valueOf(RelationalOpNode.compare(left, right, pos) >= 0);
+            case Opcode.EQUAL:
+                return RelationalOpNode.equal(left, right, pos);
+            default:
+                return RelationalOpNode.equal(left, right, pos).not();
+        }
+    }
+}
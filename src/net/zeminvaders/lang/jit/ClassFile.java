@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes a JVM class file. Only the parts of the format used by the
+ * JitCompiler are supported. Class files are written as version 49 so
+ * methods do not require a StackMapTable.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class ClassFile {
+    static final public int ACC_PUBLIC = 0x0001;
+    static final public int ACC_PRIVATE = 0x0002;
+    static final public int ACC_FINAL = 0x0010;
+    static final public int ACC_SUPER = 0x0020;
+
+    static final private int VERSION = 49;
+    static final private int MAX_POOL_SIZE = 65535;
+    static final private int CONSTANT_UTF8 = 1;
+    static final private int CONSTANT_CLASS = 7;
+    static final private int CONSTANT_FIELDREF = 9;
+    static final private int CONSTANT_METHODREF = 10;
+    static final private int CONSTANT_INTERFACE_METHODREF = 11;
+    static final private int CONSTANT_NAME_AND_TYPE = 12;
+
+    private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private DataOutputStream pool = new DataOutputStream(poolBytes);
+    private Map<String, Integer> poolEntries = new HashMap<String, Integer>();
+    private int poolCount = 1;
+    private ByteArrayOutputStream fieldBytes = new ByteArrayOutputStream();
+    private DataOutputStream fields = new DataOutputStream(fieldBytes);
+    private int fieldCount = 0;
+    private ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+    private DataOutputStream methods = new DataOutputStream(methodBytes);
+    private int methodCount = 0;
+
+    private int addEntry(String key, int tag, int a, int b) {
+        Integer index = poolEntries.get(key);
+        if (index != null) {
+            return index;
+        }
+        checkPoolSize();
+        try {
+            pool.writeByte(tag);
+            pool.writeShort(a);
+            if (b >= 0) {
+                pool.writeShort(b);
+            }
+        } catch (IOException e) {
+            // Can not occur writing to a byte array
+            throw new RuntimeException(e);
+        }
+        poolEntries.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private void checkPoolSize() {
+        if (poolCount == MAX_POOL_SIZE) {
+            throw new MethodTooLargeException();
+        }
+    }
+
+    public int utf8(String value) {
+        String key = "U" + value;
+        Integer index = poolEntries.get(key);
+        if (index != null) {
+            return index;
+        }
+        checkPoolSize();
+        try {
+            pool.writeByte(CONSTANT_UTF8);
+            pool.writeUTF(value);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        poolEntries.put(key, poolCount);
+        return poolCount++;
+    }
+
+    /**
+     * @param internalName Class name with / separators
+     */
+    public int classRef(String internalName) {
+        return addEntry("C" + internalName, CONSTANT_CLASS, utf8(internalName), -1);
+    }
+
+    public int nameAndType(String name, String descriptor) {
+        return addEntry("T" + name + ' ' + descriptor, CONSTANT_NAME_AND_TYPE,
+                utf8(name), utf8(descriptor));
+    }
+
+    public int fieldRef(String owner, String name, String descriptor) {
+        return addEntry("F" + owner + '.' + name + ' ' + descriptor, CONSTANT_FIELDREF,
+                classRef(owner), nameAndType(name, descriptor));
+    }
+
+    public int methodRef(String owner, String name, String descriptor) {
+        return addEntry("M" + owner + '.' + name + descriptor, CONSTANT_METHODREF,
+                classRef(owner), nameAndType(name, descriptor));
+    }
+
+    public int interfaceMethodRef(String owner, String name, String descriptor) {
+        return addEntry("I" + owner + '.' + name + descriptor, CONSTANT_INTERFACE_METHODREF,
+                classRef(owner), nameAndType(name, descriptor));
+    }
+
+    public void addField(int access, String name, String descriptor) {
+        try {
+            fields.writeShort(access);
+            fields.writeShort(utf8(name));
+            fields.writeShort(utf8(descriptor));
+            fields.writeShort(0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        fieldCount++;
+    }
+
+    /**
+     * Add a method.
+     *
+     * @param maxLocals Number of local variable slots, including this and
+     *                  the parameters
+     */
+    public void addMethod(int access, String name, String descriptor, CodeBuffer code, int maxLocals) {
+        try {
+            methods.writeShort(access);
+            methods.writeShort(utf8(name));
+            methods.writeShort(utf8(descriptor));
+            methods.writeShort(1);
+            methods.writeShort(utf8("Code"));
+            methods.writeInt(12 + code.getLength());
+            methods.writeShort(code.getMaxStack());
+            methods.writeShort(maxLocals);
+            methods.writeInt(code.getLength());
+            methods.write(code.getBytes(), 0, code.getLength());
+            // Exception table and attributes
+            methods.writeShort(0);
+            methods.writeShort(0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        methodCount++;
+    }
+
+    /**
+     * Write the class file.
+     *
+     * @param thisClass  Internal name of the class
+     * @param superClass Internal name of the super class
+     * @param interfaces Internal names of the implemented interfaces
+     */
+    public byte[] toByteArray(int access, String thisClass, String superClass, String[] interfaces) {
+        int thisIndex = classRef(thisClass);
+        int superIndex = classRef(superClass);
+        int[] interfaceIndexes = new int[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaceIndexes[i] = classRef(interfaces[i]);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(access);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(interfaceIndexes.length);
+            for (int index : interfaceIndexes) {
+                out.writeShort(index);
+            }
+            out.writeShort(fieldCount);
+            fieldBytes.writeTo(out);
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
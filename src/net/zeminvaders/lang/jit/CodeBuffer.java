@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.jit;
+
+/**
+ * Buffer of JVM instructions for a method. Tracks the depth of the operand
+ * stack so the maximum depth can be written to the class file.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class CodeBuffer {
+    static final public int ACONST_NULL = 0x01;
+    static final public int ICONST_0 = 0x03;
+    static final public int BIPUSH = 0x10;
+    static final public int SIPUSH = 0x11;
+    static final public int ALOAD = 0x19;
+    static final public int ALOAD_0 = 0x2a;
+    static final public int AALOAD = 0x32;
+    static final public int ASTORE = 0x3a;
+    static final public int AASTORE = 0x53;
+    static final public int POP = 0x57;
+    static final public int DUP = 0x59;
+    static final public int DUP_X2 = 0x5b;
+    static final public int IFEQ = 0x99;
+    static final public int IFNE = 0x9a;
+    static final public int GOTO = 0xa7;
+    static final public int ARETURN = 0xb0;
+    static final public int RETURN = 0xb1;
+    static final public int GETSTATIC = 0xb2;
+    static final public int GETFIELD = 0xb4;
+    static final public int PUTFIELD = 0xb5;
+    static final public int INVOKEVIRTUAL = 0xb6;
+    static final public int INVOKESPECIAL = 0xb7;
+    static final public int INVOKESTATIC = 0xb8;
+    static final public int INVOKEINTERFACE = 0xb9;
+    static final public int ANEWARRAY = 0xbd;
+    static final public int CHECKCAST = 0xc0;
+
+    /**
+     * Largest method the JVM accepts, in bytes.
+     */
+    static final private int MAX_LENGTH = 65535;
+
+    private ClassFile classFile;
+    private byte[] bytes = new byte[256];
+    private int length = 0;
+    private int stack = 0;
+    private int maxStack = 0;
+
+    public CodeBuffer(ClassFile classFile) {
+        this.classFile = classFile;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    /**
+     * Get the current depth of the operand stack.
+     */
+    public int getStack() {
+        return stack;
+    }
+
+    /**
+     * Set the depth of the operand stack. Used at the target of a jump,
+     * where the depth is that of the jump rather than the previous
+     * instruction.
+     */
+    public void setStack(int stack) {
+        this.stack = stack;
+    }
+
+    private void adjustStack(int delta) {
+        stack += delta;
+        if (stack > maxStack) {
+            maxStack = stack;
+        }
+    }
+
+    private void writeByte(int value) {
+        if (length == bytes.length) {
+            if (length >= MAX_LENGTH) {
+                throw new MethodTooLargeException();
+            }
+            byte[] newBytes = new byte[bytes.length * 2];
+            System.arraycopy(bytes, 0, newBytes, 0, length);
+            bytes = newBytes;
+        }
+        bytes[length++] = (byte) value;
+    }
+
+    private void writeShort(int value) {
+        writeByte(value >> 8);
+        writeByte(value);
+    }
+
+    /**
+     * Emit an instruction without operands.
+     *
+     * @param opcode     The opcode
+     * @param stackDelta Change in depth of the operand stack
+     */
+    public void op(int opcode, int stackDelta) {
+        writeByte(opcode);
+        adjustStack(stackDelta);
+    }
+
+    public void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value, 1);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            op(BIPUSH, 1);
+            writeByte(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            op(SIPUSH, 1);
+            writeShort(value);
+        } else {
+            throw new MethodTooLargeException();
+        }
+    }
+
+    public void aload(int local) {
+        if (local <= 3) {
+            op(ALOAD_0 + local, 1);
+        } else {
+            op(ALOAD, 1);
+            writeByte(local);
+        }
+    }
+
+    public void astore(int local) {
+        op(ASTORE, -1);
+        writeByte(local);
+    }
+
+    /**
+     * Emit an instruction that takes a class operand, such as CHECKCAST.
+     */
+    public void typeOp(int opcode, String internalName) {
+        op(opcode, 0);
+        writeShort(classFile.classRef(internalName));
+    }
+
+    public void getField(String owner, String name, String descriptor) {
+        op(GETFIELD, 0);
+        writeShort(classFile.fieldRef(owner, name, descriptor));
+    }
+
+    public void putField(String owner, String name, String descriptor) {
+        op(PUTFIELD, -2);
+        writeShort(classFile.fieldRef(owner, name, descriptor));
+    }
+
+    public void getStatic(String owner, String name, String descriptor) {
+        op(GETSTATIC, 1);
+        writeShort(classFile.fieldRef(owner, name, descriptor));
+    }
+
+    /**
+     * Emit a method invocation.
+     *
+     * @param opcode     INVOKESTATIC, INVOKEVIRTUAL, INVOKESPECIAL or INVOKEINTERFACE
+     * @param owner      Internal name of the class declaring the method
+     * @param name       Method name
+     * @param descriptor Method descriptor, which may only use single slot types
+     */
+    public void invoke(int opcode, String owner, String name, String descriptor) {
+        int argCount = argumentCount(descriptor);
+        int delta = descriptor.endsWith(")V") ? 0 : 1;
+        delta -= argCount;
+        if (opcode != INVOKESTATIC) {
+            // Receiver
+            delta--;
+        }
+        op(opcode, delta);
+        if (opcode == INVOKEINTERFACE) {
+            writeShort(classFile.interfaceMethodRef(owner, name, descriptor));
+            writeByte(argCount + 1);
+            writeByte(0);
+        } else {
+            writeShort(classFile.methodRef(owner, name, descriptor));
+        }
+    }
+
+    static private int argumentCount(String descriptor) {
+        int count = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            while (c == '[') {
+                c = descriptor.charAt(++i);
+            }
+            if (c == 'L') {
+                i = descriptor.indexOf(';', i);
+            }
+            i++;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Emit a jump to be patched later.
+     *
+     * @param opcode     Jump opcode
+     * @param stackDelta Change in depth of the operand stack
+     * @return Position of the jump
+     */
+    public int jump(int opcode, int stackDelta) {
+        int position = length;
+        op(opcode, stackDelta);
+        writeShort(0);
+        return position;
+    }
+
+    /**
+     * Emit a jump backwards to an earlier position.
+     */
+    public void jumpTo(int opcode, int stackDelta, int target) {
+        int position = length;
+        op(opcode, stackDelta);
+        writeOffset(target - position);
+    }
+
+    /**
+     * Point a jump to the current position.
+     *
+     * @param position Position of the jump returned by jump()
+     */
+    public void patch(int position) {
+        int offset = length - position;
+        if (offset > Short.MAX_VALUE) {
+            throw new MethodTooLargeException();
+        }
+        bytes[position + 1] = (byte) (offset >> 8);
+        bytes[position + 2] = (byte) offset;
+    }
+
+    private void writeOffset(int offset) {
+        if (offset < Short.MIN_VALUE) {
+            throw new MethodTooLargeException();
+        }
+        writeShort(offset);
+    }
+}
@@ -19,32 +19,24 @@
  * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
  * IN THE SOFTWARE.
  */
-package net.zeminvaders.lang.runtime;
+package net.zeminvaders.lang.jit;
+
+import net.zeminvaders.lang.Interpreter;
+import net.zeminvaders.lang.runtime.ZemObject;
 
 /**
- * Exception used to (jump) return from a function.
+ * Function body compiled to a JVM class by the JitCompiler.
  *
  * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
  */
-public class ReturnException extends RuntimeException {
-    private static final long serialVersionUID = -667377947471909097L;
-
-    private ZemObject ret;
-
-    public ReturnException(ZemObject ret) {
-        this.ret = ret;
-    }
-
-    public ZemObject getReturn() {
-        return ret;
-    }
-
+public interface CompiledBody {
     /**
-     * This method doesn't do anything for performance reasons.
+     * Execute the function body.
      *
-     * @see Throwable#fillInStackTrace()
+     * @param interpreter The interpreter, with the environment of the call
+     *                    already set up
+     * @param slots       Slots of the call environment
+     * @return The value of the function body
      */
-    public Throwable fillInStackTrace() {
-        return this;
-    }
+    public ZemObject execute(Interpreter interpreter, ZemObject[] slots);
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.jit;
+
+import net.zeminvaders.lang.ast.Node;
+
+/**
+ * Counts the invocations of a function body and compiles the body with
+ * the JitCompiler once it becomes hot. Shared by every UserFunction
+ * created from the same function declaration.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class HotFunction {
+    private Node body;
+    private int invocationCount = 0;
+    private CompiledBody compiledBody;
+    private boolean compileFailed = false;
+
+    public HotFunction(Node body) {
+        this.body = body;
+    }
+
+    /**
+     * Record an invocation of the function body.
+     *
+     * @param threshold Number of interpreted invocations before the body is
+     *                  compiled. Negative to never compile.
+     * @return The compiled body or null if the body should be interpreted
+     */
+    public CompiledBody invoke(int threshold) {
+        if (compiledBody == null && !compileFailed && threshold >= 0
+                && invocationCount++ >= threshold) {
+            compiledBody = new JitCompiler().compile(body);
+            compileFailed = compiledBody == null;
+        }
+        return compiledBody;
+    }
+
+    /**
+     * Get the compiled body.
+     *
+     * @return The compiled body or null if the body has not been compiled
+     */
+    public CompiledBody getCompiledBody() {
+        return compiledBody;
+    }
+}
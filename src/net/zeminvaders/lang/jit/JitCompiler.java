@@ -0,0 +1,520 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.jit;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.zeminvaders.lang.ast.AddOpNode;
+import net.zeminvaders.lang.ast.AndOpNode;
+import net.zeminvaders.lang.ast.AssignNode;
+import net.zeminvaders.lang.ast.BinaryOpNode;
+import net.zeminvaders.lang.ast.BlockNode;
+import net.zeminvaders.lang.ast.ConcatOpNode;
+import net.zeminvaders.lang.ast.DictionaryEntryNode;
+import net.zeminvaders.lang.ast.DivideOpNode;
+import net.zeminvaders.lang.ast.EqualsOpNode;
+import net.zeminvaders.lang.ast.FalseNode;
+import net.zeminvaders.lang.ast.ForeachNode;
+import net.zeminvaders.lang.ast.FunctionCallNode;
+import net.zeminvaders.lang.ast.GreaterEqualOpNode;
+import net.zeminvaders.lang.ast.GreaterThanOpNode;
+import net.zeminvaders.lang.ast.IfNode;
+import net.zeminvaders.lang.ast.LessEqualOpNode;
+import net.zeminvaders.lang.ast.LessThanOpNode;
+import net.zeminvaders.lang.ast.LookupNode;
+import net.zeminvaders.lang.ast.ModOpNode;
+import net.zeminvaders.lang.ast.MultiplyOpNode;
+import net.zeminvaders.lang.ast.NegateOpNode;
+import net.zeminvaders.lang.ast.Node;
+import net.zeminvaders.lang.ast.NotEqualsOpNode;
+import net.zeminvaders.lang.ast.NotOpNode;
+import net.zeminvaders.lang.ast.NumberNode;
+import net.zeminvaders.lang.ast.OrOpNode;
+import net.zeminvaders.lang.ast.PowerOpNode;
+import net.zeminvaders.lang.ast.ReturnNode;
+import net.zeminvaders.lang.ast.StringNode;
+import net.zeminvaders.lang.ast.SubtractOpNode;
+import net.zeminvaders.lang.ast.TrueNode;
+import net.zeminvaders.lang.ast.VariableNode;
+import net.zeminvaders.lang.ast.WhileNode;
+
+/**
+ * Compiles the body of a function to a JVM class, which is loaded as a
+ * hidden class so HotSpot can compile and inline it like any other Java
+ * code.
+ *
+ * Local variables stay in the slots of the call environment so builtin
+ * functions and nested functions see the same values as the compiled code.
+ * Nodes the compiler does not handle are evaluated by calling their eval
+ * method.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class JitCompiler {
+    static final private String CLASS_NAME = "net/zeminvaders/lang/jit/JitCode";
+    static final private String RUNTIME = "net/zeminvaders/lang/jit/JitRuntime";
+    static final private String COMPILED_BODY = "net/zeminvaders/lang/jit/CompiledBody";
+    static final private String OBJECT = "java/lang/Object";
+    static final private String STRING = "java/lang/String";
+    static final private String ITERATOR = "java/util/Iterator";
+    static final private String MATH_CONTEXT = "java/math/MathContext";
+    static final private String MAP_ENTRY = "java/util/Map$Entry";
+    static final private String INTERPRETER = "net/zeminvaders/lang/Interpreter";
+    static final private String ZEM_OBJECT = "net/zeminvaders/lang/runtime/ZemObject";
+    static final private String ZEM_NUMBER = "net/zeminvaders/lang/runtime/ZemNumber";
+    static final private String ZEM_STRING = "net/zeminvaders/lang/runtime/ZemString";
+    static final private String ZEM_BOOLEAN = "net/zeminvaders/lang/runtime/ZemBoolean";
+    static final private String FUNCTION = "net/zeminvaders/lang/runtime/Function";
+    static final private String NODE = "net/zeminvaders/lang/ast/Node";
+    static final private String VARIABLE_NODE = "net/zeminvaders/lang/ast/VariableNode";
+    static final private String FUNCTION_CALL_NODE = "net/zeminvaders/lang/ast/FunctionCallNode";
+    static final private String LOOKUP_NODE = "net/zeminvaders/lang/ast/LookupNode";
+    static final private String FOREACH_NODE = "net/zeminvaders/lang/ast/ForeachNode";
+
+    static final private String EXECUTE_DESCRIPTOR = "(L" + INTERPRETER + ";[L" + ZEM_OBJECT + ";)L" + ZEM_OBJECT + ";";
+
+    /** Local variables of the execute method */
+    static final private int INTERPRETER_LOCAL = 1;
+    static final private int SLOTS_LOCAL = 2;
+    static final private int MAX_LOCALS = 256;
+
+    private ClassFile classFile = new ClassFile();
+    private CodeBuffer code = new CodeBuffer(classFile);
+    private Map<Object, Integer> constantIndexes = new IdentityHashMap<Object, Integer>();
+    private List<Object> constants = new ArrayList<Object>();
+    private List<String> constantTypes = new ArrayList<String>();
+    private int localCount = 3;
+
+    /**
+     * Compile a function body.
+     *
+     * @param body Function body that has been resolved by the Resolver
+     * @return The compiled body or null if the body is too large to compile
+     */
+    public CompiledBody compile(Node body) {
+        byte[] bytes;
+        try {
+            compile(body, true);
+            code.op(CodeBuffer.ARETURN, -1);
+            for (int i = 0; i < constants.size(); i++) {
+                classFile.addField(ClassFile.ACC_PRIVATE | ClassFile.ACC_FINAL,
+                        "c" + i, "L" + constantTypes.get(i) + ";");
+            }
+            classFile.addMethod(ClassFile.ACC_PUBLIC, "<init>", "([L" + OBJECT + ";)V",
+                    compileConstructor(), 2);
+            classFile.addMethod(ClassFile.ACC_PUBLIC, "execute", EXECUTE_DESCRIPTOR, code, localCount);
+            bytes = classFile.toByteArray(ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL | ClassFile.ACC_SUPER,
+                    CLASS_NAME, OBJECT, new String[] {COMPILED_BODY});
+        } catch (MethodTooLargeException e) {
+            return null;
+        }
+        try {
+            Class<?> bodyClass = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+            return (CompiledBody) bodyClass.getConstructor(Object[].class)
+                .newInstance(new Object[] {constants.toArray()});
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Unable to load compiled function", e);
+        }
+    }
+
+    /**
+     * Constructor that copies the constants into final fields, which
+     * HotSpot treats as constants for hidden classes.
+     */
+    private CodeBuffer compileConstructor() {
+        CodeBuffer init = new CodeBuffer(classFile);
+        init.aload(0);
+        init.invoke(CodeBuffer.INVOKESPECIAL, OBJECT, "<init>", "()V");
+        for (int i = 0; i < constants.size(); i++) {
+            init.aload(0);
+            init.aload(1);
+            init.pushInt(i);
+            init.op(CodeBuffer.AALOAD, -1);
+            init.typeOp(CodeBuffer.CHECKCAST, constantTypes.get(i));
+            init.putField(CLASS_NAME, "c" + i, "L" + constantTypes.get(i) + ";");
+        }
+        init.op(CodeBuffer.RETURN, 0);
+        return init;
+    }
+
+    private void loadConstant(Object value, String type) {
+        Integer index = constantIndexes.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantTypes.add(type);
+            constantIndexes.put(value, index);
+        }
+        code.aload(0);
+        code.getField(CLASS_NAME, "c" + index, "L" + constantTypes.get(index) + ";");
+    }
+
+    private int allocateLocal() {
+        if (localCount == MAX_LOCALS) {
+            throw new MethodTooLargeException();
+        }
+        return localCount++;
+    }
+
+    private void invokeRuntime(String name, String descriptor) {
+        code.invoke(CodeBuffer.INVOKESTATIC, RUNTIME, name, descriptor);
+    }
+
+    /**
+     * Compile a statement.
+     *
+     * @param node      Statement to compile
+     * @param wantValue Leave the value of the statement on the stack
+     */
+    private void compile(Node node, boolean wantValue) {
+        if (node instanceof BlockNode) {
+            List<Node> statements = ((BlockNode) node).getStatements();
+            if (statements.isEmpty()) {
+                if (wantValue) {
+                    code.op(CodeBuffer.ACONST_NULL, 1);
+                }
+                return;
+            }
+            int last = statements.size() - 1;
+            for (int i = 0; i <= last; i++) {
+                compile(statements.get(i), wantValue && i == last);
+            }
+        } else if (node instanceof AssignNode) {
+            compileAssign((AssignNode) node, wantValue);
+        } else if (node instanceof IfNode) {
+            IfNode ifNode = (IfNode) node;
+            compileTest(ifNode.getTestCondition());
+            int elseJump = code.jump(CodeBuffer.IFEQ, -1);
+            int stack = code.getStack();
+            compile(ifNode.getThenBlock(), wantValue);
+            int endJump = code.jump(CodeBuffer.GOTO, 0);
+            code.setStack(stack);
+            code.patch(elseJump);
+            if (ifNode.getElseBlock() != null) {
+                compile(ifNode.getElseBlock(), wantValue);
+            } else if (wantValue) {
+                code.getStatic(ZEM_BOOLEAN, "FALSE", "L" + ZEM_BOOLEAN + ";");
+            }
+            code.patch(endJump);
+        } else if (node instanceof WhileNode) {
+            WhileNode whileNode = (WhileNode) node;
+            int result = startLoopResult(wantValue);
+            int loopStart = code.getLength();
+            compileTest(whileNode.getTestCondition());
+            int exitJump = code.jump(CodeBuffer.IFEQ, -1);
+            compile(whileNode.getLoopBody(), wantValue);
+            endLoop(result, loopStart, exitJump);
+        } else if (node instanceof ForeachNode) {
+            compileForeach((ForeachNode) node, wantValue);
+        } else if (node instanceof ReturnNode) {
+            compileExpression(((ReturnNode) node).getExpression());
+            code.op(CodeBuffer.ARETURN, -1);
+            if (wantValue) {
+                // Unreachable, keeps the stack depth of the enclosing statement
+                code.op(CodeBuffer.ACONST_NULL, 1);
+            }
+        } else {
+            compileExpression(node);
+            if (!wantValue) {
+                code.op(CodeBuffer.POP, -1);
+            }
+        }
+    }
+
+    /**
+     * Allocate the local variable holding the value of a loop.
+     *
+     * @return The local variable or -1 if the value is not wanted
+     */
+    private int startLoopResult(boolean wantValue) {
+        if (!wantValue) {
+            return -1;
+        }
+        int result = allocateLocal();
+        // Value of a loop that never runs its body
+        code.op(CodeBuffer.ACONST_NULL, 1);
+        code.astore(result);
+        return result;
+    }
+
+    private void endLoop(int result, int loopStart, int exitJump) {
+        if (result >= 0) {
+            code.astore(result);
+        }
+        code.jumpTo(CodeBuffer.GOTO, 0, loopStart);
+        code.patch(exitJump);
+        if (result >= 0) {
+            code.aload(result);
+        }
+    }
+
+    private void compileAssign(AssignNode assign, boolean wantValue) {
+        Node left = assign.getLeft();
+        if (left instanceof VariableNode && ((VariableNode) left).getSlot() >= 0) {
+            code.aload(SLOTS_LOCAL);
+            code.pushInt(((VariableNode) left).getSlot());
+            compileExpression(assign.getRight());
+            if (wantValue) {
+                code.op(CodeBuffer.DUP_X2, 1);
+            }
+            code.op(CodeBuffer.AASTORE, -3);
+        } else if (left instanceof VariableNode) {
+            compileExpression(assign.getRight());
+            code.aload(INTERPRETER_LOCAL);
+            loadConstant(((VariableNode) left).getName(), STRING);
+            invokeRuntime("setVariable", "(L" + ZEM_OBJECT + ";L" + INTERPRETER + ";L" + STRING + ";)L" + ZEM_OBJECT + ";");
+            if (!wantValue) {
+                code.op(CodeBuffer.POP, -1);
+            }
+        } else {
+            compileFallback(assign);
+            if (!wantValue) {
+                code.op(CodeBuffer.POP, -1);
+            }
+        }
+    }
+
+    private void compileForeach(ForeachNode foreach, boolean wantValue) {
+        compileExpression(foreach.getOnVariable());
+        loadConstant(foreach, FOREACH_NODE);
+        invokeRuntime("iterator", "(L" + ZEM_OBJECT + ";L" + FOREACH_NODE + ";)L" + ITERATOR + ";");
+        int iterator = allocateLocal();
+        code.astore(iterator);
+        int result = startLoopResult(wantValue);
+        int loopStart = code.getLength();
+        code.aload(iterator);
+        code.invoke(CodeBuffer.INVOKEINTERFACE, ITERATOR, "hasNext", "()Z");
+        int exitJump = code.jump(CodeBuffer.IFEQ, -1);
+        Node as = foreach.getAsNode();
+        if (as instanceof DictionaryEntryNode) {
+            int entry = allocateLocal();
+            code.aload(iterator);
+            code.invoke(CodeBuffer.INVOKEINTERFACE, ITERATOR, "next", "()L" + OBJECT + ";");
+            code.typeOp(CodeBuffer.CHECKCAST, MAP_ENTRY);
+            code.astore(entry);
+            DictionaryEntryNode entryNode = (DictionaryEntryNode) as;
+            compileStore((VariableNode) entryNode.getKey(), entry, MAP_ENTRY, "getKey");
+            compileStore((VariableNode) entryNode.getValue(), entry, MAP_ENTRY, "getValue");
+        } else {
+            compileStore((VariableNode) as, iterator, ITERATOR, "next");
+        }
+        compile(foreach.getLoopBody(), wantValue);
+        endLoop(result, loopStart, exitJump);
+    }
+
+    /**
+     * Store a value fetched from an iterator or map entry in a variable.
+     *
+     * @param var      Variable to store the value in
+     * @param local    Local variable holding the iterator or map entry
+     * @param owner    Interface of the iterator or map entry
+     * @param accessor Method that returns the value
+     */
+    private void compileStore(VariableNode var, int local, String owner, String accessor) {
+        if (var.getSlot() >= 0) {
+            code.aload(SLOTS_LOCAL);
+            code.pushInt(var.getSlot());
+        }
+        code.aload(local);
+        code.invoke(CodeBuffer.INVOKEINTERFACE, owner, accessor, "()L" + OBJECT + ";");
+        code.typeOp(CodeBuffer.CHECKCAST, ZEM_OBJECT);
+        if (var.getSlot() >= 0) {
+            code.op(CodeBuffer.AASTORE, -3);
+        } else {
+            code.aload(INTERPRETER_LOCAL);
+            loadConstant(var.getName(), STRING);
+            invokeRuntime("setVariable", "(L" + ZEM_OBJECT + ";L" + INTERPRETER + ";L" + STRING + ";)L" + ZEM_OBJECT + ";");
+            code.op(CodeBuffer.POP, -1);
+        }
+    }
+
+    /**
+     * Compile a condition, leaving an int on the stack that is zero when
+     * the condition is false.
+     */
+    private void compileTest(Node test) {
+        compileExpression(test);
+        loadConstant(test, NODE);
+        invokeRuntime("test", "(L" + ZEM_OBJECT + ";L" + NODE + ";)Z");
+    }
+
+    /**
+     * Compile an expression leaving its value on the stack.
+     */
+    private void compileExpression(Node node) {
+        if (node instanceof NumberNode) {
+            loadConstant(((NumberNode) node).getValue(), ZEM_NUMBER);
+        } else if (node instanceof StringNode) {
+            loadConstant(((StringNode) node).getValue(), ZEM_STRING);
+        } else if (node instanceof TrueNode) {
+            code.getStatic(ZEM_BOOLEAN, "TRUE", "L" + ZEM_BOOLEAN + ";");
+        } else if (node instanceof FalseNode) {
+            code.getStatic(ZEM_BOOLEAN, "FALSE", "L" + ZEM_BOOLEAN + ";");
+        } else if (node instanceof VariableNode && ((VariableNode) node).getSlot() >= 0
+                && ((VariableNode) node).getDepth() == 0) {
+            code.aload(SLOTS_LOCAL);
+            code.pushInt(((VariableNode) node).getSlot());
+            code.op(CodeBuffer.AALOAD, -1);
+            code.aload(INTERPRETER_LOCAL);
+            loadConstant(node, VARIABLE_NODE);
+            invokeRuntime("local", "(L" + ZEM_OBJECT + ";L" + INTERPRETER + ";L" + VARIABLE_NODE + ";)L" + ZEM_OBJECT + ";");
+        } else if (node instanceof AndOpNode || node instanceof OrOpNode) {
+            compileLogical((BinaryOpNode) node);
+        } else if (node instanceof ConcatOpNode) {
+            BinaryOpNode op = (BinaryOpNode) node;
+            compileExpression(op.getLeft());
+            compileExpression(op.getRight());
+            invokeRuntime("concat", "(L" + ZEM_OBJECT + ";L" + ZEM_OBJECT + ";)L" + ZEM_OBJECT + ";");
+        } else if (arithmeticMethod(node) != null) {
+            BinaryOpNode op = (BinaryOpNode) node;
+            compileNumber(op.getLeft());
+            compileNumber(op.getRight());
+            code.aload(INTERPRETER_LOCAL);
+            code.invoke(CodeBuffer.INVOKEVIRTUAL, INTERPRETER, "getMathContext", "()L" + MATH_CONTEXT + ";");
+            code.invoke(CodeBuffer.INVOKEVIRTUAL, ZEM_NUMBER, arithmeticMethod(node),
+                    "(L" + ZEM_NUMBER + ";L" + MATH_CONTEXT + ";)L" + ZEM_NUMBER + ";");
+        } else if (relationalMethod(node) != null) {
+            BinaryOpNode op = (BinaryOpNode) node;
+            compileExpression(op.getLeft());
+            compileExpression(op.getRight());
+            loadConstant(node, NODE);
+            invokeRuntime(relationalMethod(node), "(L" + ZEM_OBJECT + ";L" + ZEM_OBJECT + ";L" + NODE + ";)L" + ZEM_OBJECT + ";");
+        } else if (node instanceof NegateOpNode) {
+            compileNumber(((NegateOpNode) node).getOperand());
+            code.invoke(CodeBuffer.INVOKEVIRTUAL, ZEM_NUMBER, "negate", "()L" + ZEM_NUMBER + ";");
+        } else if (node instanceof NotOpNode) {
+            Node operand = ((NotOpNode) node).getOperand();
+            compileExpression(operand);
+            loadConstant(operand, NODE);
+            invokeRuntime("toBoolean", "(L" + ZEM_OBJECT + ";L" + NODE + ";)L" + ZEM_BOOLEAN + ";");
+            code.invoke(CodeBuffer.INVOKEVIRTUAL, ZEM_BOOLEAN, "not", "()L" + ZEM_BOOLEAN + ";");
+        } else if (node instanceof FunctionCallNode) {
+            compileCall((FunctionCallNode) node);
+        } else if (node instanceof LookupNode) {
+            LookupNode lookup = (LookupNode) node;
+            compileExpression(lookup.getVariable());
+            loadConstant(lookup, LOOKUP_NODE);
+            invokeRuntime("checkLookup", "(L" + ZEM_OBJECT + ";L" + LOOKUP_NODE + ";)L" + ZEM_OBJECT + ";");
+            compileExpression(lookup.getKey());
+            loadConstant(lookup, LOOKUP_NODE);
+            invokeRuntime("getIndex", "(L" + ZEM_OBJECT + ";L" + ZEM_OBJECT + ";L" + LOOKUP_NODE + ";)L" + ZEM_OBJECT + ";");
+        } else if (node instanceof BlockNode || node instanceof AssignNode || node instanceof IfNode
+                || node instanceof WhileNode || node instanceof ForeachNode || node instanceof ReturnNode) {
+            compile(node, true);
+        } else {
+            compileFallback(node);
+        }
+    }
+
+    /**
+     * Evaluate a node with the tree walking interpreter.
+     */
+    private void compileFallback(Node node) {
+        loadConstant(node, NODE);
+        code.aload(INTERPRETER_LOCAL);
+        code.invoke(CodeBuffer.INVOKEVIRTUAL, NODE, "eval", "(L" + INTERPRETER + ";)L" + ZEM_OBJECT + ";");
+    }
+
+    /**
+     * Compile an operand of an arithmetic operator, leaving a ZemNumber on
+     * the stack.
+     */
+    private void compileNumber(Node operand) {
+        compileExpression(operand);
+        loadConstant(operand, NODE);
+        invokeRuntime("toNumber", "(L" + ZEM_OBJECT + ";L" + NODE + ";)L" + ZEM_NUMBER + ";");
+    }
+
+    private void compileLogical(BinaryOpNode op) {
+        boolean isAnd = op instanceof AndOpNode;
+        int stack = code.getStack();
+        // Jump to the short circuit result when the left operand decides the result
+        compileTest(op.getLeft());
+        int leftJump = code.jump(isAnd ? CodeBuffer.IFEQ : CodeBuffer.IFNE, -1);
+        compileTest(op.getRight());
+        int rightJump = code.jump(isAnd ? CodeBuffer.IFEQ : CodeBuffer.IFNE, -1);
+        code.getStatic(ZEM_BOOLEAN, isAnd ? "TRUE" : "FALSE", "L" + ZEM_BOOLEAN + ";");
+        int endJump = code.jump(CodeBuffer.GOTO, 0);
+        code.setStack(stack);
+        code.patch(leftJump);
+        code.patch(rightJump);
+        code.getStatic(ZEM_BOOLEAN, isAnd ? "FALSE" : "TRUE", "L" + ZEM_BOOLEAN + ";");
+        code.patch(endJump);
+    }
+
+    private void compileCall(FunctionCallNode call) {
+        List<Node> arguments = call.getArguments();
+        compileExpression(call.getFunctionNode());
+        loadConstant(call, FUNCTION_CALL_NODE);
+        invokeRuntime("checkFunction", "(L" + ZEM_OBJECT + ";L" + FUNCTION_CALL_NODE + ";)L" + FUNCTION + ";");
+        code.pushInt(arguments.size());
+        code.typeOp(CodeBuffer.ANEWARRAY, ZEM_OBJECT);
+        for (int i = 0; i < arguments.size(); i++) {
+            code.op(CodeBuffer.DUP, 1);
+            code.pushInt(i);
+            compileExpression(arguments.get(i));
+            code.op(CodeBuffer.AASTORE, -3);
+        }
+        code.aload(INTERPRETER_LOCAL);
+        loadConstant(call, FUNCTION_CALL_NODE);
+        invokeRuntime(call.isTailCall() ? "tailCall" : "call", "(L" + FUNCTION + ";[L" + ZEM_OBJECT + ";L" + INTERPRETER + ";L"
+                + FUNCTION_CALL_NODE + ";)L" + ZEM_OBJECT + ";");
+    }
+
+    private String arithmeticMethod(Node node) {
+        if (node instanceof AddOpNode) {
+            return "add";
+        } else if (node instanceof SubtractOpNode) {
+            return "subtract";
+        } else if (node instanceof MultiplyOpNode) {
+            return "multiply";
+        } else if (node instanceof DivideOpNode) {
+            return "divide";
+        } else if (node instanceof ModOpNode) {
+            return "remainder";
+        } else if (node instanceof PowerOpNode) {
+            return "power";
+        }
+        return null;
+    }
+
+    private String relationalMethod(Node node) {
+        if (node instanceof LessThanOpNode) {
+            return "lessThan";
+        } else if (node instanceof LessEqualOpNode) {
+            return "lessEqual";
+        } else if (node instanceof GreaterThanOpNode) {
+            return "greaterThan";
+        } else if (node instanceof GreaterEqualOpNode) {
+            return "greaterEqual";
+        } else if (node instanceof EqualsOpNode) {
+            return "equal";
+        } else if (node instanceof NotEqualsOpNode) {
+            return "notEqual";
+        }
+        return null;
+    }
+}
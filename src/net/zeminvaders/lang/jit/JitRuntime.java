@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.jit;
+
+import java.util.Iterator;
+
+import net.zeminvaders.lang.Interpreter;
+import net.zeminvaders.lang.InvalidTypeException;
+import net.zeminvaders.lang.ast.ForeachNode;
+import net.zeminvaders.lang.ast.FunctionCallNode;
+import net.zeminvaders.lang.ast.LookupNode;
+import net.zeminvaders.lang.ast.Node;
+import net.zeminvaders.lang.ast.RelationalOpNode;
+import net.zeminvaders.lang.ast.VariableNode;
+import net.zeminvaders.lang.runtime.Dictionary;
+import net.zeminvaders.lang.runtime.Function;
+import net.zeminvaders.lang.runtime.ZemArray;
+import net.zeminvaders.lang.runtime.ZemBoolean;
+import net.zeminvaders.lang.runtime.ZemNumber;
+import net.zeminvaders.lang.runtime.ZemObject;
+
+/**
+ * Operations called by code generated by the JitCompiler. The nodes passed
+ * in are only used to report errors at the right position.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+final public class JitRuntime {
+    private JitRuntime() {
+    }
+
+    /**
+     * Value of a local variable. Falls back to the enclosing scopes when
+     * the local variable has not been assigned yet.
+     */
+    static public ZemObject local(ZemObject value, Interpreter interpreter, VariableNode node) {
+        if (value != null) {
+            return value;
+        }
+        return interpreter.getVariable(node.getName(), node.getPosition());
+    }
+
+    static public ZemObject setVariable(ZemObject value, Interpreter interpreter, String name) {
+        interpreter.setVariable(name, value);
+        return value;
+    }
+
+    static public ZemNumber toNumber(ZemObject value, Node node) {
+        return value.toNumber(node.getPosition());
+    }
+
+    static public ZemBoolean toBoolean(ZemObject value, Node node) {
+        return value.toBoolean(node.getPosition());
+    }
+
+    static public ZemObject concat(ZemObject left, ZemObject right) {
+        return left.toZString().concat(right.toZString());
+    }
+
+    static public ZemObject lessThan(ZemObject left, ZemObject right, Node node) {
+        return ZemBoolean.valueOf(RelationalOpNode.compare(left, right, node.getPosition()) < 0);
+    }
+
+    static public ZemObject lessEqual(ZemObject left, ZemObject right, Node node) {
+        return ZemBoolean.valueOf(RelationalOpNode.compare(left, right, node.getPosition()) <= 0);
+    }
+
+    static public ZemObject greaterThan(ZemObject left, ZemObject right, Node node) {
+        return ZemBoolean.valueOf(RelationalOpNode.compare(left, right, node.getPosition()) > 0);
+    }
+
+    static public ZemObject greaterEqual(ZemObject left, ZemObject right, Node node) {
+        return ZemBoolean.valueOf(RelationalOpNode.compare(left, right, node.getPosition()) >= 0);
+    }
+
+    static public ZemObject equal(ZemObject left, ZemObject right, Node node) {
+        return RelationalOpNode.equal(left, right, node.getPosition());
+    }
+
+    static public ZemObject notEqual(ZemObject left, ZemObject right, Node node) {
+        return RelationalOpNode.equal(left, right, node.getPosition()).not();
+    }
+
+    /**
+     * Test a condition.
+     *
+     * @param node The condition, used for the error position
+     */
+    static public boolean test(ZemObject value, Node node) {
+        return value.toBoolean(node.getPosition()).booleanValue();
+    }
+
+    static public Function checkFunction(ZemObject callee, FunctionCallNode node) {
+        if (!(callee instanceof Function)) {
+            throw new InvalidTypeException("Call to invalid function", node.getPosition());
+        }
+        return (Function) callee;
+    }
+
+    /**
+     * Call a function through the inline cache of the call site.
+     */
+    static public ZemObject call(Function function, ZemObject[] args, Interpreter interpreter, FunctionCallNode node) {
+        return node.call(interpreter, function, args);
+    }
+
+    /**
+     * Schedule a call in tail position, the compiled code returns straight
+     * after it.
+     */
+    static public ZemObject tailCall(Function function, ZemObject[] args, Interpreter interpreter, FunctionCallNode node) {
+        node.call(interpreter, function, args);
+        return null;
+    }
+
+    static public ZemObject checkLookup(ZemObject var, LookupNode node) {
+        LookupNode.checkType(var, node.getPosition());
+        return var;
+    }
+
+    static public ZemObject getIndex(ZemObject var, ZemObject key, LookupNode node) {
+        return LookupNode.get(var, key, node.getKey().getPosition());
+    }
+
+    /**
+     * Iterator over the elements of an array or the entries of a dictionary.
+     */
+    static public Iterator<?> iterator(ZemObject onVariable, ForeachNode node) {
+        if (onVariable instanceof ZemArray) {
+            return ((ZemArray) onVariable).iterator();
+        } else if (onVariable instanceof Dictionary) {
+            return ((Dictionary) onVariable).iterator();
+        }
+        throw new InvalidTypeException("foreach expects an array or dictionary.", node.getOnVariable().getPosition());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.register;
+
+import net.zeminvaders.lang.runtime.ZemObject;
+import net.zeminvaders.lang.runtime.ZemString;
+
+/**
+ * Produces a readable listing of three-address code. Registers holding
+ * local variables are shown by name, other registers as rN and constants
+ * as their value.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class Disassembler {
+    /**
+     * Disassemble a register block and the blocks of its nested functions.
+     *
+     * @param block Register block to disassemble
+     * @return The listing
+     */
+    public String disassemble(RegisterBlock block) {
+        StringBuilder sb = new StringBuilder();
+        disassemble(block, "", sb);
+        return sb.toString();
+    }
+
+    private void disassemble(RegisterBlock block, String indent, StringBuilder sb) {
+        int[] code = block.getCode();
+        String[] localNames = block.getVariableNames() == null
+            ? block.getParameterNames() : block.getVariableNames();
+        int count = code.length / Instruction.WIDTH;
+        for (int pc = 0; pc < count; pc++) {
+            int i = pc * Instruction.WIDTH;
+            int opcode = code[i];
+            sb.append(indent).append(pc).append(": ").append(Instruction.NAMES[opcode]);
+            String operands = Instruction.OPERANDS[opcode];
+            for (int operand = 0; operand < 3; operand++) {
+                int value = code[i + 1 + operand];
+                switch (operands.charAt(operand)) {
+                    case 'R':
+                        sb.append(' ').append(register(value, localNames));
+                        break;
+                    case 'K':
+                        if (value < 0) {
+                            sb.append(' ').append(constant(block.getConstants()[-1 - value]));
+                        } else {
+                            sb.append(' ').append(register(value, localNames));
+                        }
+                        break;
+                    case 'N':
+                        sb.append(' ').append(block.getNames()[value]);
+                        break;
+                    case 'B':
+                        sb.append(" function").append(value);
+                        break;
+                    case 'J':
+                        sb.append(" -> ").append(value);
+                        break;
+                    case 'I':
+                        sb.append(' ').append(value);
+                        break;
+                }
+            }
+            sb.append('\n');
+        }
+        RegisterBlock[] blocks = block.getBlocks();
+        for (int i = 0; i < blocks.length; i++) {
+            RegisterBlock function = blocks[i];
+            sb.append(indent).append("function").append(i).append('(');
+            String[] parameterNames = function.getParameterNames();
+            for (int param = 0; param < parameterNames.length; param++) {
+                if (param > 0) {
+                    sb.append(", ");
+                }
+                sb.append(parameterNames[param]);
+            }
+            sb.append("):\n");
+            disassemble(function, indent + "    ", sb);
+        }
+    }
+
+    private String register(int register, String[] localNames) {
+        if (register < localNames.length) {
+            return localNames[register];
+        }
+        return "r" + register;
+    }
+
+    private String constant(ZemObject value) {
+        if (value instanceof ZemString) {
+            return '"' + value.toString() + '"';
+        }
+        return value.toString();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.register;
+
+/**
+ * Instruction set of the RegisterMachine. Every instruction is four ints:
+ * an opcode followed by the operands A, B and C. Registers are numbered
+ * from zero, local variables occupy the first registers of a function
+ * frame. Operands written as RK are either a register or, when negative,
+ * the constant with index -1 - RK.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+final public class Instruction {
+    /** Width of an instruction in ints */
+    static final public int WIDTH = 4;
+
+    /** MOVE A RK(B): R(A) = RK(B) */
+    static final public int MOVE = 0;
+    /** LOAD_NULL A: R(A) = null */
+    static final public int LOAD_NULL = 1;
+    /** GET_NAME A name: R(A) = variable looked up by name */
+    static final public int GET_NAME = 2;
+    /** SET_NAME name RK(B): variable = RK(B) */
+    static final public int SET_NAME = 3;
+    /** GET_OUTER A depth slot: R(A) = variable of enclosing function */
+    static final public int GET_OUTER = 4;
+    /** ADD A RK(B) RK(C): R(A) = RK(B) + RK(C) */
+    static final public int ADD = 5;
+    /** SUBTRACT A RK(B) RK(C): R(A) = RK(B) - RK(C) */
+    static final public int SUBTRACT = 6;
+    /** MULTIPLY A RK(B) RK(C): R(A) = RK(B) * RK(C) */
+    static final public int MULTIPLY = 7;
+    /** DIVIDE A RK(B) RK(C): R(A) = RK(B) / RK(C) */
+    static final public int DIVIDE = 8;
+    /** MOD A RK(B) RK(C): R(A) = RK(B) % RK(C) */
+    static final public int MOD = 9;
+    /** POWER A RK(B) RK(C): R(A) = RK(B) ^ RK(C) */
+    static final public int POWER = 10;
+    /** NEGATE A RK(B): R(A) = -RK(B) */
+    static final public int NEGATE = 11;
+    /** NOT A RK(B): R(A) = !RK(B) */
+    static final public int NOT = 12;
+    /** CONCAT A RK(B) RK(C): R(A) = RK(B) ~ RK(C) */
+    static final public int CONCAT = 13;
+    /** LESS_THAN A RK(B) RK(C): R(A) = RK(B) &lt; RK(C) */
+    static final public int LESS_THAN = 14;
+    /** LESS_EQUAL A RK(B) RK(C): R(A) = RK(B) &lt;= RK(C) */
+    static final public int LESS_EQUAL = 15;
+    /** GREATER_THAN A RK(B) RK(C): R(A) = RK(B) &gt; RK(C) */
+    static final public int GREATER_THAN = 16;
+    /** GREATER_EQUAL A RK(B) RK(C): R(A) = RK(B) &gt;= RK(C) */
+    static final public int GREATER_EQUAL = 17;
+    /** EQUAL A RK(B) RK(C): R(A) = RK(B) == RK(C) */
+    static final public int EQUAL = 18;
+    /** NOT_EQUAL A RK(B) RK(C): R(A) = RK(B) != RK(C) */
+    static final public int NOT_EQUAL = 19;
+    /** TEST_BOOLEAN RK(B): check RK(B) is a boolean */
+    static final public int TEST_BOOLEAN = 20;
+    /** JUMP target */
+    static final public int JUMP = 21;
+    /** JUMP_IF_FALSE RK(B) target */
+    static final public int JUMP_IF_FALSE = 22;
+    /** JUMP_IF_TRUE RK(B) target */
+    static final public int JUMP_IF_TRUE = 23;
+    /** CALL A base count: R(A) = R(base)(R(base+1) .. R(base+count)) */
+    static final public int CALL = 24;
+    /** RETURN RK(B) */
+    static final public int RETURN = 25;
+    /** FUNCTION A block base: R(A) = function with defaults in R(base) .. */
+    static final public int FUNCTION = 26;
+    /** ARRAY A base count: R(A) = [R(base) .. R(base+count-1)] */
+    static final public int ARRAY = 27;
+    /** DICTIONARY A base count: R(A) = {R(base) : R(base+1), ..} */
+    static final public int DICTIONARY = 28;
+    /** CHECK_LOOKUP RK(B): check RK(B) is an array or dictionary */
+    static final public int CHECK_LOOKUP = 29;
+    /** GET_INDEX A RK(B) RK(C): R(A) = RK(B)[RK(C)] */
+    static final public int GET_INDEX = 30;
+    /** SET_INDEX RK(A) RK(B) RK(C): RK(A)[RK(B)] = RK(C) */
+    static final public int SET_INDEX = 31;
+    /** ITERATOR A RK(B) kind: R(A) = iterator over array (kind 0) or dictionary (kind 1) */
+    static final public int ITERATOR = 32;
+    /** NEXT A B target: R(B) = next element of iterator R(A), jump when done */
+    static final public int NEXT = 33;
+    /** NEXT_ENTRY A B target: R(B), R(B+1) = next key, value of R(A), jump when done */
+    static final public int NEXT_ENTRY = 34;
+    /** TAIL_CALL base count: call R(base)(R(base+1) .. R(base+count)) once the block returns */
+    static final public int TAIL_CALL = 35;
+
+    /**
+     * Names of the opcodes, indexed by opcode.
+     */
+    static final public String[] NAMES = {
+        "MOVE", "LOAD_NULL", "GET_NAME", "SET_NAME", "GET_OUTER", "ADD",
+        "SUBTRACT", "MULTIPLY", "DIVIDE", "MOD", "POWER", "NEGATE", "NOT",
+        "CONCAT", "LESS_THAN", "LESS_EQUAL", "GREATER_THAN", "GREATER_EQUAL",
+        "EQUAL", "NOT_EQUAL", "TEST_BOOLEAN", "JUMP", "JUMP_IF_FALSE",
+        "JUMP_IF_TRUE", "CALL", "RETURN", "FUNCTION", "ARRAY", "DICTIONARY",
+        "CHECK_LOOKUP", "GET_INDEX", "SET_INDEX", "ITERATOR", "NEXT",
+        "NEXT_ENTRY", "TAIL_CALL"
+    };
+
+    /**
+     * Kind of each operand, indexed by opcode. R is a register, K a
+     * register or constant, N a name, B a function block, J a jump target,
+     * I an integer and - an unused operand.
+     */
+    static final public String[] OPERANDS = {
+        "RK-", "R--", "RN-", "NK-", "RII", "RKK", "RKK", "RKK", "RKK", "RKK",
+        "RKK", "RK-", "RK-", "RKK", "RKK", "RKK", "RKK", "RKK", "RKK", "RKK",
+        "-K-", "--J", "-KJ", "-KJ", "RRI", "-K-", "RBR", "RRI", "RRI", "-K-",
+        "RKK", "KKK", "RKI", "RRJ", "RRJ", "-RI"
+    };
+
+    private Instruction() {
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.register;
+
+import net.zeminvaders.lang.ast.Node;
+import net.zeminvaders.lang.runtime.ZemObject;
+
+/**
+ * Three-address code for the program or a function body, together with the
+ * pools its instructions refer to.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class RegisterBlock {
+    private int[] code;
+    private Node[] nodes;
+    private ZemObject[] constants;
+    private String[] names;
+    private RegisterBlock[] blocks;
+    private int localCount;
+    private int registerCount;
+    private String[] parameterNames;
+    private boolean[] parameterDefaults;
+    private String[] variableNames;
+
+    /**
+     * @param code              Instructions, Instruction.WIDTH ints each
+     * @param nodes             Source node of each instruction, used for error positions
+     * @param constants         Constant pool
+     * @param names             Variable name pool
+     * @param blocks            Code of nested functions
+     * @param localCount        Number of registers holding local variables
+     * @param registerCount     Total number of registers
+     * @param parameterNames    Names of the function parameters
+     * @param parameterDefaults Which parameters have a default value
+     * @param variableNames     Names of the local variables, null for the
+     *                          top level of the program
+     */
+    public RegisterBlock(int[] code, Node[] nodes, ZemObject[] constants,
+            String[] names, RegisterBlock[] blocks, int localCount,
+            int registerCount, String[] parameterNames,
+            boolean[] parameterDefaults, String[] variableNames) {
+        this.code = code;
+        this.nodes = nodes;
+        this.constants = constants;
+        this.names = names;
+        this.blocks = blocks;
+        this.localCount = localCount;
+        this.registerCount = registerCount;
+        this.parameterNames = parameterNames;
+        this.parameterDefaults = parameterDefaults;
+        this.variableNames = variableNames;
+    }
+
+    public int[] getCode() {
+        return code;
+    }
+
+    public Node[] getNodes() {
+        return nodes;
+    }
+
+    public ZemObject[] getConstants() {
+        return constants;
+    }
+
+    public String[] getNames() {
+        return names;
+    }
+
+    public RegisterBlock[] getBlocks() {
+        return blocks;
+    }
+
+    public int getLocalCount() {
+        return localCount;
+    }
+
+    public int getRegisterCount() {
+        return registerCount;
+    }
+
+    public String[] getParameterNames() {
+        return parameterNames;
+    }
+
+    public boolean[] getParameterDefaults() {
+        return parameterDefaults;
+    }
+
+    public String[] getVariableNames() {
+        return variableNames;
+    }
+
+    @Override
+    public String toString() {
+        return new Disassembler().disassemble(this);
+    }
+}
@@ -0,0 +1,524 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.register;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.zeminvaders.lang.InvalidTypeException;
+import net.zeminvaders.lang.ast.AddOpNode;
+import net.zeminvaders.lang.ast.AndOpNode;
+import net.zeminvaders.lang.ast.ArrayNode;
+import net.zeminvaders.lang.ast.AssignNode;
+import net.zeminvaders.lang.ast.BinaryOpNode;
+import net.zeminvaders.lang.ast.BlockNode;
+import net.zeminvaders.lang.ast.ConcatOpNode;
+import net.zeminvaders.lang.ast.DictionaryEntryNode;
+import net.zeminvaders.lang.ast.DictionaryNode;
+import net.zeminvaders.lang.ast.DivideOpNode;
+import net.zeminvaders.lang.ast.EqualsOpNode;
+import net.zeminvaders.lang.ast.FalseNode;
+import net.zeminvaders.lang.ast.ForeachNode;
+import net.zeminvaders.lang.ast.FunctionCallNode;
+import net.zeminvaders.lang.ast.FunctionNode;
+import net.zeminvaders.lang.ast.GreaterEqualOpNode;
+import net.zeminvaders.lang.ast.GreaterThanOpNode;
+import net.zeminvaders.lang.ast.IfNode;
+import net.zeminvaders.lang.ast.LessEqualOpNode;
+import net.zeminvaders.lang.ast.LessThanOpNode;
+import net.zeminvaders.lang.ast.LookupNode;
+import net.zeminvaders.lang.ast.ModOpNode;
+import net.zeminvaders.lang.ast.MultiplyOpNode;
+import net.zeminvaders.lang.ast.NegateOpNode;
+import net.zeminvaders.lang.ast.Node;
+import net.zeminvaders.lang.ast.NotEqualsOpNode;
+import net.zeminvaders.lang.ast.NumberNode;
+import net.zeminvaders.lang.ast.OrOpNode;
+import net.zeminvaders.lang.ast.PowerOpNode;
+import net.zeminvaders.lang.ast.ReturnNode;
+import net.zeminvaders.lang.ast.RootNode;
+import net.zeminvaders.lang.ast.StringNode;
+import net.zeminvaders.lang.ast.SubtractOpNode;
+import net.zeminvaders.lang.ast.TrueNode;
+import net.zeminvaders.lang.ast.UnaryOpNode;
+import net.zeminvaders.lang.ast.VariableNode;
+import net.zeminvaders.lang.ast.WhileNode;
+import net.zeminvaders.lang.runtime.ZemBoolean;
+import net.zeminvaders.lang.runtime.ZemObject;
+
+/**
+ * Compiles a resolved abstract syntax tree to three-address code for the
+ * RegisterMachine.
+ *
+ * Local variables are assigned the registers matching their environment
+ * slots, so an expression such as <code>total = total + n</code> compiles
+ * to a single ADD instruction. Temporary registers are allocated after the
+ * local variables in last in, first out order.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class RegisterCompiler {
+    private int[] code = new int[64 * Instruction.WIDTH];
+    private List<Node> nodes = new ArrayList<Node>();
+    private List<ZemObject> constants = new ArrayList<ZemObject>();
+    private List<String> names = new ArrayList<String>();
+    private List<RegisterBlock> blocks = new ArrayList<RegisterBlock>();
+    private int localCount = 0;
+    private int nextRegister = 0;
+    private int registerCount = 0;
+
+    /**
+     * Compile a program.
+     *
+     * @param program Program that has been resolved by the Resolver
+     * @return Three-address code for the program
+     */
+    public RegisterBlock compile(RootNode program) {
+        int result = allocate();
+        compileStatement(program, result);
+        emit(program, Instruction.RETURN, 0, result, 0);
+        return createBlock(new String[0], new boolean[0], null);
+    }
+
+    private RegisterBlock compileFunction(FunctionNode function) {
+        List<Node> parameters = function.getParameters();
+        String[] parameterNames = new String[parameters.size()];
+        boolean[] parameterDefaults = new boolean[parameters.size()];
+        for (int i = 0; i < parameterNames.length; i++) {
+            Node param = parameters.get(i);
+            if (param instanceof AssignNode) {
+                param = ((AssignNode) param).getLeft();
+                parameterDefaults[i] = true;
+            }
+            parameterNames[i] = ((VariableNode) param).getName();
+        }
+        String[] variableNames = function.getVariableNames();
+        localCount = variableNames == null ? parameterNames.length : variableNames.length;
+        nextRegister = localCount;
+        registerCount = localCount;
+        int result = allocate();
+        compileStatement(function.getBody(), result);
+        emit(function, Instruction.RETURN, 0, result, 0);
+        return createBlock(parameterNames, parameterDefaults, variableNames);
+    }
+
+    private RegisterBlock createBlock(String[] parameterNames, boolean[] parameterDefaults, String[] variableNames) {
+        int[] instructions = new int[nodes.size() * Instruction.WIDTH];
+        System.arraycopy(code, 0, instructions, 0, instructions.length);
+        return new RegisterBlock(instructions,
+                nodes.toArray(new Node[nodes.size()]),
+                constants.toArray(new ZemObject[constants.size()]),
+                names.toArray(new String[names.size()]),
+                blocks.toArray(new RegisterBlock[blocks.size()]),
+                localCount, registerCount, parameterNames, parameterDefaults,
+                variableNames);
+    }
+
+    /**
+     * Emit an instruction.
+     *
+     * @param node   Source node of the instruction
+     * @param opcode The opcode
+     * @return Index of the instruction
+     */
+    private int emit(Node node, int opcode, int a, int b, int c) {
+        int index = nodes.size();
+        int offset = index * Instruction.WIDTH;
+        if (offset + Instruction.WIDTH > code.length) {
+            int[] newCode = new int[code.length * 2];
+            System.arraycopy(code, 0, newCode, 0, offset);
+            code = newCode;
+        }
+        code[offset] = opcode;
+        code[offset + 1] = a;
+        code[offset + 2] = b;
+        code[offset + 3] = c;
+        nodes.add(node);
+        return index;
+    }
+
+    /**
+     * Point the jump target of an instruction to the next instruction.
+     *
+     * @param index   Index of the jump instruction
+     * @param operand Operand holding the target (1 = A, 2 = B, 3 = C)
+     */
+    private void patchJump(int index, int operand) {
+        code[index * Instruction.WIDTH + operand] = nodes.size();
+    }
+
+    private int allocate() {
+        int register = nextRegister++;
+        if (nextRegister > registerCount) {
+            registerCount = nextRegister;
+        }
+        return register;
+    }
+
+    /**
+     * Free temporary registers down to (and including) the given register.
+     */
+    private void free(int register) {
+        if (register >= localCount && register < nextRegister) {
+            nextRegister = register;
+        }
+    }
+
+    private boolean isTemporary(int register) {
+        return register >= localCount;
+    }
+
+    private int constant(ZemObject value) {
+        for (int i = 0; i < constants.size(); i++) {
+            if (constants.get(i) == value) {
+                return -1 - i;
+            }
+        }
+        constants.add(value);
+        return -constants.size();
+    }
+
+    private int name(String name) {
+        int index = names.indexOf(name);
+        if (index < 0) {
+            names.add(name);
+            index = names.size() - 1;
+        }
+        return index;
+    }
+
+    /**
+     * Compile a statement.
+     *
+     * @param node   Statement to compile
+     * @param result Register to store the value of the statement in, or -1
+     *               if the value is not wanted
+     */
+    private void compileStatement(Node node, int result) {
+        if (node instanceof BlockNode) {
+            List<Node> statements = ((BlockNode) node).getStatements();
+            if (statements.isEmpty()) {
+                if (result >= 0) {
+                    emit(node, Instruction.LOAD_NULL, result, 0, 0);
+                }
+                return;
+            }
+            int last = statements.size() - 1;
+            int i = 0;
+            for (Node statement : statements) {
+                compileStatement(statement, i == last ? result : -1);
+                i++;
+            }
+        } else if (node instanceof AssignNode) {
+            compileAssign((AssignNode) node, result);
+        } else if (node instanceof IfNode) {
+            IfNode ifNode = (IfNode) node;
+            Node test = ifNode.getTestCondition();
+            int condition = compileOperand(test);
+            int elseJump = emit(test, Instruction.JUMP_IF_FALSE, 0, condition, 0);
+            free(condition);
+            compileStatement(ifNode.getThenBlock(), result);
+            int endJump = emit(node, Instruction.JUMP, 0, 0, 0);
+            patchJump(elseJump, 3);
+            if (ifNode.getElseBlock() != null) {
+                compileStatement(ifNode.getElseBlock(), result);
+            } else if (result >= 0) {
+                emit(node, Instruction.MOVE, result, constant(ZemBoolean.FALSE), 0);
+            }
+            patchJump(endJump, 3);
+        } else if (node instanceof WhileNode) {
+            WhileNode whileNode = (WhileNode) node;
+            Node test = whileNode.getTestCondition();
+            if (result >= 0) {
+                // Value of a loop that never runs its body
+                emit(node, Instruction.LOAD_NULL, result, 0, 0);
+            }
+            int loopStart = nodes.size();
+            int condition = compileOperand(test);
+            int exitJump = emit(test, Instruction.JUMP_IF_FALSE, 0, condition, 0);
+            free(condition);
+            compileStatement(whileNode.getLoopBody(), result);
+            emit(node, Instruction.JUMP, 0, 0, loopStart);
+            patchJump(exitJump, 3);
+        } else if (node instanceof ForeachNode) {
+            compileForeach((ForeachNode) node, result);
+        } else if (node instanceof ReturnNode) {
+            Node expression = ((ReturnNode) node).getExpression();
+            int value = compileOperand(expression);
+            emit(expression, Instruction.RETURN, 0, value, 0);
+            free(value);
+        } else if (result >= 0) {
+            compileInto(node, result);
+        } else {
+            int temp = allocate();
+            compileInto(node, temp);
+            free(temp);
+        }
+    }
+
+    private void compileAssign(AssignNode assign, int result) {
+        Node left = assign.getLeft();
+        Node right = assign.getRight();
+        if (left instanceof VariableNode && ((VariableNode) left).getSlot() >= 0) {
+            int slot = ((VariableNode) left).getSlot();
+            compileInto(right, slot);
+            if (result >= 0) {
+                emit(right, Instruction.MOVE, result, slot, 0);
+            }
+        } else if (left instanceof VariableNode) {
+            int value = compileOperand(right);
+            emit(right, Instruction.SET_NAME, name(((VariableNode) left).getName()), value, 0);
+            if (result >= 0) {
+                emit(right, Instruction.MOVE, result, value, 0);
+            }
+            free(value);
+        } else if (left instanceof LookupNode) {
+            LookupNode lookup = (LookupNode) left;
+            int value = compileOperand(right);
+            int collection = compileOperand(lookup.getVariable());
+            emit(lookup, Instruction.CHECK_LOOKUP, 0, collection, 0);
+            int key = compileOperand(lookup.getKey());
+            emit(lookup.getKey(), Instruction.SET_INDEX, collection, key, value);
+            if (result >= 0) {
+                emit(right, Instruction.MOVE, result, value, 0);
+            }
+            free(key);
+            free(collection);
+            free(value);
+        } else {
+            throw new InvalidTypeException("Left hand of assignment must be a variable.", left.getPosition());
+        }
+    }
+
+    private void compileForeach(ForeachNode foreach, int result) {
+        VariableNode onVariable = foreach.getOnVariable();
+        Node as = foreach.getAsNode();
+        boolean isEntry = as instanceof DictionaryEntryNode;
+        int collection = compileOperand(onVariable);
+        int iterator = allocate();
+        emit(onVariable, Instruction.ITERATOR, iterator, collection, isEntry ? 1 : 0);
+        if (result >= 0) {
+            emit(foreach, Instruction.LOAD_NULL, result, 0, 0);
+        }
+        int loopStart = nodes.size();
+        int exitJump;
+        if (isEntry) {
+            DictionaryEntryNode entry = (DictionaryEntryNode) as;
+            int pair = allocate();
+            allocate();
+            exitJump = emit(foreach, Instruction.NEXT_ENTRY, iterator, pair, 0);
+            compileStore((VariableNode) entry.getKey(), pair);
+            compileStore((VariableNode) entry.getValue(), pair + 1);
+            free(pair);
+        } else {
+            VariableNode var = (VariableNode) as;
+            if (var.getSlot() >= 0) {
+                exitJump = emit(foreach, Instruction.NEXT, iterator, var.getSlot(), 0);
+            } else {
+                int element = allocate();
+                exitJump = emit(foreach, Instruction.NEXT, iterator, element, 0);
+                compileStore(var, element);
+                free(element);
+            }
+        }
+        compileStatement(foreach.getLoopBody(), result);
+        emit(foreach, Instruction.JUMP, 0, 0, loopStart);
+        patchJump(exitJump, 3);
+        free(iterator);
+        free(collection);
+    }
+
+    private void compileStore(VariableNode var, int register) {
+        if (var.getSlot() >= 0) {
+            emit(var, Instruction.MOVE, var.getSlot(), register, 0);
+        } else {
+            emit(var, Instruction.SET_NAME, name(var.getName()), register, 0);
+        }
+    }
+
+    /**
+     * Compile an expression to an operand. Constants and local variables
+     * are used in place, anything else is evaluated into a new temporary
+     * register which the caller must free.
+     *
+     * @return RK operand holding the value
+     */
+    private int compileOperand(Node node) {
+        if (node instanceof NumberNode) {
+            return constant(((NumberNode) node).getValue());
+        } else if (node instanceof StringNode) {
+            return constant(((StringNode) node).getValue());
+        } else if (node instanceof TrueNode) {
+            return constant(ZemBoolean.TRUE);
+        } else if (node instanceof FalseNode) {
+            return constant(ZemBoolean.FALSE);
+        } else if (node instanceof VariableNode && ((VariableNode) node).getSlot() >= 0
+                && ((VariableNode) node).getDepth() == 0) {
+            return ((VariableNode) node).getSlot();
+        }
+        int temp = allocate();
+        compileInto(node, temp);
+        return temp;
+    }
+
+    /**
+     * Compile an expression storing its value in a register.
+     *
+     * @param node   Expression to compile
+     * @param target Register to store the value in
+     */
+    private void compileInto(Node node, int target) {
+        if (node instanceof NumberNode || node instanceof StringNode
+                || node instanceof TrueNode || node instanceof FalseNode) {
+            emit(node, Instruction.MOVE, target, compileOperand(node), 0);
+        } else if (node instanceof VariableNode) {
+            VariableNode var = (VariableNode) node;
+            if (var.getSlot() < 0) {
+                emit(node, Instruction.GET_NAME, target, name(var.getName()), 0);
+            } else if (var.getDepth() == 0) {
+                emit(node, Instruction.MOVE, target, var.getSlot(), 0);
+            } else {
+                emit(node, Instruction.GET_OUTER, target, var.getDepth(), var.getSlot());
+            }
+        } else if (node instanceof AndOpNode || node instanceof OrOpNode) {
+            compileLogical((BinaryOpNode) node, target);
+        } else if (node instanceof BinaryOpNode && !(node instanceof AssignNode)) {
+            BinaryOpNode op = (BinaryOpNode) node;
+            int left = compileOperand(op.getLeft());
+            int right = compileOperand(op.getRight());
+            emit(node, binaryOpcode(op), target, left, right);
+            free(right);
+            free(left);
+        } else if (node instanceof UnaryOpNode) {
+            int operand = compileOperand(((UnaryOpNode) node).getOperand());
+            emit(node, node instanceof NegateOpNode ? Instruction.NEGATE : Instruction.NOT, target, operand, 0);
+            free(operand);
+        } else if (node instanceof FunctionCallNode) {
+            compileCall((FunctionCallNode) node, target);
+        } else if (node instanceof FunctionNode) {
+            compileFunctionDeclaration((FunctionNode) node, target);
+        } else if (node instanceof LookupNode) {
+            LookupNode lookup = (LookupNode) node;
+            int collection = compileOperand(lookup.getVariable());
+            emit(lookup, Instruction.CHECK_LOOKUP, 0, collection, 0);
+            int key = compileOperand(lookup.getKey());
+            emit(lookup.getKey(), Instruction.GET_INDEX, target, collection, key);
+            free(key);
+            free(collection);
+        } else if (node instanceof ArrayNode) {
+            List<Node> elements = ((ArrayNode) node).getElements();
+            int base = nextRegister;
+            for (Node element : elements) {
+                compileInto(element, allocate());
+            }
+            emit(node, Instruction.ARRAY, target, base, elements.size());
+            free(base);
+        } else if (node instanceof DictionaryNode) {
+            List<DictionaryEntryNode> elements = ((DictionaryNode) node).getElements();
+            int base = nextRegister;
+            for (DictionaryEntryNode entry : elements) {
+                compileInto(entry.getKey(), allocate());
+                compileInto(entry.getValue(), allocate());
+            }
+            emit(node, Instruction.DICTIONARY, target, base, elements.size());
+            free(base);
+        } else {
+            // Statements used as expressions
+            compileStatement(node, target);
+        }
+    }
+
+    private void compileLogical(BinaryOpNode op, int target) {
+        // Local variables may be read by the right operand, so only
+        // write the target once the result is known
+        int register = isTemporary(target) ? target : allocate();
+        compileInto(op.getLeft(), register);
+        int jumpOp = op instanceof AndOpNode ? Instruction.JUMP_IF_FALSE : Instruction.JUMP_IF_TRUE;
+        int endJump = emit(op.getLeft(), jumpOp, 0, register, 0);
+        compileInto(op.getRight(), register);
+        emit(op.getRight(), Instruction.TEST_BOOLEAN, 0, register, 0);
+        patchJump(endJump, 3);
+        if (register != target) {
+            emit(op, Instruction.MOVE, target, register, 0);
+            free(register);
+        }
+    }
+
+    private int binaryOpcode(BinaryOpNode op) {
+        if (op instanceof AddOpNode) {
+            return Instruction.ADD;
+        } else if (op instanceof SubtractOpNode) {
+            return Instruction.SUBTRACT;
+        } else if (op instanceof MultiplyOpNode) {
+            return Instruction.MULTIPLY;
+        } else if (op instanceof DivideOpNode) {
+            return Instruction.DIVIDE;
+        } else if (op instanceof ModOpNode) {
+            return Instruction.MOD;
+        } else if (op instanceof PowerOpNode) {
+            return Instruction.POWER;
+        } else if (op instanceof ConcatOpNode) {
+            return Instruction.CONCAT;
+        } else if (op instanceof LessThanOpNode) {
+            return Instruction.LESS_THAN;
+        } else if (op instanceof LessEqualOpNode) {
+            return Instruction.LESS_EQUAL;
+        } else if (op instanceof GreaterThanOpNode) {
+            return Instruction.GREATER_THAN;
+        } else if (op instanceof GreaterEqualOpNode) {
+            return Instruction.GREATER_EQUAL;
+        } else if (op instanceof EqualsOpNode) {
+            return Instruction.EQUAL;
+        } else if (op instanceof NotEqualsOpNode) {
+            return Instruction.NOT_EQUAL;
+        }
+        throw new IllegalArgumentException("Unable to compile " + op);
+    }
+
+    private void compileCall(FunctionCallNode call, int target) {
+        List<Node> arguments = call.getArguments();
+        int base = allocate();
+        compileInto(call.getFunctionNode(), base);
+        for (Node arg : arguments) {
+            compileInto(arg, allocate());
+        }
+        if (call.isTailCall()) {
+            emit(call, Instruction.TAIL_CALL, 0, base, arguments.size());
+        } else {
+            emit(call, Instruction.CALL, target, base, arguments.size());
+        }
+        free(base);
+    }
+
+    private void compileFunctionDeclaration(FunctionNode function, int target) {
+        int base = nextRegister;
+        for (Node param : function.getParameters()) {
+            if (param instanceof AssignNode) {
+                // Default values are evaluated when the function is declared
+                compileInto(((AssignNode) param).getRight(), allocate());
+            }
+        }
+        blocks.add(new RegisterCompiler().compileFunction(function));
+        emit(function, Instruction.FUNCTION, target, blocks.size() - 1, base);
+        free(base);
+    }
+}
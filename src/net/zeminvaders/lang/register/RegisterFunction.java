@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.register;
+
+import java.util.List;
+
+import net.zeminvaders.lang.Interpreter;
+import net.zeminvaders.lang.SourcePosition;
+import net.zeminvaders.lang.runtime.Environment;
+import net.zeminvaders.lang.runtime.Function;
+import net.zeminvaders.lang.runtime.Parameter;
+import net.zeminvaders.lang.runtime.ZemObject;
+
+/**
+ * A user declared function compiled to three-address code. The environment
+ * of each call is sized to hold all the registers of the function.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class RegisterFunction extends Function {
+    private List<Parameter> parameters;
+    private RegisterBlock block;
+    private Environment environment;
+
+    public RegisterFunction(List<Parameter> parameters, RegisterBlock block, Environment environment) {
+        this.parameters = parameters;
+        this.block = block;
+        this.environment = environment;
+    }
+
+    public RegisterBlock getBlock() {
+        return block;
+    }
+
+    @Override
+    public String[] getVariableNames() {
+        if (block.getVariableNames() == null) {
+            return super.getVariableNames();
+        }
+        return block.getVariableNames();
+    }
+
+    @Override
+    public int getFrameSize() {
+        return block.getRegisterCount();
+    }
+
+    @Override
+    public Environment getEnvironment() {
+        return environment;
+    }
+
+    @Override
+    public int getParameterCount() {
+        return parameters.size();
+    }
+
+    @Override
+    public String getParameterName(int index) {
+        return parameters.get(index).getName();
+    }
+
+    @Override
+    public ZemObject getDefaultValue(int index) {
+        return parameters.get(index).getDefaultValue();
+    }
+
+    @Override
+    public ZemObject eval(Interpreter interpreter, SourcePosition pos) {
+        return new RegisterMachine(interpreter).execute(block);
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.register;
+
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.zeminvaders.lang.Interpreter;
+import net.zeminvaders.lang.InvalidTypeException;
+import net.zeminvaders.lang.SourcePosition;
+import net.zeminvaders.lang.ast.BinaryOpNode;
+import net.zeminvaders.lang.ast.FunctionCallNode;
+import net.zeminvaders.lang.ast.LookupNode;
+import net.zeminvaders.lang.ast.Node;
+import net.zeminvaders.lang.ast.RelationalOpNode;
+import net.zeminvaders.lang.ast.UnaryOpNode;
+import net.zeminvaders.lang.ast.VariableNode;
+import net.zeminvaders.lang.runtime.Dictionary;
+import net.zeminvaders.lang.runtime.Environment;
+import net.zeminvaders.lang.runtime.Function;
+import net.zeminvaders.lang.runtime.Parameter;
+import net.zeminvaders.lang.runtime.ZemArray;
+import net.zeminvaders.lang.runtime.ZemBoolean;
+import net.zeminvaders.lang.runtime.ZemNumber;
+import net.zeminvaders.lang.runtime.ZemObject;
+
+/**
+ * Register based virtual machine that executes the three-address code
+ * generated by the RegisterCompiler. The registers of a function call are
+ * the slots of the environment the interpreter sets up for the call.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class RegisterMachine {
+    private Interpreter interpreter;
+    private ZemObject[] registers;
+    private ZemObject[] constants;
+    private String[] localNames;
+
+    public RegisterMachine(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * Holds the state of a foreach loop in a register.
+     */
+    static private class IteratorHolder extends ZemObject {
+        private Iterator<?> iterator;
+
+        public IteratorHolder(Iterator<?> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public int compareTo(ZemObject o) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Execute a register block in the current environment of the interpreter.
+     *
+     * @param block The register block to execute
+     * @return The value returned by the register block
+     */
+    @SuppressWarnings("unchecked")
+    public ZemObject execute(RegisterBlock block) {
+        final int[] code = block.getCode();
+        final Node[] nodes = block.getNodes();
+        final String[] names = block.getNames();
+        final Environment env = interpreter.getEnvironment();
+        constants = block.getConstants();
+        localNames = block.getVariableNames() == null ? block.getParameterNames() : block.getVariableNames();
+        if (env.getSlots().length < block.getRegisterCount()) {
+            // The program runs in the global environment which has no slots
+            registers = new ZemObject[block.getRegisterCount()];
+        } else {
+            registers = env.getSlots();
+        }
+        int pc = 0;
+        while (true) {
+            final int i = pc * Instruction.WIDTH;
+            final int a = code[i + 1];
+            final int b = code[i + 2];
+            final int c = code[i + 3];
+            pc++;
+            switch (code[i]) {
+                case Instruction.MOVE: {
+                    registers[a] = operand(b, nodes[pc - 1]);
+                    break;
+                }
+                case Instruction.LOAD_NULL: {
+                    registers[a] = null;
+                    break;
+                }
+                case Instruction.GET_NAME: {
+                    registers[a] = interpreter.getVariable(names[b], nodes[pc - 1].getPosition());
+                    break;
+                }
+                case Instruction.SET_NAME: {
+                    interpreter.setVariable(names[a], operand(b, nodes[pc - 1]));
+                    break;
+                }
+                case Instruction.GET_OUTER: {
+                    ZemObject value = env.get(b, c);
+                    if (value == null) {
+                        value = interpreter.getVariable(((VariableNode) nodes[pc - 1]).getName(), nodes[pc - 1].getPosition());
+                    }
+                    registers[a] = value;
+                    break;
+                }
+                case Instruction.ADD:
+                case Instruction.SUBTRACT:
+                case Instruction.MULTIPLY:
+                case Instruction.DIVIDE:
+                case Instruction.MOD:
+                case Instruction.POWER: {
+                    BinaryOpNode node = (BinaryOpNode) nodes[pc - 1];
+                    ZemNumber left = operand(b, node.getLeft())
+                        .toNumber(node.getLeft().getPosition());
+                    ZemNumber right = operand(c, node.getRight())
+                        .toNumber(node.getRight().getPosition());
+                    registers[a] = arithmetic(code[i], left, right);
+                    break;
+                }
+                case Instruction.NEGATE: {
+                    Node operand = ((UnaryOpNode) nodes[pc - 1]).getOperand();
+                    registers[a] = operand(b, operand)
+                        .toNumber(operand.getPosition()).negate();
+                    break;
+                }
+                case Instruction.NOT: {
+                    Node operand = ((UnaryOpNode) nodes[pc - 1]).getOperand();
+                    registers[a] = operand(b, operand)
+                        .toBoolean(operand.getPosition()).not();
+                    break;
+                }
+                case Instruction.CONCAT: {
+                    BinaryOpNode node = (BinaryOpNode) nodes[pc - 1];
+                    ZemObject left = operand(b, node.getLeft());
+                    ZemObject right = operand(c, node.getRight());
+                    registers[a] = left.toZString().concat(right.toZString());
+                    break;
+                }
+                case Instruction.LESS_THAN:
+                case Instruction.LESS_EQUAL:
+                case Instruction.GREATER_THAN:
+                case Instruction.GREATER_EQUAL:
+                case Instruction.EQUAL:
+                case Instruction.NOT_EQUAL: {
+                    BinaryOpNode node = (BinaryOpNode) nodes[pc - 1];
+                    ZemObject left = operand(b, node.getLeft());
+                    ZemObject right = operand(c, node.getRight());
+                    registers[a] = relational(code[i], left, right, node.getPosition());
+                    break;
+                }
+                case Instruction.TEST_BOOLEAN: {
+                    Node node = nodes[pc - 1];
+                    operand(b, node).toBoolean(node.getPosition());
+                    break;
+                }
+                case Instruction.JUMP: {
+                    pc = c;
+                    break;
+                }
+                case Instruction.JUMP_IF_FALSE: {
+                    Node node = nodes[pc - 1];
+                    if (!operand(b, node).toBoolean(node.getPosition()).booleanValue()) {
+                        pc = c;
+                    }
+                    break;
+                }
+                case Instruction.JUMP_IF_TRUE: {
+                    Node node = nodes[pc - 1];
+                    if (operand(b, node).toBoolean(node.getPosition()).booleanValue()) {
+                        pc = c;
+                    }
+                    break;
+                }
+                case Instruction.CALL:
+                case Instruction.TAIL_CALL: {
+                    FunctionCallNode node = (FunctionCallNode) nodes[pc - 1];
+                    ZemObject callee = registers[b];
+                    if (!(callee instanceof Function)) {
+                        throw new InvalidTypeException("Call to invalid function", node.getPosition());
+                    }
+                    List<ZemObject> args = new ArrayList<ZemObject>(c);
+                    for (int arg = b + 1; arg <= b + c; arg++) {
+                        args.add(registers[arg]);
+                    }
+                    if (code[i] == Instruction.TAIL_CALL) {
+                        interpreter.tailCall((Function) callee, interpreter.bindArguments((Function) callee,
+                                args, node.getPosition(), node.getFunctionName()), node.getPosition());
+                        return null;
+                    }
+                    registers[a] = interpreter.callFunction((Function) callee, args, node.getPosition(),
+                            node.getFunctionName());
+                    break;
+                }
+                case Instruction.RETURN: {
+                    return operand(b, nodes[pc - 1]);
+                }
+                case Instruction.FUNCTION: {
+                    RegisterBlock functionBlock = block.getBlocks()[b];
+                    String[] parameterNames = functionBlock.getParameterNames();
+                    boolean[] parameterDefaults = functionBlock.getParameterDefaults();
+                    List<Parameter> params = new ArrayList<Parameter>(parameterNames.length);
+                    int defaultIndex = c;
+                    for (int param = 0; param < parameterNames.length; param++) {
+                        ZemObject defaultValue = null;
+                        if (parameterDefaults[param]) {
+                            defaultValue = registers[defaultIndex++];
+                        }
+                        params.add(new Parameter(parameterNames[param], defaultValue));
+                    }
+                    registers[a] = new RegisterFunction(params, functionBlock, env);
+                    break;
+                }
+                case Instruction.ARRAY: {
+                    List<ZemObject> elements = new ArrayList<ZemObject>(c);
+                    for (int element = b; element < b + c; element++) {
+                        elements.add(registers[element]);
+                    }
+                    registers[a] = new ZemArray(elements);
+                    break;
+                }
+                case Instruction.DICTIONARY: {
+                    Map<ZemObject, ZemObject> entries = new LinkedHashMap<ZemObject, ZemObject>(c);
+                    for (int entry = b; entry < b + 2 * c; entry += 2) {
+                        entries.put(registers[entry], registers[entry + 1]);
+                    }
+                    registers[a] = new Dictionary(entries);
+                    break;
+                }
+                case Instruction.CHECK_LOOKUP: {
+                    Node node = nodes[pc - 1];
+                    LookupNode.checkType(operand(b, node), node.getPosition());
+                    break;
+                }
+                case Instruction.GET_INDEX: {
+                    Node node = nodes[pc - 1];
+                    registers[a] = LookupNode.get(operand(b, node), operand(c, node),
+                            node.getPosition());
+                    break;
+                }
+                case Instruction.SET_INDEX: {
+                    Node node = nodes[pc - 1];
+                    LookupNode.set(operand(a, node), operand(b, node),
+                            node.getPosition(), operand(c, node));
+                    break;
+                }
+                case Instruction.ITERATOR: {
+                    Node node = nodes[pc - 1];
+                    ZemObject collection = operand(b, node);
+                    if (c == 0 && collection instanceof ZemArray) {
+                        registers[a] = new IteratorHolder(((ZemArray) collection).iterator());
+                    } else if (c == 1 && collection instanceof Dictionary) {
+                        registers[a] = new IteratorHolder(((Dictionary) collection).iterator());
+                    } else {
+                        throw new InvalidTypeException("foreach expects an array or dictionary.",
+                                node.getPosition());
+                    }
+                    break;
+                }
+                case Instruction.NEXT: {
+                    Iterator<?> iterator = ((IteratorHolder) registers[a]).iterator;
+                    if (iterator.hasNext()) {
+                        registers[b] = (ZemObject) iterator.next();
+                    } else {
+                        pc = c;
+                    }
+                    break;
+                }
+                case Instruction.NEXT_ENTRY: {
+                    Iterator<?> iterator = ((IteratorHolder) registers[a]).iterator;
+                    if (iterator.hasNext()) {
+                        Map.Entry<ZemObject, ZemObject> entry = (Map.Entry<ZemObject, ZemObject>) iterator.next();
+                        registers[b] = entry.getKey();
+                        registers[b + 1] = entry.getValue();
+                    } else {
+                        pc = c;
+                    }
+                    break;
+                }
+                default: {
+                    throw new IllegalStateException("Invalid opcode " + code[i] + " at " + (pc - 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a RK operand. Local variables that have not been assigned yet
+     * are looked up in the enclosing scopes.
+     */
+    private ZemObject operand(int rk, Node node) {
+        if (rk < 0) {
+            return constants[-1 - rk];
+        }
+        ZemObject value = registers[rk];
+        if (value == null && rk < localNames.length) {
+            value = interpreter.getVariable(localNames[rk], node.getPosition());
+        }
+        return value;
+    }
+
+    private ZemNumber arithmetic(int opcode, ZemNumber left, ZemNumber right) {
+        MathContext mc = interpreter.getMathContext();
+        switch (opcode) {
+            case Instruction.ADD:
+                return left.add(right, mc);
+            case Instruction.SUBTRACT:
+                return left.subtract(right, mc);
+            case Instruction.MULTIPLY:
+                return left.multiply(right, mc);
+            case Instruction.DIVIDE:
+                return left.divide(right, mc);
+            case Instruction.MOD:
+                return left.remainder(right, mc);
+            default:
+                return left.power(right, mc);
+        }
+    }
+
+    private ZemBoolean relational(int opcode, ZemObject left, ZemObject right, SourcePosition pos) {
+        switch (opcode) {
+            case Instruction.LESS_THAN:
+                return ZemBoolean.valueOf(RelationalOpNode.compare(left, right, pos) < 0);
+            case Instruction.LESS_EQUAL:
+                return ZemBoolean.valueOf(RelationalOpNode.compare(left, right, pos) <= 0);
+            case Instruction.GREATER_THAN:
+                return ZemBoolean.valueOf(RelationalOpNode.compare(left, right, pos) > 0);
+            case Instruction.GREATER_EQUAL:
+                return ZemBoolean.valueOf(RelationalOpNode.compare(left, right, pos) >= 0);
+            case Instruction.EQUAL:
+                return RelationalOpNode.equal(left, right, pos);
+            default:
+                return RelationalOpNode.equal(left, right, pos).not();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.runtime;
+
+/**
+ * Precomputed plan for binding the arguments of a call with a fixed
+ * number of arguments to the parameters of a function. Parameters not
+ * covered by an argument take their default value.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class ArgumentBinding {
+    private Function function;
+    private int argumentCount;
+    private int parameterCount;
+    private int requiredCount;
+    private boolean missingArguments;
+    private ZemObject[] defaults;
+    private String[] variableNames;
+    private int frameSize;
+
+    /**
+     * @param function      The function being called
+     * @param argumentCount Number of arguments passed by the call
+     */
+    public ArgumentBinding(Function function, int argumentCount) {
+        this.function = function;
+        this.argumentCount = argumentCount;
+        this.parameterCount = function.getParameterCount();
+        this.variableNames = function.getVariableNames();
+        this.frameSize = function.getFrameSize();
+        defaults = new ZemObject[parameterCount];
+        for (int i = 0; i < parameterCount; i++) {
+            ZemObject value = function.getDefaultValue(i);
+            if (value == null) {
+                requiredCount++;
+            }
+            if (i >= argumentCount) {
+                if (value == null) {
+                    missingArguments = true;
+                }
+                defaults[i] = value;
+            }
+        }
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    public int getArgumentCount() {
+        return argumentCount;
+    }
+
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    /**
+     * Get the number of parameters without a default value.
+     */
+    public int getRequiredCount() {
+        return requiredCount;
+    }
+
+    /**
+     * Check if the call leaves a parameter without a value.
+     */
+    public boolean hasMissingArguments() {
+        return missingArguments;
+    }
+
+    /**
+     * Create the environment for a call, with the parameters that are not
+     * passed set to their default values. The caller stores the arguments
+     * in the first slots.
+     *
+     * @param globals The global environment
+     */
+    public Environment createEnvironment(Environment globals) {
+        Environment parent = function.getEnvironment();
+        Environment callEnvironment = new Environment(parent == null ? globals : parent,
+                variableNames, frameSize);
+        if (argumentCount < parameterCount) {
+            System.arraycopy(defaults, argumentCount, callEnvironment.getSlots(),
+                    argumentCount, parameterCount - argumentCount);
+        }
+        return callEnvironment;
+    }
+
+    /**
+     * Prepare the environment of a finished call of the function for
+     * another call, with the parameters that are not passed set to their
+     * default values. The caller stores the arguments in the first slots.
+     *
+     * @param callEnvironment Environment of a call of the function
+     */
+    public void resetEnvironment(Environment callEnvironment) {
+        callEnvironment.clear();
+        if (argumentCount < parameterCount) {
+            System.arraycopy(defaults, argumentCount, callEnvironment.getSlots(),
+                    argumentCount, parameterCount - argumentCount);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.runtime;
+
+import net.zeminvaders.lang.Interpreter;
+import net.zeminvaders.lang.SourcePosition;
+
+/**
+ * array_add built-in function. Return an array of the sums of the
+ * elements of two arrays.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class ArrayAddFunction extends Function {
+    private String[] parameters = {"a", "b"};
+
+    @Override
+    public ZemObject eval(Interpreter interpreter, SourcePosition pos) {
+        ZemArray a = interpreter.getVariable("a", pos).toArray(pos);
+        ZemArray b = interpreter.getVariable("b", pos).toArray(pos);
+        return ArrayMath.add(a, b, interpreter.getMathContext(), pos);
+    }
+
+    @Override
+    public ZemObject getDefaultValue(int index) {
+        return null;
+    }
+
+    @Override
+    public int getParameterCount() {
+        return 2;
+    }
+
+    @Override
+    public String getParameterName(int index) {
+        return parameters[index];
+    }
+
+}
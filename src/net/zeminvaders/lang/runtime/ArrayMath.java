@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.runtime;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.zeminvaders.lang.SourcePosition;
+import net.zeminvaders.lang.ZemException;
+
+/**
+ * Aggregate and element-wise math on arrays of numbers.
+ *
+ * Arrays stored in a long[] or double[] are processed by simple counted
+ * loops over the storage. The element-wise kernels of add, multiply and
+ * scale may be vectorized by the JIT compiler; the reductions of sum, dot
+ * and extreme carry a value from one element to the next and run as
+ * scalar loops, as a double sum must keep its order. Integer kernels
+ * track overflow with a flag instead of branching, and fall back to exact
+ * arithmetic on ZemNumbers when it is set. Other arrays use the ZemNumber
+ * arithmetic directly. Ranges are summed and searched without storing
+ * their elements, and the other functions compute the elements into an
+ * array once.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+final class ArrayMath {
+    private ArrayMath() {
+    }
+
+    static private void checkSameSize(ZemArray a, ZemArray b, String name, SourcePosition pos) {
+        if (a.size() != b.size()) {
+            throw new ZemException(name + " expects arrays of the same length", pos);
+        }
+    }
+
+    /**
+     * Sum a range as size * start + step * size * (size - 1) / 2.
+     */
+    static private ZemNumber rangeSum(long start, long step, int size) {
+        long triangle = (long) size * (size - 1) / 2;
+        try {
+            return ZemNumber.valueOf(Math.addExact(Math.multiplyExact(start, (long) size),
+                    Math.multiplyExact(step, triangle)));
+        } catch (ArithmeticException e) {
+            BigDecimal sum = BigDecimal.valueOf(start).multiply(BigDecimal.valueOf(size));
+            return ZemNumber.valueOf(sum.add(BigDecimal.valueOf(step).multiply(BigDecimal.valueOf(triangle))));
+        }
+    }
+
+    static ZemNumber sum(ZemArray array, MathContext mc, SourcePosition pos) {
+        int size = array.size();
+        if (array.isDoubleRange()) {
+            // Added in order, as the sum of the stored doubles would be
+            long start = array.getRangeStart();
+            long step = array.getRangeStep();
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += start + i * step;
+            }
+            return ZemNumber.valueOf(sum);
+        } else if (array.isRange()) {
+            return rangeSum(array.getRangeStart(), array.getRangeStep(), size);
+        }
+        long[] longs = array.getLongs();
+        if (longs != null) {
+            long sum = 0;
+            long overflow = 0;
+            for (int i = 0; i < size; i++) {
+                long x = longs[i];
+                long result = sum + x;
+                overflow |= (sum ^ result) & (x ^ result);
+                sum = result;
+            }
+            if (overflow >= 0) {
+                return ZemNumber.valueOf(sum);
+            }
+        }
+        double[] doubles = array.getDoubles();
+        if (doubles != null) {
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += doubles[i];
+            }
+            return ZemNumber.valueOf(sum);
+        }
+        ZemNumber sum = ZemNumber.valueOf(0);
+        for (int i = 0; i < size; i++) {
+            sum = sum.add(array.get(i).toNumber(pos), mc);
+        }
+        return sum;
+    }
+
+    static ZemNumber dot(ZemArray a, ZemArray b, MathContext mc, SourcePosition pos) {
+        checkSameSize(a, b, "array_dot", pos);
+        int size = a.size();
+        long[] x = a.getLongs();
+        long[] y = b.getLongs();
+        if (x != null && y != null) {
+            long sum = 0;
+            long overflow = 0;
+            for (int i = 0; i < size; i++) {
+                long product = x[i] * y[i];
+                overflow |= Math.multiplyHigh(x[i], y[i]) ^ (product >> 63);
+                long result = sum + product;
+                overflow |= ((sum ^ result) & (product ^ result)) >>> 63;
+                sum = result;
+            }
+            if (overflow == 0) {
+                return ZemNumber.valueOf(sum);
+            }
+        }
+        double[] u = a.getDoubles();
+        double[] v = b.getDoubles();
+        if (u != null && v != null) {
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += u[i] * v[i];
+            }
+            return ZemNumber.valueOf(sum);
+        }
+        ZemNumber sum = ZemNumber.valueOf(0);
+        for (int i = 0; i < size; i++) {
+            ZemNumber product = a.get(i).toNumber(pos).multiply(b.get(i).toNumber(pos), mc);
+            sum = sum.add(product, mc);
+        }
+        return sum;
+    }
+
+    static ZemArray add(ZemArray a, ZemArray b, MathContext mc, SourcePosition pos) {
+        checkSameSize(a, b, "array_add", pos);
+        int size = a.size();
+        long[] x = a.getLongs();
+        long[] y = b.getLongs();
+        if (x != null && y != null) {
+            long[] result = new long[size];
+            long overflow = 0;
+            for (int i = 0; i < size; i++) {
+                long sum = x[i] + y[i];
+                overflow |= (x[i] ^ sum) & (y[i] ^ sum);
+                result[i] = sum;
+            }
+            if (overflow >= 0) {
+                return new ZemArray(result, size);
+            }
+        }
+        double[] u = a.getDoubles();
+        double[] v = b.getDoubles();
+        if (u != null && v != null) {
+            double[] result = new double[size];
+            for (int i = 0; i < size; i++) {
+                result[i] = u[i] + v[i];
+            }
+            return new ZemArray(result, size);
+        }
+        List<ZemObject> elements = new ArrayList<ZemObject>(size);
+        for (int i = 0; i < size; i++) {
+            elements.add(a.get(i).toNumber(pos).add(b.get(i).toNumber(pos), mc));
+        }
+        return new ZemArray(elements);
+    }
+
+    static ZemArray multiply(ZemArray a, ZemArray b, MathContext mc, SourcePosition pos) {
+        checkSameSize(a, b, "array_multiply", pos);
+        int size = a.size();
+        long[] x = a.getLongs();
+        long[] y = b.getLongs();
+        if (x != null && y != null) {
+            long[] result = new long[size];
+            long overflow = 0;
+            for (int i = 0; i < size; i++) {
+                long product = x[i] * y[i];
+                overflow |= Math.multiplyHigh(x[i], y[i]) ^ (product >> 63);
+                result[i] = product;
+            }
+            if (overflow == 0) {
+                return new ZemArray(result, size);
+            }
+        }
+        double[] u = a.getDoubles();
+        double[] v = b.getDoubles();
+        if (u != null && v != null) {
+            double[] result = new double[size];
+            for (int i = 0; i < size; i++) {
+                result[i] = u[i] * v[i];
+            }
+            return new ZemArray(result, size);
+        }
+        List<ZemObject> elements = new ArrayList<ZemObject>(size);
+        for (int i = 0; i < size; i++) {
+            elements.add(a.get(i).toNumber(pos).multiply(b.get(i).toNumber(pos), mc));
+        }
+        return new ZemArray(elements);
+    }
+
+    static ZemArray scale(ZemArray array, ZemNumber factor, MathContext mc, SourcePosition pos) {
+        int size = array.size();
+        long[] x = array.getLongs();
+        if (x != null && factor.isLongForm()) {
+            long y = factor.longValue();
+            long[] result = new long[size];
+            long overflow = 0;
+            for (int i = 0; i < size; i++) {
+                long product = x[i] * y;
+                overflow |= Math.multiplyHigh(x[i], y) ^ (product >> 63);
+                result[i] = product;
+            }
+            if (overflow == 0) {
+                return new ZemArray(result, size);
+            }
+        }
+        double[] u = array.getDoubles();
+        if (u != null && factor.isDoubleForm()) {
+            double y = factor.doubleValue();
+            double[] result = new double[size];
+            for (int i = 0; i < size; i++) {
+                result[i] = u[i] * y;
+            }
+            return new ZemArray(result, size);
+        }
+        List<ZemObject> elements = new ArrayList<ZemObject>(size);
+        for (int i = 0; i < size; i++) {
+            elements.add(array.get(i).toNumber(pos).multiply(factor, mc));
+        }
+        return new ZemArray(elements);
+    }
+
+    /**
+     * Find the smallest or largest element.
+     *
+     * @param array Array of numbers
+     * @param max   Find the largest element instead of the smallest
+     * @param name  Name of the built-in function, for errors
+     * @param pos   Source position of the call
+     */
+    static ZemNumber extreme(ZemArray array, boolean max, String name, SourcePosition pos) {
+        int size = array.size();
+        if (size == 0) {
+            throw new ZemException(name + " expects a non-empty array", pos);
+        }
+        if (array.isRange()) {
+            // The first or last element, depending on the direction
+            long first = array.getRangeStart();
+            long last = first + (size - 1) * array.getRangeStep();
+            long result = (array.getRangeStep() >= 0) == max ? last : first;
+            return array.isDoubleRange() ? ZemNumber.valueOf((double) result) : ZemNumber.valueOf(result);
+        }
+        long[] longs = array.getLongs();
+        if (longs != null) {
+            long result = longs[0];
+            if (max) {
+                for (int i = 1; i < size; i++) {
+                    result = Math.max(result, longs[i]);
+                }
+            } else {
+                for (int i = 1; i < size; i++) {
+                    result = Math.min(result, longs[i]);
+                }
+            }
+            return ZemNumber.valueOf(result);
+        }
+        double[] doubles = array.getDoubles();
+        if (doubles != null) {
+            double result = doubles[0];
+            for (int i = 1; i < size; i++) {
+                double x = doubles[i];
+                if (max ? x > result : x < result) {
+                    result = x;
+                }
+            }
+            return ZemNumber.valueOf(result);
+        }
+        ZemNumber result = array.get(0).toNumber(pos);
+        for (int i = 1; i < size; i++) {
+            ZemNumber element = array.get(i).toNumber(pos);
+            int cmp = element.compareTo(result);
+            if (max ? cmp > 0 : cmp < 0) {
+                result = element;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.runtime;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Powers, exponentials and logarithms of BigDecimals rounded to a
+ * MathContext. Intermediate results are computed with extra digits so
+ * the rounded result is correct to the precision.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+final public class DecimalMath {
+    /**
+     * Extra digits carried by intermediate results.
+     */
+    static final private int GUARD_DIGITS = 10;
+
+    /**
+     * Limit on the iterations of series and Newton's method, which
+     * converge long before this.
+     */
+    static final private int MAX_ITERATIONS = 1000;
+
+    static final private BigDecimal TWO = BigDecimal.valueOf(2);
+
+    /**
+     * Arguments of exp are halved until they are below this, so the
+     * Taylor series converges in a few terms.
+     */
+    static final private BigDecimal SERIES_LIMIT = new BigDecimal("0.0009765625");
+
+    /**
+     * Most precise ln(10) computed so far, reused for the same or lower
+     * precision.
+     */
+    static private volatile BigDecimal ln10 = null;
+
+    private DecimalMath() {
+    }
+
+    /**
+     * Raise x to the power of y.
+     *
+     * Integer exponents use BigDecimal.pow, which squares repeatedly.
+     * Other exponents are computed as exp(y * ln(x)), so they need a
+     * precision. With a precision of zero only integer exponents are
+     * supported, and negative ones only when the result is exact.
+     *
+     * @param x  Base
+     * @param y  Exponent
+     * @param mc Precision and rounding of the result
+     * @return x ^ y
+     */
+    static public BigDecimal pow(BigDecimal x, BigDecimal y, MathContext mc) {
+        if (isInt(y)) {
+            int n = y.intValueExact();
+            if (mc.getPrecision() == 0) {
+                if (n < 0) {
+                    return BigDecimal.ONE.divide(x.pow(-n));
+                }
+                return x.pow(n);
+            }
+            return x.pow(n, mc);
+        }
+        if (mc.getPrecision() == 0) {
+            throw new ArithmeticException("Non-terminating decimal expansion; no exact representable decimal result.");
+        }
+        if (x.signum() == 0) {
+            if (y.signum() < 0) {
+                throw new ArithmeticException("Division by zero");
+            }
+            return BigDecimal.ZERO;
+        }
+        if (x.signum() < 0) {
+            if (y.stripTrailingZeros().scale() > 0) {
+                throw new ArithmeticException("Fractional power of a negative number");
+            }
+            // Integer exponent beyond the range of an int
+            BigDecimal result = pow(x.negate(), y, mc);
+            return y.toBigInteger().testBit(0) ? result.negate() : result;
+        }
+        // Error in ln(x) is multiplied by y, so carry the digits of y as well
+        MathContext work = new MathContext(mc.getPrecision() + GUARD_DIGITS + integerDigits(y),
+                RoundingMode.HALF_EVEN);
+        BigDecimal result = exp(y.multiply(ln(x, work), work), work);
+        // The result is inexact so trailing zeros carry no meaning
+        return result.round(mc).stripTrailingZeros();
+    }
+
+    /**
+     * Check if a number is an integer in the range of an int.
+     */
+    static private boolean isInt(BigDecimal value) {
+        if (value.signum() == 0) {
+            return true;
+        }
+        if (value.scale() > 0) {
+            value = value.stripTrailingZeros();
+            if (value.scale() > 0) {
+                return false;
+            }
+        }
+        return value.precision() - value.scale() <= 10
+            && value.compareTo(BigDecimal.valueOf(Integer.MAX_VALUE)) <= 0
+            && value.compareTo(BigDecimal.valueOf(Integer.MIN_VALUE)) >= 0;
+    }
+
+    /**
+     * Number of digits before the decimal point.
+     */
+    static private int integerDigits(BigDecimal value) {
+        return Math.max(0, value.precision() - value.scale());
+    }
+
+    /**
+     * Compute e raised to the power of x.
+     *
+     * @param x  Exponent
+     * @param mc Precision and rounding of the result
+     * @return e ^ x
+     */
+    static public BigDecimal exp(BigDecimal x, MathContext mc) {
+        if (x.signum() == 0) {
+            return BigDecimal.ONE;
+        }
+        if (x.signum() < 0) {
+            MathContext work = new MathContext(mc.getPrecision() + GUARD_DIGITS, RoundingMode.HALF_EVEN);
+            return BigDecimal.ONE.divide(exp(x.negate(), work), mc);
+        }
+        // Halve the argument, then square the result as many times. Each
+        // squaring doubles the relative error, so carry a digit per 3 halvings.
+        int halvings = 0;
+        BigDecimal reduced = x;
+        while (reduced.compareTo(SERIES_LIMIT) > 0) {
+            reduced = reduced.divide(TWO);
+            halvings++;
+        }
+        MathContext work = new MathContext(mc.getPrecision() + GUARD_DIGITS + halvings / 3,
+                RoundingMode.HALF_EVEN);
+        // Taylor series 1 + x + x^2/2! + x^3/3! + ...
+        BigDecimal epsilon = BigDecimal.ONE.movePointLeft(work.getPrecision() + 1);
+        BigDecimal sum = BigDecimal.ONE;
+        BigDecimal term = BigDecimal.ONE;
+        for (int k = 1; k < MAX_ITERATIONS; k++) {
+            term = term.multiply(reduced, work).divide(BigDecimal.valueOf(k), work);
+            sum = sum.add(term, work);
+            if (term.compareTo(epsilon) < 0) {
+                break;
+            }
+        }
+        for (int i = 0; i < halvings; i++) {
+            sum = sum.multiply(sum, work);
+        }
+        return sum.round(mc);
+    }
+
+    /**
+     * Compute the natural logarithm of x.
+     *
+     * @param x  Positive number
+     * @param mc Precision and rounding of the result
+     * @return ln(x)
+     */
+    static public BigDecimal ln(BigDecimal x, MathContext mc) {
+        if (x.signum() <= 0) {
+            throw new ArithmeticException("Logarithm of a number that is not positive");
+        }
+        // x = m * 10^e with 1 <= m < 10, so ln(x) = ln(m) + e * ln(10)
+        int e = x.precision() - x.scale() - 1;
+        BigDecimal m = x.movePointLeft(e);
+        MathContext work = new MathContext(mc.getPrecision() + GUARD_DIGITS + Integer.toString(e).length(),
+                RoundingMode.HALF_EVEN);
+        BigDecimal result = lnNewton(m, work);
+        if (e != 0) {
+            result = result.add(ln10(work).multiply(BigDecimal.valueOf(e), work), work);
+        }
+        return result.round(mc);
+    }
+
+    static private BigDecimal ln10(MathContext mc) {
+        BigDecimal value = ln10;
+        if (value == null || value.precision() < mc.getPrecision()) {
+            value = lnNewton(BigDecimal.TEN, mc);
+            ln10 = value;
+        }
+        return value.round(mc);
+    }
+
+    /**
+     * Compute the natural logarithm of a number in the range of a double
+     * by refining its double logarithm with Halley's method, which
+     * triples the correct digits each iteration.
+     */
+    static private BigDecimal lnNewton(BigDecimal x, MathContext mc) {
+        BigDecimal y = new BigDecimal(Math.log(x.doubleValue()));
+        // The error after a step is about the cube of the step, so stop
+        // once the step is below the cube root of the precision
+        BigDecimal epsilon = BigDecimal.ONE.movePointLeft(mc.getPrecision() / 3 + 1);
+        for (int i = 0; i < MAX_ITERATIONS; i++) {
+            // y = y + 2 * (x - e^y) / (x + e^y)
+            BigDecimal ey = exp(y, mc);
+            BigDecimal delta = TWO.multiply(x.subtract(ey, mc), mc).divide(x.add(ey, mc), mc);
+            y = y.add(delta, mc);
+            if (delta.abs().compareTo(epsilon) < 0) {
+                break;
+            }
+        }
+        return y;
+    }
+}
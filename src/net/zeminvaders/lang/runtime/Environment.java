@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.runtime;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A frame of variable bindings. Each function call gets its own environment
+ * that is chained to the environment the function was declared in. Looking
+ * up a variable walks outwards through the enclosing environments until it
+ * reaches the global environment.
+ *
+ * Variables that the Resolver was able to bind are stored in slots and
+ * accessed by index. Any other variables are stored by name.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class Environment {
+    final static private String[] NO_NAMES = new String[0];
+
+    private Environment parent;
+    private String[] names;
+    private ZemObject[] slots;
+    private Map<String, ZemObject> variables;
+    private Environment global;
+
+    /**
+     * Incremented when a lookup by name could give a different function.
+     * Only maintained in the global environment.
+     */
+    private int functionVersion = 0;
+
+    /**
+     * Set once a function declared in this environment is created. The
+     * environment then outlives the call and can not be reused.
+     */
+    private boolean captured = false;
+
+    /**
+     * @param parent The enclosing environment. Null for the global environment.
+     */
+    public Environment(Environment parent) {
+        this(parent, NO_NAMES);
+    }
+
+    /**
+     * @param parent The enclosing environment. Null for the global environment.
+     * @param names  Names of the variables stored in slots
+     */
+    public Environment(Environment parent, String[] names) {
+        this(parent, names, names.length);
+    }
+
+    /**
+     * @param parent The enclosing environment. Null for the global environment.
+     * @param names  Names of the variables stored in slots
+     * @param size   Number of slots. Slots after the named variables are
+     *               available for temporary values.
+     */
+    public Environment(Environment parent, String[] names, int size) {
+        this.parent = parent;
+        this.names = names;
+        this.slots = new ZemObject[size];
+        this.global = parent == null ? this : parent.global;
+    }
+
+    /**
+     * Get the enclosing environment.
+     *
+     * @return The enclosing environment or null if this is the global environment
+     */
+    public Environment getParent() {
+        return parent;
+    }
+
+    /**
+     * Get the slots of this environment. Used by the register machine as
+     * its register file.
+     */
+    public ZemObject[] getSlots() {
+        return slots;
+    }
+
+    /**
+     * Mark this environment as referenced by a function declared in it.
+     */
+    public void capture() {
+        captured = true;
+    }
+
+    public boolean isCaptured() {
+        return captured;
+    }
+
+    /**
+     * Unset all the variables of this environment so it can be reused for
+     * another call of the same function.
+     */
+    public void clear() {
+        Arrays.fill(slots, null);
+        variables = null;
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the value of a variable from this or an enclosing environment.
+     *
+     * @param name Variable name
+     * @return The value of the variable or null if it is not set
+     */
+    public ZemObject get(String name) {
+        Environment env = this;
+        do {
+            int slot = env.indexOf(name);
+            if (slot >= 0 && env.slots[slot] != null) {
+                return env.slots[slot];
+            }
+            if (env.variables != null) {
+                ZemObject value = env.variables.get(name);
+                if (value != null) {
+                    return value;
+                }
+            }
+            env = env.parent;
+        } while (env != null);
+        return null;
+    }
+
+    /**
+     * Get the value of a variable resolved to a slot.
+     *
+     * @param depth Number of environments out from this one
+     * @param slot  Slot index of the variable
+     * @return The value of the variable or null if it is not set
+     */
+    public ZemObject get(int depth, int slot) {
+        Environment env = this;
+        while (depth > 0) {
+            env = env.parent;
+            depth--;
+        }
+        return env.slots[slot];
+    }
+
+    /**
+     * Set the value of a variable in this environment. Variables in
+     * enclosing environments are never modified, assignment inside a
+     * function always creates a local variable.
+     *
+     * @param name  Variable name
+     * @param value New value for the variable
+     */
+    public void set(String name, ZemObject value) {
+        ZemObject oldValue;
+        int slot = indexOf(name);
+        if (slot >= 0) {
+            oldValue = slots[slot];
+            slots[slot] = value;
+        } else {
+            if (variables == null) {
+                variables = new HashMap<String, ZemObject>();
+            }
+            oldValue = variables.put(name, value);
+        }
+        if (oldValue == null || oldValue instanceof Function || value instanceof Function) {
+            // New variable may hide a function in an enclosing environment
+            global.functionVersion++;
+        }
+    }
+
+    /**
+     * Get the version of the functions that can be looked up by name. The
+     * version changes whenever a variable set by name holds or replaces a
+     * function, or a new variable is created by name.
+     * Inline caches use this to check that a function they looked up by
+     * name is still valid.
+     */
+    public int getFunctionVersion() {
+        return global.functionVersion;
+    }
+
+    /**
+     * Set the value of a variable resolved to a slot in this environment.
+     *
+     * @param slot  Slot index of the variable
+     * @param value New value for the variable
+     */
+    public void set(int slot, ZemObject value) {
+        slots[slot] = value;
+    }
+}
@@ -30,6 +30,8 @@ import net.zeminvaders.lang.SourcePosition;
  * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
  */
 public abstract class Function extends ZemObject {
+    private String[] variableNames;
+
     /**
      * Get the number of parameters to this function.
      *
@@ -62,6 +64,42 @@ public abstract class Function extends ZemObject {
      */
     abstract public ZemObject eval(Interpreter interpreter, SourcePosition pos);
 
+    /**
+     * Get the names of the variables local to the function. The parameters
+     * come first, in order, followed by any other local variables.
+     *
+     * @return Names of the local variables
+     */
+    public String[] getVariableNames() {
+        if (variableNames == null) {
+            String[] names = new String[getParameterCount()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = getParameterName(i);
+            }
+            variableNames = names;
+        }
+        return variableNames;
+    }
+
+    /**
+     * Get the number of slots needed in the environment of a call to
+     * this function.
+     *
+     * @return Number of slots, at least the number of local variables
+     */
+    public int getFrameSize() {
+        return getVariableNames().length;
+    }
+
+    /**
+     * Get the environment the function was declared in.
+     *
+     * @return The declaring environment. Return null for the global environment.
+     */
+    public Environment getEnvironment() {
+        return null;
+    }
+
     @Override
     public int compareTo(ZemObject o) {
         throw new UnsupportedOperationException();
@@ -25,7 +25,8 @@ import net.zeminvaders.lang.Interpreter;
 import net.zeminvaders.lang.SourcePosition;
 
 /**
- * len built-in function. Return the length of a string.
+ * len built-in function. Return the length of a string or the number of
+ * elements in an array.
  *
  * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
  */
@@ -47,7 +48,11 @@ public class LenFunction extends Function {
 
     @Override
     public ZemObject eval(Interpreter interpreter, SourcePosition pos) {
-        ZemString str = interpreter.getVariable("string", pos).toZString();
-        return new ZemNumber(str.toString().length());
+        ZemObject value = interpreter.getVariable("string", pos);
+        if (value instanceof ZemArray) {
+            return interpreter.toNumberMode(ZemNumber.valueOf(((ZemArray) value).size()));
+        }
+        ZemString str = value.toZString();
+        return interpreter.toNumberMode(ZemNumber.valueOf(str.length()));
     }
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import net.zeminvaders.lang.Interpreter;
+import net.zeminvaders.lang.SourcePosition;
+
+/**
+ * match built-in function. Find the first match of a regular expression in
+ * a string. Return an array of the match followed by its groups, with an
+ * empty string for groups that did not take part, or an empty array if
+ * there is no match.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class MatchFunction extends Function {
+    private String[] parameters = {"string", "pattern", "flags"};
+
+    @Override
+    public ZemObject eval(Interpreter interpreter, SourcePosition pos) {
+        ZemString str = interpreter.getVariable("string", pos).toZString();
+        String pattern = interpreter.getVariable("pattern", pos).toZString().toString();
+        String flags = interpreter.getVariable("flags", pos).toZString().toString();
+        Matcher matcher = interpreter.getPatternCache().get(pattern, flags, pos).matcher(str);
+        List<ZemObject> groups = new ArrayList<ZemObject>();
+        if (matcher.find()) {
+            for (int i = 0; i <= matcher.groupCount(); i++) {
+                int start = matcher.start(i);
+                groups.add(start < 0 ? new ZemString("") : str.substring(start, matcher.end(i)));
+            }
+        }
+        return new ZemArray(groups);
+    }
+
+    @Override
+    public ZemObject getDefaultValue(int index) {
+        if (index == 2) {
+            return new ZemString("");
+        }
+        return null;
+    }
+
+    @Override
+    public int getParameterCount() {
+        return 3;
+    }
+
+    @Override
+    public String getParameterName(int index) {
+        return parameters[index];
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.runtime;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import net.zeminvaders.lang.SourcePosition;
+import net.zeminvaders.lang.ZemException;
+
+/**
+ * Compiled regular expressions used by the regular expression built-in
+ * functions. The least recently used pattern is dropped when the cache is
+ * full.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class PatternCache {
+    static final public int DEFAULT_CAPACITY = 64;
+
+    private final Map<Key, Pattern> patterns;
+    // Key for lookups, so that finding a cached pattern allocates nothing
+    private final Key probe = new Key(null, 0);
+    private long hits;
+    private long misses;
+
+    public PatternCache(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        patterns = new LinkedHashMap<Key, Pattern>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Pattern> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Get the compiled pattern for a regular expression.
+     *
+     * @param regex Regular expression
+     * @param flags Letters of the flags: i for case insensitive, m for
+     *              multiline, s for dot matches line terminators and x to
+     *              allow whitespace and comments
+     * @param pos   Source position of the function call
+     */
+    public Pattern get(String regex, String flags, SourcePosition pos) {
+        // Key on the bits so that flags in any order share a pattern
+        int bits = toBits(flags, pos);
+        probe.regex = regex;
+        probe.bits = bits;
+        Pattern pattern = patterns.get(probe);
+        probe.regex = null;
+        if (pattern != null) {
+            hits++;
+            return pattern;
+        }
+        misses++;
+        try {
+            pattern = Pattern.compile(regex, bits);
+        } catch (PatternSyntaxException e) {
+            throw new ZemException("invalid regular expression: " + e.getDescription(), pos);
+        }
+        patterns.put(new Key(regex, bits), pattern);
+        return pattern;
+    }
+
+    static private int toBits(String flags, SourcePosition pos) {
+        int bits = 0;
+        for (int i = 0; i < flags.length(); i++) {
+            char flag = flags.charAt(i);
+            if (flag == 'i') {
+                bits |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+            } else if (flag == 'm') {
+                bits |= Pattern.MULTILINE;
+            } else if (flag == 's') {
+                bits |= Pattern.DOTALL;
+            } else if (flag == 'x') {
+                bits |= Pattern.COMMENTS;
+            } else {
+                throw new ZemException("unsupported regular expression flag '" + flag + "'", pos);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Regular expression and flag bits of a cached pattern.
+     */
+    static final private class Key {
+        private String regex;
+        private int bits;
+
+        Key(String regex, int bits) {
+            this.regex = regex;
+            this.bits = bits;
+        }
+
+        @Override
+        public int hashCode() {
+            return regex.hashCode() * 31 + bits;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            Key key = (Key) object;
+            return bits == key.bits && regex.equals(key.regex);
+        }
+    }
+
+    /**
+     * @return Number of lookups that found a compiled pattern
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Number of lookups that compiled the pattern
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return Number of patterns in the cache
+     */
+    public int size() {
+        return patterns.size();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.runtime;
+
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.zeminvaders.lang.Interpreter;
+import net.zeminvaders.lang.SourcePosition;
+import net.zeminvaders.lang.ZemException;
+
+/**
+ * range built-in function. Return an array of the numbers from start to
+ * end, inclusive, counting by step. Ranges of integers, including
+ * integers of the double number mode, are computed as they are read, so
+ * iterating over them takes no memory. Other ranges are stored, one
+ * number per element, and are limited to MAX_STORED_ELEMENTS.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class RangeFunction extends Function {
+    /**
+     * Largest number of elements of a range that is stored.
+     */
+    static final private int MAX_STORED_ELEMENTS = 1 << 24;
+    /**
+     * Integers up to this magnitude are exact as doubles.
+     */
+    static final private long MAX_EXACT_DOUBLE = 1L << 53;
+
+    private String[] parameters = {"start", "end", "step"};
+
+    @Override
+    public ZemObject eval(Interpreter interpreter, SourcePosition pos) {
+        ZemNumber start = interpreter.getVariable("start", pos).toNumber(pos);
+        ZemNumber end = interpreter.getVariable("end", pos).toNumber(pos);
+        ZemNumber step = interpreter.getVariable("step", pos).toNumber(pos);
+        MathContext mc = interpreter.getMathContext();
+        int direction = step.compareTo(ZemNumber.valueOf(0));
+        if (direction == 0) {
+            throw new ZemException("range expects a step other than zero", pos);
+        }
+        // Doubles if any bound is one, such as the literals of the double mode
+        boolean doubles = (start.isDoubleForm() || end.isDoubleForm() || step.isDoubleForm())
+            && isExactInteger(start) && isExactInteger(end) && isExactInteger(step);
+        if (doubles || (start.isLongForm() && end.isLongForm() && step.isLongForm())) {
+            long first = doubles ? (long) start.doubleValue() : start.longValue();
+            long last = doubles ? (long) end.doubleValue() : end.longValue();
+            long by = doubles ? (long) step.doubleValue() : step.longValue();
+            if (direction > 0 ? first > last : first < last) {
+                return range(first, by, 0, doubles);
+            }
+            // Distance can overflow a long but not an unsigned long
+            long count = direction > 0
+                ? Long.divideUnsigned(last - first, by) + 1
+                : Long.divideUnsigned(first - last, -by) + 1;
+            if (count <= 0 || count > Integer.MAX_VALUE) {
+                throw new ZemException("range has too many elements", pos);
+            }
+            return range(first, by, (int) count, doubles);
+        }
+        ZemNumber count = end.subtract(start, mc).divide(step, mc);
+        if (count.compareTo(ZemNumber.valueOf(MAX_STORED_ELEMENTS)) >= 0) {
+            throw new ZemException("range has too many elements", pos);
+        }
+        List<ZemObject> elements = new ArrayList<ZemObject>();
+        ZemNumber number = start;
+        while (direction > 0 ? number.compareTo(end) <= 0 : number.compareTo(end) >= 0) {
+            elements.add(number);
+            ZemNumber next = number.add(step, mc);
+            if (next.compareTo(number) == 0) {
+                throw new ZemException("range step is too small to change the number", pos);
+            }
+            number = next;
+        }
+        return new ZemArray(elements);
+    }
+
+    /**
+     * Check if a number is a long or double that holds an integer exactly
+     * as a double.
+     */
+    static private boolean isExactInteger(ZemNumber number) {
+        if (number.isLongForm()) {
+            return number.longValue() >= -MAX_EXACT_DOUBLE && number.longValue() <= MAX_EXACT_DOUBLE;
+        } else if (!number.isDoubleForm()) {
+            return false;
+        }
+        double value = number.doubleValue();
+        return value == Math.rint(value) && Math.abs(value) <= MAX_EXACT_DOUBLE;
+    }
+
+    static private ZemArray range(long start, long step, int size, boolean doubles) {
+        return doubles ? ZemArray.doubleRange(start, step, size) : ZemArray.range(start, step, size);
+    }
+
+    @Override
+    public ZemObject getDefaultValue(int index) {
+        if (index == 2) {
+            return ZemNumber.valueOf(1);
+        }
+        return null;
+    }
+
+    @Override
+    public int getParameterCount() {
+        return 3;
+    }
+
+    @Override
+    public String getParameterName(int index) {
+        return parameters[index];
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.runtime;
+
+import java.util.regex.Matcher;
+
+import net.zeminvaders.lang.Interpreter;
+import net.zeminvaders.lang.SourcePosition;
+import net.zeminvaders.lang.ZemException;
+
+/**
+ * replace_re built-in function. Return a string with every match of a
+ * regular expression replaced. The replacement can refer to groups as $1,
+ * $2 and so on.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class ReplaceReFunction extends Function {
+    private String[] parameters = {"string", "pattern", "replacement", "flags"};
+
+    @Override
+    public ZemObject eval(Interpreter interpreter, SourcePosition pos) {
+        ZemString str = interpreter.getVariable("string", pos).toZString();
+        String pattern = interpreter.getVariable("pattern", pos).toZString().toString();
+        String flags = interpreter.getVariable("flags", pos).toZString().toString();
+        Matcher matcher = interpreter.getPatternCache().get(pattern, flags, pos).matcher(str);
+        String replacement = interpreter.getVariable("replacement", pos).toZString().toString();
+        try {
+            return new ZemString(matcher.replaceAll(replacement));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new ZemException("invalid replacement: " + e.getMessage(), pos);
+        }
+    }
+
+    @Override
+    public ZemObject getDefaultValue(int index) {
+        if (index == 3) {
+            return new ZemString("");
+        }
+        return null;
+    }
+
+    @Override
+    public int getParameterCount() {
+        return 4;
+    }
+
+    @Override
+    public String getParameterName(int index) {
+        return parameters[index];
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.runtime;
+
+import net.zeminvaders.lang.Interpreter;
+import net.zeminvaders.lang.SourcePosition;
+
+/**
+ * substr built-in function. Return length characters of a string from
+ * start. A negative start counts from the end of the string, a negative
+ * length leaves that many characters off the end, and without a length the
+ * substring runs to the end. The substring shares the characters of the
+ * string.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class SubstrFunction extends Function {
+    private String[] parameters = {"string", "start", "length"};
+
+    @Override
+    public ZemObject eval(Interpreter interpreter, SourcePosition pos) {
+        ZemString str = interpreter.getVariable("string", pos).toZString();
+        int start = interpreter.getVariable("start", pos).toNumber(pos).intValue();
+        int length = interpreter.getVariable("length", pos).toNumber(pos).intValue();
+        int size = str.length();
+        if (start < 0) {
+            start = Math.max(0, size + start);
+        }
+        start = Math.min(start, size);
+        int end = length < 0 ? size + length : start + Math.min(length, size - start);
+        if (end <= start) {
+            return str.substring(0, 0);
+        }
+        return str.substring(start, end);
+    }
+
+    @Override
+    public ZemObject getDefaultValue(int index) {
+        if (index == 2) {
+            return ZemNumber.valueOf(Integer.MAX_VALUE);
+        }
+        return null;
+    }
+
+    @Override
+    public int getParameterCount() {
+        return 3;
+    }
+
+    @Override
+    public String getParameterName(int index) {
+        return parameters[index];
+    }
+
+}
@@ -26,6 +26,8 @@ import java.util.List;
 import net.zeminvaders.lang.Interpreter;
 import net.zeminvaders.lang.SourcePosition;
 import net.zeminvaders.lang.ast.Node;
+import net.zeminvaders.lang.jit.CompiledBody;
+import net.zeminvaders.lang.jit.HotFunction;
 
 /**
  * A user declared function.
@@ -35,16 +37,58 @@ import net.zeminvaders.lang.ast.Node;
 public class UserFunction extends Function {
     private List<Parameter> parameters;
     private Node body;
+    private Environment environment;
+    private String[] variableNames;
+    private HotFunction hotFunction;
 
-    public UserFunction(List<Parameter> parameters, Node body) {
+    /**
+     * @param parameters    Function parameters
+     * @param body          Function body
+     * @param environment   Environment the function is declared in
+     * @param variableNames Local variables assigned slots by the Resolver,
+     *                      or null if the function body has not been resolved
+     */
+    public UserFunction(List<Parameter> parameters, Node body,
+            Environment environment, String[] variableNames) {
+        this(parameters, body, environment, variableNames, new HotFunction(body));
+    }
+
+    /**
+     * @param parameters    Function parameters
+     * @param body          Function body
+     * @param environment   Environment the function is declared in
+     * @param variableNames Local variables assigned slots by the Resolver,
+     *                      or null if the function body has not been resolved
+     * @param hotFunction   Invocation counter and compiled code shared by
+     *                      functions with the same body
+     */
+    public UserFunction(List<Parameter> parameters, Node body,
+            Environment environment, String[] variableNames,
+            HotFunction hotFunction) {
         this.parameters = parameters;
         this.body = body;
+        this.environment = environment;
+        this.variableNames = variableNames;
+        this.hotFunction = hotFunction;
     }
 
     public Node getBody() {
         return body;
     }
 
+    @Override
+    public String[] getVariableNames() {
+        if (variableNames == null) {
+            return super.getVariableNames();
+        }
+        return variableNames;
+    }
+
+    @Override
+    public Environment getEnvironment() {
+        return environment;
+    }
+
     @Override
     public int getParameterCount() {
         return parameters.size();
@@ -62,10 +106,13 @@ public class UserFunction extends Function {
 
     @Override
     public ZemObject eval(Interpreter interpreter, SourcePosition pos) {
-        try {
-            return body.eval(interpreter);
-        } catch (ReturnException e) {
-            return e.getReturn();
+        CompiledBody compiledBody = hotFunction.invoke(interpreter.getJitThreshold());
+        if (compiledBody != null) {
+            return compiledBody.execute(interpreter, interpreter.getEnvironment().getSlots());
         }
+        ZemObject value = body.eval(interpreter);
+        // The function is complete, clear the flag of a return statement
+        interpreter.setReturning(false);
+        return value;
     }
 }
@@ -21,40 +21,365 @@
  */
 package net.zeminvaders.lang.runtime;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 
 /**
  * Array data type.
  *
+ * Arrays of integers and arrays of doubles are stored unboxed in a long[]
+ * or double[] until an element of another kind is written, after which
+ * the elements are stored in a list. Ranges of integers, as longs or as
+ * doubles, are computed from their start and step until they are written
+ * to.
+ *
+ * Whatever the storage, iterators fail fast like those of an ArrayList:
+ * pushing an element while iterating makes the iterator throw a
+ * ConcurrentModificationException, and setting elements does not.
+ *
  * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
  */
 public class ZemArray extends ZemObject implements Iterable<ZemObject> {
+    /**
+     * Storage used for the elements.
+     */
+    static final private int LONGS = 0;
+    static final private int DOUBLES = 1;
+    static final private int OBJECTS = 2;
+    static final private int RANGE = 3;
+    static final private int DOUBLE_RANGE = 4;
+
+    static final private int MIN_CAPACITY = 8;
+
+    private int storage;
+    private long[] longs;
+    private double[] doubles;
     private List<ZemObject> elements;
+    /**
+     * Number of elements in the long[] or double[], or in the range.
+     */
+    private int size;
+    private long rangeStart;
+    private long rangeStep;
+    /**
+     * Number of pushes, checked by the iterators of unboxed storage.
+     */
+    private int modCount;
+
+    private ZemArray() {
+    }
 
     public ZemArray(List<ZemObject> elements) {
-        this.elements = elements;
+        storage = elements.isEmpty() ? LONGS : storageOf(elements.get(0));
+        for (ZemObject element : elements) {
+            if (storageOf(element) != storage) {
+                storage = OBJECTS;
+                break;
+            }
+        }
+        if (storage == OBJECTS) {
+            this.elements = elements;
+            return;
+        }
+        size = elements.size();
+        if (storage == LONGS) {
+            longs = new long[Math.max(size, MIN_CAPACITY)];
+            for (int i = 0; i < size; i++) {
+                longs[i] = ((ZemNumber) elements.get(i)).longValue();
+            }
+        } else {
+            doubles = new double[Math.max(size, MIN_CAPACITY)];
+            for (int i = 0; i < size; i++) {
+                doubles[i] = ((ZemNumber) elements.get(i)).doubleValue();
+            }
+        }
+    }
+
+    /**
+     * Create an array of integers stored in a long[].
+     *
+     * @param longs Elements, owned by the array from now on
+     * @param size  Number of elements used
+     */
+    ZemArray(long[] longs, int size) {
+        this.storage = LONGS;
+        this.longs = longs;
+        this.size = size;
+    }
+
+    /**
+     * Create an array of doubles stored in a double[].
+     *
+     * @param doubles Elements, owned by the array from now on
+     * @param size    Number of elements used
+     */
+    ZemArray(double[] doubles, int size) {
+        this.storage = DOUBLES;
+        this.doubles = doubles;
+        this.size = size;
+    }
+
+    /**
+     * Create an array of the integers start, start + step, ... computed
+     * when read.
+     *
+     * @param start First element
+     * @param step  Difference between elements
+     * @param size  Number of elements, which must not overflow a long
+     */
+    static ZemArray range(long start, long step, int size) {
+        ZemArray array = new ZemArray();
+        array.storage = RANGE;
+        array.rangeStart = start;
+        array.rangeStep = step;
+        array.size = size;
+        return array;
+    }
+
+    /**
+     * Create an array of the integers start, start + step, ... as doubles,
+     * computed when read.
+     *
+     * @param start First element
+     * @param step  Difference between elements
+     * @param size  Number of elements, which must be within +/-2^53
+     */
+    static ZemArray doubleRange(long start, long step, int size) {
+        ZemArray array = range(start, step, size);
+        array.storage = DOUBLE_RANGE;
+        return array;
+    }
+
+    /**
+     * Get the storage an element needs.
+     */
+    static private int storageOf(ZemObject element) {
+        if (element instanceof ZemNumber) {
+            ZemNumber number = (ZemNumber) element;
+            if (number.isLongForm()) {
+                return LONGS;
+            } else if (number.isDoubleForm()) {
+                return DOUBLES;
+            }
+        }
+        return OBJECTS;
+    }
+
+    /**
+     * Check if an element can be stored in the current storage. An empty
+     * array switches to the storage of its first element.
+     */
+    private boolean fits(ZemObject element) {
+        int needed = storageOf(element);
+        if (needed == storage) {
+            return true;
+        }
+        if (size == 0 && storage != OBJECTS && needed != OBJECTS) {
+            storage = needed;
+            longs = null;
+            doubles = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Move the elements of a range into a long[] or double[].
+     */
+    private void storeRange() {
+        if (storage == RANGE) {
+            longs = rangeLongs(Math.max(size, MIN_CAPACITY));
+            storage = LONGS;
+        } else if (storage == DOUBLE_RANGE) {
+            doubles = rangeDoubles(Math.max(size, MIN_CAPACITY));
+            storage = DOUBLES;
+        }
+    }
+
+    private long[] rangeLongs(int capacity) {
+        long[] values = new long[capacity];
+        for (int i = 0; i < size; i++) {
+            values[i] = rangeStart + i * rangeStep;
+        }
+        return values;
+    }
+
+    private double[] rangeDoubles(int capacity) {
+        double[] values = new double[capacity];
+        for (int i = 0; i < size; i++) {
+            values[i] = rangeStart + i * rangeStep;
+        }
+        return values;
+    }
+
+    /**
+     * Move the elements into a list.
+     */
+    private void toObjects() {
+        List<ZemObject> list = new ArrayList<ZemObject>(Math.max(size, MIN_CAPACITY));
+        for (int i = 0; i < size; i++) {
+            list.add(get(i));
+        }
+        elements = list;
+        storage = OBJECTS;
+        longs = null;
+        doubles = null;
+        size = 0;
     }
 
     public ZemObject get(int index) {
-        return elements.get(index);
+        if (storage == OBJECTS) {
+            return elements.get(index);
+        }
+        Objects.checkIndex(index, size);
+        if (storage == LONGS) {
+            return ZemNumber.valueOf(longs[index]);
+        } else if (storage == RANGE) {
+            return ZemNumber.valueOf(rangeStart + index * rangeStep);
+        } else if (storage == DOUBLE_RANGE) {
+            return ZemNumber.valueOf((double) (rangeStart + index * rangeStep));
+        }
+        return ZemNumber.valueOf(doubles[index]);
     }
 
     public void set(int index, ZemObject element) {
+        storeRange();
+        if (storage != OBJECTS) {
+            Objects.checkIndex(index, size);
+            if (storageOf(element) == storage) {
+                store(index, (ZemNumber) element);
+                return;
+            }
+            toObjects();
+        }
         elements.set(index, element);
     }
 
+    private void store(int index, ZemNumber number) {
+        if (storage == LONGS) {
+            longs[index] = number.longValue();
+        } else {
+            doubles[index] = number.doubleValue();
+        }
+    }
+
+    /**
+     * Get the long[] the elements are stored in.
+     *
+     * @return The storage, which may be longer than the array. Return
+     *         the elements of a range in a new array, or null if the
+     *         elements are not stored as longs.
+     */
+    long[] getLongs() {
+        if (storage == RANGE) {
+            return rangeLongs(size);
+        }
+        return storage == LONGS ? longs : null;
+    }
+
+    /**
+     * Check if the elements are computed from a range.
+     */
+    boolean isRange() {
+        return storage == RANGE || storage == DOUBLE_RANGE;
+    }
+
+    /**
+     * Check if the elements of a range are doubles.
+     */
+    boolean isDoubleRange() {
+        return storage == DOUBLE_RANGE;
+    }
+
+    long getRangeStart() {
+        return rangeStart;
+    }
+
+    long getRangeStep() {
+        return rangeStep;
+    }
+
+    /**
+     * Get the double[] the elements are stored in.
+     *
+     * @return The storage, which may be longer than the array. Return
+     *         the elements of a range of doubles in a new array, or null
+     *         if the elements are not stored as doubles.
+     */
+    double[] getDoubles() {
+        if (storage == DOUBLE_RANGE) {
+            return rangeDoubles(size);
+        }
+        return storage == DOUBLES ? doubles : null;
+    }
+
     public int size() {
-        return elements.size();
+        if (storage == OBJECTS) {
+            return elements.size();
+        }
+        return size;
     }
 
     public void push(ZemObject element) {
+        modCount++;
+        storeRange();
+        if (storage != OBJECTS) {
+            if (fits(element)) {
+                ensureCapacity(size + 1);
+                store(size++, (ZemNumber) element);
+                return;
+            }
+            toObjects();
+        }
         elements.add(element);
     }
 
+    private void ensureCapacity(int capacity) {
+        if (storage == LONGS) {
+            if (longs == null) {
+                longs = new long[MIN_CAPACITY];
+            } else if (longs.length < capacity) {
+                longs = Arrays.copyOf(longs, Math.max(capacity, longs.length * 2));
+            }
+        } else {
+            if (doubles == null) {
+                doubles = new double[MIN_CAPACITY];
+            } else if (doubles.length < capacity) {
+                doubles = Arrays.copyOf(doubles, Math.max(capacity, doubles.length * 2));
+            }
+        }
+    }
+
     @Override
     public Iterator<ZemObject> iterator() {
-        return elements.iterator();
+        if (storage == OBJECTS) {
+            return elements.iterator();
+        }
+        final int expectedModCount = modCount;
+        return new Iterator<ZemObject>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index != size();
+            }
+
+            @Override
+            public ZemObject next() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (index >= size()) {
+                    throw new NoSuchElementException();
+                }
+                return get(index++);
+            }
+        };
     }
 
     @Override
@@ -64,6 +389,16 @@ public class ZemArray extends ZemObject implements Iterable<ZemObject> {
 
     @Override
     public String toString() {
-        return elements.toString();
+        if (storage == OBJECTS) {
+            return elements.toString();
+        }
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(get(i));
+        }
+        return sb.append(']').toString();
     }
 }
@@ -23,83 +23,458 @@ package net.zeminvaders.lang.runtime;
 
 import java.math.BigInteger;
 import java.math.BigDecimal;
+import java.math.MathContext;
 
 /**
+ * A number. Integers that fit in a long are stored as a long, any other
+ * number as a BigDecimal. Arithmetic on longs checks for overflow and
+ * switches to BigDecimal when the result does not fit, so scripts get the
+ * same results whichever form a number is in.
  *
+ * Arithmetic on integers is exact, except for division. Other arithmetic on
+ * BigDecimals is rounded to the MathContext passed to it, which keeps the
+ * cost of arithmetic bounded. A precision of zero gives exact results.
+ *
+ * Numbers of the double number mode are stored as a double. Arithmetic
+ * with a double operand is done on doubles and gives a double.
  *
  * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
  */
 final public class ZemNumber extends ZemObject {
+    /**
+     * Numbers with at most this many digits always fit in a long.
+     */
+    static final private int LONG_DIGITS = 18;
+
+    /**
+     * Largest exponent BigDecimal.pow accepts.
+     */
+    static final private int MAX_EXPONENT = 999999999;
+
+    /**
+     * Doubles below this size that are integers are printed as integers.
+     */
+    static final private double MAX_PRINTED_INTEGER = 1e15;
+
+    /**
+     * Range of the integers that are cached.
+     */
+    static final private int MIN_CACHED = -128;
+    static final private int MAX_CACHED = 1024;
+
+    /**
+     * Canonical instances of the small integers.
+     */
+    static final private ZemNumber[] CACHE = new ZemNumber[MAX_CACHED - MIN_CACHED + 1];
+
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = new ZemNumber((long) (MIN_CACHED + i));
+        }
+    }
+
+    /**
+     * Forms a number is stored in.
+     */
+    static final private int LONG = 0;
+    static final private int DECIMAL = 1;
+    static final private int DOUBLE = 2;
+
+    private int form = LONG;
+    private long longValue;
+    private double doubleValue;
     private BigDecimal value;
 
     public ZemNumber(String value) {
-        String prefix = "";
-        if (value.length() > 2) {
-            prefix = value.substring(0, 2).toLowerCase();
-        }
-        if (prefix.equals("0b")) {
-            this.value = new BigDecimal(new BigInteger(value.substring(2), 2));
-        } else if (prefix.equals("0o")) {
-            this.value = new BigDecimal(new BigInteger(value.substring(2), 8));
-        } else if (prefix.equals("0x")) {
-            this.value = new BigDecimal(new BigInteger(value.substring(2), 16));
+        int radix = radixOf(value);
+        if (radix != 10) {
+            int bitsPerDigit = Integer.numberOfTrailingZeros(radix);
+            if ((value.length() - 2) * bitsPerDigit < Long.SIZE) {
+                this.longValue = Long.parseLong(value, 2, value.length(), radix);
+            } else {
+                setValue(new BigDecimal(new BigInteger(value.substring(2), radix)));
+            }
+        } else if (isSmallInteger(value)) {
+            this.longValue = Long.parseLong(value);
         } else {
-            this.value = new BigDecimal(value);
+            setValue(new BigDecimal(value));
         }
     }
 
     protected ZemNumber(BigDecimal value) {
-        this.value = value;
+        setValue(value);
     }
 
-    protected ZemNumber(int value) {
-        this.value = new BigDecimal(value);
+    private ZemNumber(long value) {
+        this.longValue = value;
     }
 
-    public ZemNumber add(ZemNumber augend) {
-        return new ZemNumber(value.add(augend.value));
+    private ZemNumber(double value) {
+        this.form = DOUBLE;
+        this.doubleValue = value;
     }
 
-    public ZemNumber subtract(ZemNumber subtrahend) {
-        return new ZemNumber(value.subtract(subtrahend.value));
+    /**
+     * Get a number for an integer. Small integers are cached.
+     */
+    static public ZemNumber valueOf(long value) {
+        if (value >= MIN_CACHED && value <= MAX_CACHED) {
+            return CACHE[(int) value - MIN_CACHED];
+        }
+        return new ZemNumber(value);
+    }
+
+    /**
+     * Get a number stored as a double.
+     */
+    static public ZemNumber valueOf(double value) {
+        return new ZemNumber(value);
+    }
+
+    /**
+     * Get a number for a number literal. Small integers are cached.
+     */
+    static public ZemNumber valueOf(String value) {
+        if (isSmallInteger(value)) {
+            return valueOf(Long.parseLong(value));
+        }
+        return new ZemNumber(value);
     }
 
-    public ZemNumber multiply(ZemNumber multiplicand) {
-        return new ZemNumber(value.multiply(multiplicand.value));
+    /**
+     * Get a number for a decimal. Integers that fit in a long are stored
+     * as a long, and small integers are cached.
+     */
+    static public ZemNumber valueOf(BigDecimal value) {
+        ZemNumber number = new ZemNumber(value);
+        if (number.form == LONG) {
+            return valueOf(number.longValue);
+        }
+        return number;
     }
 
-    public ZemNumber divide(ZemNumber divisor) {
-        return new ZemNumber(value.divide(divisor.value));
+    /**
+     * Get the radix of a number literal from its 0b, 0o or 0x prefix.
+     */
+    static private int radixOf(String value) {
+        if (value.length() > 2 && value.charAt(0) == '0') {
+            switch (value.charAt(1)) {
+                case 'b':
+                case 'B':
+                    return 2;
+                case 'o':
+                case 'O':
+                    return 8;
+                case 'x':
+                case 'X':
+                    return 16;
+            }
+        }
+        return 10;
     }
 
-    public ZemNumber remainder(ZemNumber divisor) {
-        return new ZemNumber(value.remainder(divisor.value));
+    /**
+     * Check if a string is an integer with few enough digits to fit in a long.
+     */
+    static private boolean isSmallInteger(String value) {
+        int start = value.startsWith("-") ? 1 : 0;
+        int length = value.length() - start;
+        if (length == 0 || length > LONG_DIGITS) {
+            return false;
+        }
+        for (int i = start; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Set the value, storing integers that fit as a long.
+     */
+    private void setValue(BigDecimal value) {
+        if (value.scale() == 0 && (value.precision() <= LONG_DIGITS
+                || value.unscaledValue().bitLength() < Long.SIZE)) {
+            this.longValue = value.longValue();
+        } else {
+            this.form = DECIMAL;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Check if the number is stored as a long.
+     */
+    public boolean isLongForm() {
+        return form == LONG;
+    }
+
+    /**
+     * Check if the number is stored as a double.
+     */
+    public boolean isDoubleForm() {
+        return form == DOUBLE;
+    }
+
+    /**
+     * Get the value of a number stored as a long.
+     */
+    public long longValue() {
+        return longValue;
+    }
+
+    private BigDecimal toBigDecimal() {
+        if (form == LONG) {
+            return BigDecimal.valueOf(longValue);
+        }
+        return value;
+    }
+
+    public double doubleValue() {
+        if (form == LONG) {
+            return longValue;
+        } else if (form == DECIMAL) {
+            return value.doubleValue();
+        }
+        return doubleValue;
+    }
+
+    /**
+     * Convert to a number stored as a double.
+     */
+    public ZemNumber toDouble() {
+        if (form == DOUBLE) {
+            return this;
+        }
+        return new ZemNumber(doubleValue());
     }
 
-    public ZemNumber power(ZemNumber n) {
-        return new ZemNumber(value.pow(n.value.intValueExact()));
+    /**
+     * Check if the number is an integer stored as a long or a decimal.
+     */
+    private boolean isIntegral() {
+        return form == LONG || (form == DECIMAL && value.scale() <= 0);
+    }
+
+    /**
+     * Get the MathContext for arithmetic with another number. Arithmetic
+     * on integers is exact.
+     */
+    private MathContext contextFor(ZemNumber number, MathContext mc) {
+        return isIntegral() && number.isIntegral() ? MathContext.UNLIMITED : mc;
+    }
+
+    /**
+     * Check if arithmetic with another number is done on doubles.
+     */
+    private boolean isDouble(ZemNumber number) {
+        return form == DOUBLE || number.form == DOUBLE;
+    }
+
+    public ZemNumber add(ZemNumber augend, MathContext mc) {
+        if (form == LONG && augend.form == LONG) {
+            long result = longValue + augend.longValue;
+            // Overflow if both operands have the opposite sign of the result
+            if (((longValue ^ result) & (augend.longValue ^ result)) >= 0) {
+                return valueOf(result);
+            }
+        } else if (isDouble(augend)) {
+            return new ZemNumber(doubleValue() + augend.doubleValue());
+        }
+        return valueOf(toBigDecimal().add(augend.toBigDecimal(), contextFor(augend, mc)));
+    }
+
+    public ZemNumber subtract(ZemNumber subtrahend, MathContext mc) {
+        if (form == LONG && subtrahend.form == LONG) {
+            long result = longValue - subtrahend.longValue;
+            // Overflow if the operands have different signs and the sign
+            // of the result differs from the first operand
+            if (((longValue ^ subtrahend.longValue) & (longValue ^ result)) >= 0) {
+                return valueOf(result);
+            }
+        } else if (isDouble(subtrahend)) {
+            return new ZemNumber(doubleValue() - subtrahend.doubleValue());
+        }
+        return valueOf(toBigDecimal().subtract(subtrahend.toBigDecimal(), contextFor(subtrahend, mc)));
+    }
+
+    public ZemNumber multiply(ZemNumber multiplicand, MathContext mc) {
+        if (form == LONG && multiplicand.form == LONG) {
+            long result = longValue * multiplicand.longValue;
+            if (!multiplyOverflows(longValue, multiplicand.longValue, result)) {
+                return valueOf(result);
+            }
+        } else if (isDouble(multiplicand)) {
+            return new ZemNumber(doubleValue() * multiplicand.doubleValue());
+        }
+        return valueOf(toBigDecimal().multiply(multiplicand.toBigDecimal(), contextFor(multiplicand, mc)));
+    }
+
+    /**
+     * Check if the product of two longs overflowed, which is when the
+     * high half of the full product is not the sign of the low half.
+     */
+    static private boolean multiplyOverflows(long x, long y, long product) {
+        return Math.multiplyHigh(x, y) != (product >> 63);
+    }
+
+    public ZemNumber divide(ZemNumber divisor, MathContext mc) {
+        if (form == LONG && divisor.form == LONG) {
+            long x = longValue;
+            long y = divisor.longValue;
+            // Exact quotients that fit, others need a decimal result or an error
+            if (y != 0 && x % y == 0 && !(x == Long.MIN_VALUE && y == -1)) {
+                return valueOf(x / y);
+            }
+        } else if (isDouble(divisor)) {
+            return new ZemNumber(doubleValue() / divisor.doubleValue());
+        }
+        BigDecimal x = toBigDecimal();
+        BigDecimal y = divisor.toBigDecimal();
+        if (terminates(y)) {
+            // Exact division is much cheaper than dividing to the precision
+            BigDecimal quotient = x.divide(y);
+            if (quotient.scale() <= 0 && isIntegral() && divisor.isIntegral()) {
+                return valueOf(quotient);
+            }
+            return valueOf(quotient.round(mc));
+        }
+        return valueOf(x.divide(y, mc));
+    }
+
+    /**
+     * Check if dividing by a number always gives a terminating decimal,
+     * which is when its unscaled value has no prime factors but 2 and 5.
+     */
+    static private boolean terminates(BigDecimal divisor) {
+        if (divisor.signum() == 0) {
+            return false;
+        }
+        BigInteger unscaled = divisor.unscaledValue().abs();
+        unscaled = unscaled.shiftRight(unscaled.getLowestSetBit());
+        if (unscaled.bitLength() < Long.SIZE) {
+            long n = unscaled.longValue();
+            while (n % 5 == 0) {
+                n /= 5;
+            }
+            return n == 1;
+        }
+        BigInteger five = BigInteger.valueOf(5);
+        BigInteger[] quotient = unscaled.divideAndRemainder(five);
+        while (quotient[1].signum() == 0) {
+            unscaled = quotient[0];
+            quotient = unscaled.divideAndRemainder(five);
+        }
+        return unscaled.equals(BigInteger.ONE);
+    }
+
+    public ZemNumber remainder(ZemNumber divisor, MathContext mc) {
+        if (form == LONG && divisor.form == LONG && divisor.longValue != 0) {
+            return valueOf(longValue % divisor.longValue);
+        } else if (isDouble(divisor)) {
+            return new ZemNumber(doubleValue() % divisor.doubleValue());
+        }
+        // The remainder is exact, so only the result is rounded
+        return valueOf(toBigDecimal().remainder(divisor.toBigDecimal()).round(contextFor(divisor, mc)));
+    }
+
+    public ZemNumber power(ZemNumber n, MathContext mc) {
+        if (isDouble(n)) {
+            return new ZemNumber(Math.pow(doubleValue(), n.doubleValue()));
+        }
+        boolean wholeExponent = n.form == LONG && n.longValue >= 0 && n.longValue <= MAX_EXPONENT;
+        if (form == LONG && wholeExponent) {
+            // Exponentiation by squaring while the result fits in a long
+            long result = 1;
+            long base = longValue;
+            long remaining = n.longValue;
+            boolean overflow = false;
+            while (remaining > 0 && !overflow) {
+                if ((remaining & 1) != 0) {
+                    long product = result * base;
+                    overflow = multiplyOverflows(result, base, product);
+                    result = product;
+                }
+                remaining >>= 1;
+                if (remaining > 0) {
+                    long square = base * base;
+                    overflow |= multiplyOverflows(base, base, square);
+                    base = square;
+                }
+            }
+            if (!overflow) {
+                return valueOf(result);
+            }
+        }
+        // Larger and fractional exponents, exact for integers
+        MathContext context = wholeExponent && isIntegral() ? MathContext.UNLIMITED : mc;
+        return valueOf(DecimalMath.pow(toBigDecimal(), n.toBigDecimal(), context));
     }
 
     public ZemNumber negate() {
-        return new ZemNumber(value.negate());
+        if (form == LONG && longValue != Long.MIN_VALUE) {
+            return valueOf(-longValue);
+        } else if (form == DOUBLE) {
+            return new ZemNumber(-doubleValue);
+        }
+        return valueOf(toBigDecimal().negate());
     }
 
     public int intValue() {
+        if (form == LONG) {
+            return (int) longValue;
+        } else if (form == DOUBLE) {
+            return (int) doubleValue;
+        }
         return value.intValue();
     }
 
+    /**
+     * Check if a double is an integer that fits in a long.
+     */
+    static private boolean isLong(double value) {
+        return value == Math.rint(value) && value >= Long.MIN_VALUE && value < Long.MAX_VALUE;
+    }
+
     public int compareTo(ZemObject object) {
         ZemNumber number = (ZemNumber) object;
-        return value.compareTo(number.value);
+        if (form == LONG && number.form == LONG) {
+            return Long.compare(longValue, number.longValue);
+        } else if (isDouble(number)) {
+            double x = doubleValue();
+            double y = number.doubleValue();
+            // Unlike Double.compare, zero and negative zero are equal
+            return x == y ? 0 : Double.compare(x, y);
+        }
+        return toBigDecimal().compareTo(number.toBigDecimal());
     }
 
     @Override
     public int hashCode() {
+        if (form == LONG) {
+            return Long.hashCode(longValue);
+        } else if (form == DOUBLE) {
+            // Same hash as the equal long
+            if (isLong(doubleValue)) {
+                return Long.hashCode((long) doubleValue);
+            }
+            return Double.hashCode(doubleValue);
+        }
         return value.hashCode();
     }
 
     @Override
     public String toString() {
+        if (form == LONG) {
+            return Long.toString(longValue);
+        } else if (form == DOUBLE) {
+            if (isLong(doubleValue) && Math.abs(doubleValue) < MAX_PRINTED_INTEGER) {
+                return Long.toString((long) doubleValue);
+            }
+            return Double.toString(doubleValue);
+        }
         return value.toString();
     }
 
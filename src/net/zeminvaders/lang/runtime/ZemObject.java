@@ -45,6 +45,13 @@ public abstract class ZemObject implements Comparable<ZemObject> {
         throw new InvalidTypeException("Expecting boolean", pos);
     }
 
+    public ZemArray toArray(SourcePosition pos) {
+        if (this instanceof ZemArray) {
+            return (ZemArray) this;
+        }
+        throw new InvalidTypeException("Expecting array", pos);
+    }
+
     public ZemString toZString() {
     /*
         if (this instanceof ZemString) {
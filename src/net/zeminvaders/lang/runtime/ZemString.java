@@ -21,40 +21,301 @@
  */
 package net.zeminvaders.lang.runtime;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
 /**
+ * String value.
+ *
+ * A string built by concatenation keeps its characters in a StringBuilder
+ * that is shared with the string it was appended to. The string that ends
+ * at the end of the builder owns it and appends in place, so building a
+ * string with <code>s = s ~ t</code> in a loop does not copy the characters
+ * already built. The String is created when the value is first read.
+ *
+ * A string can also be a view of ISO-8859-1 bytes, one byte per character.
+ * Length, comparison, hashing and substrings work on the bytes, and the
+ * bytes are only decoded when the String is needed.
  *
+ * A substring is a view of the characters of the string it was taken from
+ * until its String is created. As a CharSequence, a string can be matched
+ * against regular expressions without creating its String.
+ *
+ * The hash code is cached, and the parser shares one instance between equal
+ * literals, so dictionary keys written as literals compare by reference.
  *
  * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
  */
-final public class ZemString extends ZemObject {
+final public class ZemString extends ZemObject implements CharSequence {
+    /**
+     * Results shorter than this are concatenated into a new String.
+     */
+    static final private int BUILDER_THRESHOLD = 64;
+
     private String value;
+    private StringBuilder builder;
+    private String source;
+    private byte[] bytes;
+    private int offset;
+    private int length;
+    private int hash;
 
     public ZemString(String value) {
         this.value = value;
+        this.length = value.length();
+    }
+
+    private ZemString(StringBuilder builder) {
+        this.builder = builder;
+        this.length = builder.length();
+    }
+
+    private ZemString(String source, int offset, int length) {
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Create a string that is a view of ISO-8859-1 encoded bytes. The bytes
+     * are not copied, so they must not change while the string is in use.
+     *
+     * @param bytes  Encoded characters
+     * @param offset Index of the first character
+     * @param length Number of characters
+     */
+    public ZemString(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length
+                    + ", array length " + bytes.length);
+        }
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @return Number of characters in the string
+     */
+    @Override
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return Character at index
+     */
+    @Override
+    public char charAt(int index) {
+        if (value != null) {
+            return value.charAt(index);
+        }
+        Objects.checkIndex(index, length);
+        if (bytes != null) {
+            return (char) (bytes[offset + index] & 0xff);
+        }
+        if (source != null) {
+            return source.charAt(offset + index);
+        }
+        return builder.charAt(index);
+    }
+
+    /**
+     * Get the characters from begin up to end. The substring shares the
+     * characters of this string.
+     */
+    public ZemString substring(int begin, int end) {
+        if (begin < 0 || end > length || begin > end) {
+            throw new IndexOutOfBoundsException("begin " + begin + ", end " + end + ", length " + length);
+        }
+        if (begin == 0 && end == length) {
+            return this;
+        }
+        if (bytes != null) {
+            return new ZemString(bytes, offset + begin, end - begin);
+        }
+        if (value == null && source != null) {
+            return new ZemString(source, offset + begin, end - begin);
+        }
+        return new ZemString(toString(), begin, end - begin);
+    }
+
+    @Override
+    public ZemString subSequence(int begin, int end) {
+        return substring(begin, end);
+    }
+
+    /**
+     * Find a string in this string.
+     *
+     * @param str  String to find
+     * @param from Index to start searching from
+     * @return Index of the first occurrence at or after from, or -1
+     */
+    public int indexOf(ZemString str, int from) {
+        if (from < 0) {
+            from = 0;
+        }
+        if (value != null && str.value != null) {
+            return value.indexOf(str.value, from);
+        }
+        int last = length - str.length;
+        if (str.length == 0) {
+            return from <= length ? from : -1;
+        }
+        char first = str.charAt(0);
+        for (int i = from; i <= last; i++) {
+            if (charAt(i) == first && regionMatches(i, str)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return If this string starts with prefix
+     */
+    public boolean startsWith(ZemString prefix) {
+        return prefix.length <= length && regionMatches(0, prefix);
+    }
+
+    private boolean regionMatches(int start, ZemString str) {
+        for (int i = 0; i < str.length; i++) {
+            if (charAt(start + i) != str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return This string without leading and trailing whitespace
+     */
+    public ZemString trim() {
+        int begin = 0;
+        int end = length;
+        while (begin < end && charAt(begin) <= ' ') {
+            begin++;
+        }
+        while (end > begin && charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return substring(begin, end);
     }
 
     public ZemString concat(ZemString other) {
-        return new ZemString(value + other.value);
+        if (builder != null && builder.length() == length) {
+            other.appendTo(builder);
+            return new ZemString(builder);
+        }
+        int size = length + other.length;
+        if (size < BUILDER_THRESHOLD) {
+            return new ZemString(toString() + other.toString());
+        }
+        StringBuilder sb = new StringBuilder(size * 2);
+        appendTo(sb);
+        other.appendTo(sb);
+        return new ZemString(sb);
+    }
+
+    /**
+     * Append the characters of this string to a StringBuilder.
+     */
+    void appendTo(StringBuilder sb) {
+        if (value != null) {
+            sb.append(value);
+        } else if (source != null) {
+            sb.append(source, offset, offset + length);
+        } else if (bytes != null) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                sb.append((char) (bytes[i] & 0xff));
+            }
+        } else if (builder != sb) {
+            sb.append(builder, 0, length);
+        } else {
+            sb.append(toString());
+        }
     }
 
     @Override
     public String toString() {
+        if (value != null) {
+            return value;
+        }
+        if (bytes != null) {
+            // Not kept, so the string stays one byte per character
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+        if (source != null) {
+            value = source.substring(offset, offset + length);
+            source = null;
+        } else {
+            value = builder.substring(0, length);
+        }
         return value;
     }
 
     @Override
     public int compareTo(ZemObject object) {
         ZemString str = (ZemString) object;
-        return value.compareTo(str.value);
+        if (value != null && str.value != null) {
+            return value.compareTo(str.value);
+        }
+        if (bytes != null && str.bytes != null) {
+            return Arrays.compareUnsigned(bytes, offset, offset + length,
+                    str.bytes, str.offset, str.offset + str.length);
+        }
+        int size = Math.min(length, str.length);
+        for (int i = 0; i < size; i++) {
+            char c = charAt(i);
+            char d = str.charAt(i);
+            if (c != d) {
+                return c - d;
+            }
+        }
+        return length - str.length;
     }
 
     @Override
     public int hashCode() {
-        return value.hashCode();
+        int h = hash;
+        if (h == 0) {
+            if (bytes != null) {
+                // Same as the hash code of the decoded String
+                for (int i = offset, end = offset + length; i < end; i++) {
+                    h = 31 * h + (bytes[i] & 0xff);
+                }
+            } else if (value == null && source != null) {
+                for (int i = offset, end = offset + length; i < end; i++) {
+                    h = 31 * h + source.charAt(i);
+                }
+            } else {
+                h = toString().hashCode();
+            }
+            hash = h;
+        }
+        return h;
     }
 
     @Override
     public boolean equals(Object object) {
-        return compareTo((ZemObject) object) == 0;
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof ZemString)) {
+            return false;
+        }
+        ZemString str = (ZemString) object;
+        if (length != str.length || (hash != 0 && str.hash != 0 && hash != str.hash)) {
+            return false;
+        }
+        if (bytes != null && str.bytes != null) {
+            return Arrays.equals(bytes, offset, offset + length, str.bytes, str.offset, str.offset + str.length);
+        }
+        if (value != null && str.value != null) {
+            return value.equals(str.value);
+        }
+        return compareTo(str) == 0;
     }
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.MathContext;
+import java.util.Arrays;
+
+import com.sun.management.ThreadMXBean;
+
+import net.zeminvaders.lang.ExecutionEngine;
+import net.zeminvaders.lang.Interpreter;
+import net.zeminvaders.lang.NumberMode;
+import net.zeminvaders.lang.runtime.ZemString;
+
+/**
+ * Times scripts on the tree walking interpreter. Each script is run a few
+ * times to warm up the JVM before it is timed. Along with the time the
+ * memory allocated by a run is printed.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class Benchmark {
+    static final private int WARMUP_RUNS = 10;
+    static final private int TIMED_RUNS = 5;
+
+    /**
+     * Time a script and print the average time of a run.
+     *
+     * @param name   Name of the benchmark
+     * @param script Script to run
+     */
+    static private void run(String name, String script) throws IOException {
+        run(name, new Interpreter(), script);
+    }
+
+    /**
+     * Time a script and print the average time and allocation of a run.
+     *
+     * @param name        Name of the benchmark
+     * @param interpreter Interpreter to run the script on
+     * @param script      Script to run
+     */
+    static private void run(String name, Interpreter interpreter, String script) throws IOException {
+        // Measure the interpreter rather than the compiled code, unless
+        // the caller chose a threshold
+        if (interpreter.getJitThreshold() == Interpreter.DEFAULT_JIT_THRESHOLD) {
+            interpreter.setJitThreshold(-1);
+        }
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            interpreter.eval(script);
+        }
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            interpreter.eval(script);
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / TIMED_RUNS;
+        double megabytes = (threads.getCurrentThreadAllocatedBytes() - allocated) / 1e6 / TIMED_RUNS;
+        System.out.printf("%-32s %10.2f ms %10.2f MB%n", name, millis, megabytes);
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Recursive function that returns with a return statement compared
+        // to returning the value of its body
+        run("fib with return",
+            "fib = function(n) { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); }; fib(20);");
+        run("fib without return",
+            "fib = function(n) { if (n < 2) { r = n; } else { r = fib(n - 1) + fib(n - 2); } }; fib(20);");
+        // Calls from a function compiled to JVM bytecode
+        Interpreter compiled = new Interpreter();
+        compiled.setJitThreshold(0);
+        run("fib compiled", compiled,
+            "fib = function(n) { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); }; fib(20);");
+        // Return from inside a loop
+        run("return from loop",
+            "find = function(n) { i = 0; while (true) { if (i == n) { return i; } i = i + 1; } };"
+            + " j = 0; while (j < 2000) { find(10); j = j + 1; }");
+        // Counting loop on integers
+        run("counting loop",
+            "count = function(n) { i = 0; total = 0; while (i < n) { total = total + i * 2; i = i + 1; } };"
+            + " count(100000);");
+        // Decimal arithmetic compared to double arithmetic
+        String fractions = "sum = function(n) { i = 0; total = 0; while (i < n) { total = total + i * 0.5 / 4; i = i + 1; } };"
+            + " sum(30000);";
+        run("decimal numbers", new Interpreter(ExecutionEngine.TREE_WALKER, NumberMode.DECIMAL), fractions);
+        run("double numbers", new Interpreter(ExecutionEngine.TREE_WALKER, NumberMode.DOUBLE), fractions);
+        // Compound growth at the default precision compared to exact
+        // arithmetic, where every step adds digits to the result
+        String growth = "grow = function(n) { x = 1; i = 0; while (i < n) { x = x * 1.05; i = i + 1; } }; grow(2000);";
+        run("default precision", growth);
+        Interpreter exact = new Interpreter();
+        exact.setMathContext(MathContext.UNLIMITED);
+        run("unlimited precision", exact, growth);
+        // Integer powers by squaring compared to fractional powers
+        run("integer powers",
+            "p = function(n) { i = 0; while (i < n) { x = 1.05 ^ i; i = i + 1; } }; p(2000);");
+        run("fractional powers",
+            "p = function(n) { i = 0; while (i < n) { x = 1.05 ^ (i / 8); i = i + 1; } }; p(2000);");
+        // Numeric array stored unboxed
+        run("numeric array",
+            "fill = function(n) { a = []; i = 0; while (i < n) { array_push(a, i * 3); i = i + 1; } return a; };"
+            + " a = fill(20000); t = 0; foreach (a as e) { t = t + e; }");
+        // Dot product in script compared to the built-in function
+        String vectors = "fill = function(n) { a = []; i = 0; while (i < n) { array_push(a, i); i = i + 1; } return a; };"
+            + " a = fill(20000); b = fill(20000);";
+        run("dot product loop", vectors
+            + " t = 0; i = 0; while (i < 20000) { t = t + a[i] * b[i]; i = i + 1; }");
+        run("dot product built-in", vectors + " t = array_dot(a, b);");
+        // Range built by a script function compared to the lazy built-in
+        run("range function",
+            "range = function(start, end, step = 1) { result = []; n = start;"
+            + " while (n <= end) { array_push(result, n); n = n + step; } return result; };"
+            + " r = range(1, 20000); t = 0; foreach (r as n) { t = t + n; }");
+        run("range built-in", "r = range(1, 20000); t = 0; foreach (r as n) { t = t + n; }");
+        run("range sum and dot", "r = range(1, 1000000); t = array_sum(r) + array_max(r) + array_dot(r, r);");
+        // Building a long string by repeated concatenation
+        run("string building",
+            "s = ''; i = 0; while (i < 20000) { s = s ~ 'line ' ~ i ~ ' of the report;'; i = i + 1; } n = len(s);");
+        // Dictionaries used as records with constant field names
+        run("record dictionaries",
+            "t = 0; i = 0; while (i < 20000) { p = {'name':'pear', 'price':i, 'count':2};"
+            + " t = t + p['price'] * p['count']; i = i + 1; }");
+        // Splitting log lines character by character compared to split
+        String log = "line = '2024-05-01 12:00:00 INFO request handled in 35 ms';";
+        run("tokenize in script", log
+            + " fields = function(s) { r = []; w = ''; sp = ' '; i = 0; n = len(s);"
+            + " while (i < n) { c = substr(s, i, 1); if (c == sp) { array_push(r, w); w = ''; } else { w = w ~ c; } i = i + 1; }"
+            + " array_push(r, w); return r; };"
+            + " i = 0; while (i < 500) { f = fields(line); i = i + 1; }");
+        run("tokenize built-in", log + " i = 0; while (i < 500) { f = split(line, ' '); i = i + 1; }");
+        // Regular expression compiled once and then found in the cache
+        run("regex match", log
+            + " i = 0; while (i < 2000) { m = match(line, '(\\S+) (\\S+) (\\w+)'); i = i + 1; }");
+        // Regular expression over a large byte string, which is matched
+        // without decoding it
+        byte[] payload = new byte[1 << 20];
+        Arrays.fill(payload, (byte) 'a');
+        Interpreter bytes = new Interpreter();
+        bytes.setVariable("payload", new ZemString(payload, 0, payload.length));
+        run("regex on byte string", bytes,
+            "i = 0; while (i < 200) { m = match(payload, '^a{8}'); i = i + 1; }");
+        // Loading a generated table of number literals
+        StringBuilder table = new StringBuilder("table = [");
+        for (int i = 0; i < 20000; i++) {
+            table.append(i * 37).append(", ").append(i).append(".25, 0x").append(Integer.toHexString(i)).append(", ");
+        }
+        table.append("0];");
+        run("number literals", table.toString());
+        // Tail recursive loop, too deep to run without tail calls
+        run("tail recursive loop",
+            "loop = function(n, acc) { if (n == 0) { return acc; } return loop(n - 1, acc + n); }; loop(50000, 0);");
+    }
+}
@@ -22,6 +22,9 @@
 package net.zeminvaders.lang;
 
 import java.io.IOException;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ConcurrentModificationException;
 
 import net.zeminvaders.lang.runtime.ZemBoolean;
 import net.zeminvaders.lang.runtime.ZemNumber;
@@ -35,7 +38,14 @@ import static org.junit.Assert.*;
  * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
  */
 public class InterpreterTest {
-    private Interpreter interpreter = new Interpreter();
+    private Interpreter interpreter = createInterpreter();
+
+    /**
+     * Create the interpreter the tests are run against.
+     */
+    protected Interpreter createInterpreter() {
+        return new Interpreter();
+    }
 
     /**
      * Helper method to test the result of an expression
@@ -138,6 +148,30 @@ public class InterpreterTest {
         assertResult("x = 'hello' ~ ' world!';", new ZemString("hello world!"));
     }
 
+    @Test
+    public void testConcatLoop() {
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            expected.append("line ").append(i).append(';');
+        }
+        assertResult("s = ''; i = 0; while (i < 200) { s = s ~ 'line ' ~ i ~ ';'; i = i + 1; } x = s;",
+                new ZemString(expected.toString()));
+        // Appending to s again must not change t
+        String alphabet = "abcdefghijklmnopqrstuvwxyz";
+        assertResult("s = '" + alphabet + "' ~ '" + alphabet + "' ~ '" + alphabet + "';"
+                + " t = s ~ '1'; u = s ~ '2'; x = t ~ u ~ len(s);",
+                new ZemString(alphabet + alphabet + alphabet + "1" + alphabet + alphabet + alphabet + "278"));
+    }
+
+    @Test
+    public void testDictionaryKeys() {
+        assertResult("p = {'name':'pear', 'price':3}; p['price'] = p['price'] + 1; x = p['name'] ~ p['price'];",
+                new ZemString("pear4"));
+        // Keys built at run time find the entries of literal keys
+        assertResult("p = {'name':'pear', 1:'one'}; k = 'na' ~ 'me'; p[k ~ ''] = 'plum'; x = p['name'] ~ p[1];",
+                new ZemString("plumone"));
+    }
+
     @Test
     public void testIf() {
         assertResult("if (true) { x = 'then'; }", new ZemString("then"));
@@ -173,4 +207,351 @@ public class InterpreterTest {
         assertResult("x = function(msg) { return msg; }('hello world');", new ZemString("hello world"));
         assertResult("obj = { 'greet' : function() { return 'hello world'; } }; msg = obj['greet']();", new ZemString("hello world"));
     }
+
+    @Test
+    public void testScope() {
+        // Assignment inside a function does not change the global variable
+        assertResult("x = 1; f = function() { x = 2; return x; }; y = f(); z = x;", new ZemNumber("1"));
+        // Functions can read variables from the scope they are declared in
+        assertResult("make = function(n) { return function(m) { return n + m; }; }; add2 = make(2); x = add2(3);", new ZemNumber("5"));
+        // Local variable reads the global until it is assigned
+        assertResult("x = 1; f = function() { x = x + 1; return x; }; x = f() + x;", new ZemNumber("3"));
+        // foreach variables are local to the function
+        assertResult("e = 0; f = function(a) { foreach (a as e) { } return e; }; x = f([1, 2]) + e;", new ZemNumber("2"));
+        // Recursion
+        assertResult("fact = function(n) { if (n <= 1) { return 1; } return n * fact(n - 1); }; x = fact(5);", new ZemNumber("120"));
+    }
+
+    @Test
+    public void testOperandTypesChange() {
+        // Operators keep working when the types of their operands change
+        assertResult("f = function(a, b) { return a ~ b; }; x = f('a', 'b'); x = f(1, 2);", new ZemString("12"));
+        assertResult("f = function(a, b) { return a < b; }; x = f(1, 2); x = f('b', 'a');", ZemBoolean.FALSE);
+        assertResult("f = function(a, b) { return a == b; }; x = f(1, 2); x = f('a', 'a');", ZemBoolean.TRUE);
+        assertResult("f = function(a, b) { return a + b; }; x = f(1, 2); x = f(3, 4);", new ZemNumber("7"));
+    }
+
+    @Test(expected = TypeMismatchException.class)
+    public void testOperandTypeMismatch() throws IOException {
+        interpreter.eval("f = function(a, b) { return a < b; }; x = f(1, 2); x = f(1, 'a');");
+    }
+
+    @Test
+    public void testCallSiteCache() {
+        // Call sites see a function that is replaced
+        assertResult("f = function() { return 1; }; g = function() { return f(); }; x = g(); f = function() { return 2; }; x = g();", new ZemNumber("2"));
+        // Call sites calling many different functions
+        assertResult("apply = function(fn) { return fn(); }; x = 0; i = 0; while (i < 6) { k = i; x = x + apply(function() { return k; }); i = i + 1; } x = x;", new ZemNumber("15"));
+        // Default values are bound for each function called
+        assertResult("f = function(a, b = 2) { return a + b; }; g = function(a, b = 3) { return a * b; }; h = function(fn) { return fn(4); }; x = h(f) + h(g);", new ZemNumber("18"));
+    }
+
+    @Test(expected = TooFewArgumentsException.class)
+    public void testTooFewArguments() throws IOException {
+        interpreter.eval("f = function(a, b) { return a; }; g = function() { return f(1); }; g();");
+    }
+
+    @Test
+    public void testReturn() {
+        // Return from inside loops
+        assertResult("f = function() { i = 0; while (true) { if (i == 3) { return i; } i = i + 1; } }; x = f();", new ZemNumber("3"));
+        assertResult("f = function(a) { foreach (a as e) { if (e > 1) { return e; } } return 0; }; x = f([1, 2, 3]);", new ZemNumber("2"));
+        // Statements after a call continue once the called function returns
+        assertResult("f = function() { return 1; x = 2; }; g = function() { y = f(); return y + 1; }; x = g();", new ZemNumber("2"));
+        // Return at the top level ends the script
+        assertResult("x = 1; return 2; x = 3;", new ZemNumber("2"));
+    }
+
+    @Test
+    public void testTailCall() {
+        // Tail calls run in constant stack
+        assertResult("loop = function(n, acc) { if (n == 0) { return acc; } return loop(n - 1, acc + 1); }; x = loop(100000, 0);", new ZemNumber("100000"));
+        assertResult("even = function(n) { if (n == 0) { return true; } return odd(n - 1); }; odd = function(n) { if (n == 0) { return false; } return even(n - 1); }; x = even(100001);", ZemBoolean.FALSE);
+        assertResult("f = function(n) { if (n > 0) { f(n - 1); } }; x = f(100000);", ZemBoolean.FALSE);
+        // Default values are bound for each call
+        assertResult("f = function(n, acc = 0) { if (n == 0) { return acc; } return f(n - 1, acc + n); }; x = f(4);", new ZemNumber("10"));
+        // Locals of the previous call are not seen by the next call
+        assertResult("y = 'global'; f = function(n) { if (n == 0) { return y; } y = n; return f(n - 1); }; x = f(2);", new ZemString("global"));
+        // Functions keep the variables of the call they were declared in
+        assertResult("f = function(n, fs) { if (n == 0) { return fs; } array_push(fs, function() { return n; }); return f(n - 1, fs); }; fs = f(3, []); a = fs[0]; b = fs[2]; x = a() * 10 + b();", new ZemNumber("31"));
+    }
+
+    @Test
+    public void testConstantErrorPosition() throws IOException {
+        // Constant expressions that raise an error are not folded away
+        try {
+            interpreter.eval("x = 1;\ny = true && 2;");
+            fail("Expected InvalidTypeException");
+        } catch (InvalidTypeException e) {
+            assertEquals("Expecting boolean on line 2 at column 13", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testLongOverflow() {
+        // Integers that no longer fit in a long keep their exact value
+        assertResult("a = 9223372036854775807; x = a + 1;", new ZemNumber("9223372036854775808"));
+        assertResult("a = -9223372036854775807; x = a - 2;", new ZemNumber("-9223372036854775809"));
+        assertResult("a = 3037000500; x = a * a;", new ZemNumber("9223372037000250000"));
+        assertResult("a = 2; x = a ^ 64;", new ZemNumber("18446744073709551616"));
+        assertResult("a = 9223372036854775808; x = a - 1;", new ZemNumber("9223372036854775807"));
+        // Integer division that is not exact gives a decimal
+        assertResult("a = 7; x = a / 2;", new ZemNumber("3.5"));
+        assertResult("a = -7; x = a % 2;", new ZemNumber("-1"));
+        // Decimals keep their scale
+        assertResult("a = 1.0; x = \"\" ~ (a + 1);", new ZemString("2.0"));
+        assertResult("a = 10; x = \"\" ~ (a * 3);", new ZemString("30"));
+    }
+
+    @Test
+    public void testDoubleMode() throws IOException {
+        Interpreter doubles = createInterpreter();
+        doubles.setNumberMode(NumberMode.DOUBLE);
+        String[][] results = {
+            { "x = \"\" ~ (1 / 3);", "0.3333333333333333" },
+            { "x = \"\" ~ (0.1 + 0.2);", "0.30000000000000004" },
+            { "x = \"\" ~ (2 * 3);", "6" },
+            { "a = 2; x = \"\" ~ (a ^ 0.5);", "1.4142135623730951" },
+            { "a = 0; x = \"\" ~ (1 / a);", "Infinity" },
+            { "a = 7.5; x = \"\" ~ (a % 2);", "1.5" },
+            { "x = \"\" ~ (len(\"abc\") / 2);", "1.5" },
+            { "a = [1, 2]; x = \"\" ~ a[3 - 2];", "2" },
+            { "x = \"\" ~ array_sum([0.1, 0.2]) ~ \" \" ~ array_sum([]);", "0.30000000000000004 0" },
+            { "x = \"\" ~ array_scale(array_add([1, 2], [0.5, 0.5]), 2) ~ array_dot([1, 2], [3, 4]);", "[3, 5]11" },
+            // Ranges of integers are computed as they are read
+            { "r = range(1, 50000000); x = \"\" ~ len(r) ~ \" \" ~ r[49999999];", "50000000 50000000" },
+            { "r = range(10, 1, -3); x = \"\" ~ r ~ array_sum(r) ~ array_max(r) ~ array_dot(r, r);", "[10, 7, 4, 1]2210166" },
+            { "r = range(1, 3); array_push(r, 0.5); x = \"\" ~ r;", "[1, 2, 3, 0.5]" },
+            { "x = \"\" ~ range(0, 1, 0.25);", "[0, 0.25, 0.5, 0.75, 1]" },
+        };
+        for (String[] result : results) {
+            assertEquals(new ZemString(result[1]), doubles.eval(result[0]));
+        }
+    }
+
+    @Test
+    public void testSmallNumberCache() throws IOException {
+        // Small integers are shared, whichever way they are made
+        assertSame(ZemNumber.valueOf(5), interpreter.eval("a = 2; x = a + 3;"));
+        assertSame(ZemNumber.valueOf(-1), interpreter.eval("a = 2; x = a - 3;"));
+        assertSame(ZemNumber.valueOf(3), interpreter.eval("x = len(\"abc\");"));
+        assertSame(ZemNumber.valueOf(0), interpreter.eval("a = 9223372036854775808; x = a - a;"));
+    }
+
+    @Test
+    public void testMathContext() throws IOException {
+        // Division without an exact result is rounded to the default precision
+        assertResult("f = function(a, b) { return a / b; }; x = \"\" ~ f(1, 3);",
+                new ZemString("0.3333333333333333333333333333333333"));
+        assertResult("f = function(a, b) { return a / b; }; x = \"\" ~ f(1, 8);", new ZemString("0.125"));
+        Interpreter rounded = createInterpreter();
+        rounded.setMathContext(new MathContext(5, RoundingMode.HALF_EVEN));
+        assertEquals(new ZemString("0.66667"), rounded.eval("f = function(a, b) { return a / b; }; x = \"\" ~ f(2, 3);"));
+        // Integer arithmetic is exact at any precision
+        assertEquals(new ZemString("123457"), rounded.eval("f = function(a, b) { return a + b; }; x = \"\" ~ f(123456, 1);"));
+        assertEquals(new ZemString("1.0000"), rounded.eval("f = function(a, b) { return a * b; }; x = \"\" ~ f(1.00001, 1);"));
+    }
+
+    @Test
+    public void testExactIntegers() {
+        assertResult("f = function(a, b) { return a ^ b; }; x = \"\" ~ f(2, 200);",
+                new ZemString("1606938044258990275541962092341162602522202993782792835301376"));
+        assertResult("f = function(a, b) { return a + b; }; x = \"\" ~ f(12345678901234567890123456789012345678, 1);",
+                new ZemString("12345678901234567890123456789012345679"));
+        assertResult("f = function(a, b) { return a * b - 1; }; x = \"\" ~ f(9223372036854775807, 9223372036854775807);",
+                new ZemString("85070591730234615847396907784232501248"));
+        assertResult("f = function(a, b) { return a / b; }; x = \"\" ~ f(2 ^ 200, 2 ^ 100);",
+                new ZemString("1267650600228229401496703205376"));
+        assertResult("f = function(a, b) { return a % b; }; x = \"\" ~ f(10 ^ 40 + 7, 10);", new ZemString("7"));
+        // A remainder is exact even when the quotient needs more than 34 digits
+        assertResult("x = \"\" ~ 12345678901234567890123456789012345678.5 % 2;", new ZemString("0.5"));
+        assertResult("x = \"\" ~ 10 ^ 40 % 0.3;", new ZemString("0.1"));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testUnlimitedPrecision() throws IOException {
+        interpreter.setMathContext(MathContext.UNLIMITED);
+        interpreter.eval("f = function(a, b) { return a / b; }; x = f(1, 3);");
+    }
+
+    @Test
+    public void testPower() throws IOException {
+        String[][] results = {
+            { "f = function(a, b) { return a ^ b; }; x = \"\" ~ f(2, 0.5);", "1.414213562373095048801688724209698" },
+            { "f = function(a, b) { return a ^ b; }; x = \"\" ~ f(1.05, 2.5);", "1.129726321947045721750119514527446" },
+            { "f = function(a, b) { return a ^ b; }; x = \"\" ~ f(4, 0.5);", "2" },
+            { "f = function(a, b) { return a ^ b; }; x = \"\" ~ f(2, -3);", "0.125" },
+            { "f = function(a, b) { return a ^ b; }; x = \"\" ~ f(0, 0.5);", "0" },
+            { "f = function(a, b) { return a ^ b; }; x = \"\" ~ f(1.5, 100);", "406561177535215237.3972797075670417" },
+            { "f = function(a, b) { return a ^ b; }; x = \"\" ~ f(-2, 3);", "-8" },
+            // Compound interest
+            { "f = function(p, r, n) { return p * (1 + r / 12) ^ n; }; x = \"\" ~ f(1000, 0.05, 360);",
+                "4467.744314006132212428070110413550" },
+        };
+        for (String[] result : results) {
+            assertEquals(new ZemString(result[1]), interpreter.eval(result[0]));
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testFractionalPowerOfNegative() throws IOException {
+        interpreter.eval("f = function(a, b) { return a ^ b; }; x = f(-2, 0.5);");
+    }
+
+    @Test
+    public void testNumericArray() {
+        assertResult("a = [1, 2, 3]; a[1] = 20; array_push(a, 4); t = 0; foreach (a as e) { t = t + e; } x = t;",
+                new ZemNumber("28"));
+        assertResult("a = [1, 2]; a[0] = 0.5; a[1] = \"b\"; x = \"\" ~ a[0] ~ a[1];", new ZemString("0.5b"));
+        assertResult("a = []; array_push(a, 9223372036854775807); array_push(a, 1); x = a[0] + a[1];",
+                new ZemNumber("9223372036854775808"));
+    }
+
+    @Test
+    public void testArrayMath() {
+        assertResult("x = array_sum([1, 2, 3, 4]);", new ZemNumber("10"));
+        assertResult("x = array_sum([]);", new ZemNumber("0"));
+        assertResult("x = array_sum([1, 2.5, 3]);", new ZemNumber("6.5"));
+        assertResult("x = array_dot([1, 2, 3], [4, 5, 6]);", new ZemNumber("32"));
+        assertResult("x = array_min([3, -1, 2]) ~ \" \" ~ array_max([3, -1, 2]);", new ZemString("-1 3"));
+        assertResult("x = array_max([1.5, 0.5, 2.25]);", new ZemNumber("2.25"));
+        assertResult("x = \"\" ~ array_add([1, 2], [10, 20]);", new ZemString("[11, 22]"));
+        assertResult("x = \"\" ~ array_multiply([1, 2], [3, 0.5]);", new ZemString("[3, 1.0]"));
+        assertResult("x = \"\" ~ array_scale([1, 2, 3], 2);", new ZemString("[2, 4, 6]"));
+        // Overflow falls back to exact arithmetic
+        assertResult("x = array_sum([9223372036854775807, 1]);", new ZemNumber("9223372036854775808"));
+        assertResult("x = array_dot([4294967296, 1], [4294967296, 1]);", new ZemNumber("18446744073709551617"));
+        assertResult("x = \"\" ~ array_scale([4611686018427387904], 4);", new ZemString("[18446744073709551616]"));
+        assertResult("x = \"\" ~ array_add([9223372036854775807], [9223372036854775807]);",
+                new ZemString("[18446744073709551614]"));
+    }
+
+    @Test(expected = ZemException.class)
+    public void testArrayMathSizeMismatch() throws IOException {
+        interpreter.eval("x = array_add([1, 2], [1]);");
+    }
+
+    @Test(expected = InvalidTypeException.class)
+    public void testArrayMathNotNumbers() throws IOException {
+        interpreter.eval("x = array_sum([1, \"a\"]);");
+    }
+
+    @Test
+    public void testCountedLoop() {
+        assertResult("i = 0; t = 0; while (i < 10) { t = t + i; i = i + 1; } x = t;", new ZemNumber("45"));
+        assertResult("i = 0; while (i < 1000) { i = i + 1; } x = i;", new ZemNumber("1000"));
+        assertResult("n = 0; i = 0; while (i < 5) { n = n + 2; i = 1 + i; } x = i * 100 + n;", new ZemNumber("510"));
+        assertResult("i = 10; while (i > 0) { i = i - 3; } x = i;", new ZemNumber("-2"));
+        assertResult("i = 0; n = 7; while (i != n) { i = i + 1; } x = i;", new ZemNumber("7"));
+        // Body changes the counter
+        assertResult("i = 0; c = 0; while (i < 10) { if (i == 3) { i = 8; } c = c + 1; i = i + 1; } x = c;",
+                new ZemNumber("5"));
+        assertResult("i = 0; while (i < 3) { i = i + 0.5; i = i + 1; } x = \"\" ~ i;", new ZemString("3.0"));
+        // Bound that is not an integer, and counter that overflows a long
+        assertResult("i = 0; n = 2.5; while (i < n) { i = i + 1; } x = i;", new ZemNumber("3"));
+        assertResult("i = 9223372036854775806; n = 9223372036854775807; while (i <= n) { i = i + 1; } x = i;",
+                new ZemNumber("9223372036854775808"));
+        // Functions called by the body see the counter
+        assertResult("get = function() { return i; }; i = 0; t = 0; while (i < 4) { t = t + get(); i = i + 1; } x = t;",
+                new ZemNumber("6"));
+        assertResult("f = function(n) { i = 0; while (i < n) { if (i == 5) { return i * 10; } i = i + 1; } return -1; }; x = f(100);",
+                new ZemNumber("50"));
+    }
+
+    @Test
+    public void testRange() {
+        assertResult("r = range(1, 100); t = 0; foreach (r as n) { t = t + n; } x = t;", new ZemNumber("5050"));
+        assertResult("x = \"\" ~ range(0, 20, 5);", new ZemString("[0, 5, 10, 15, 20]"));
+        assertResult("x = \"\" ~ range(10, 1, -3);", new ZemString("[10, 7, 4, 1]"));
+        assertResult("x = len(range(1, 0));", new ZemNumber("0"));
+        assertResult("r = range(1, 10); x = r[4] + len(r);", new ZemNumber("15"));
+        assertResult("x = array_sum(range(1, 100));", new ZemNumber("5050"));
+        assertResult("x = array_sum(range(1, 1000000));", new ZemNumber("500000500000"));
+        assertResult("x = array_sum(range(10, 1, -3));", new ZemNumber("22"));
+        assertResult("x = array_sum(range(1, 0));", new ZemNumber("0"));
+        assertResult("x = array_sum(range(9000000000000000000, 9000000000000000002));", new ZemNumber("27000000000000000003"));
+        assertResult("r = range(10, 1, -3); x = array_min(r) ~ \",\" ~ array_max(r);", new ZemString("1,10"));
+        assertResult("r = range(1, 10, 3); x = array_min(r) ~ \",\" ~ array_max(r);", new ZemString("1,10"));
+        assertResult("x = array_dot(range(1, 3), range(4, 6));", new ZemNumber("32"));
+        assertResult("r = range(1, 3); x = \"\" ~ array_add(r, r) ~ array_scale(r, 2) ~ r;", new ZemString("[2, 4, 6][2, 4, 6][1, 2, 3]"));
+        assertResult("x = len([1, 2, 3]);", new ZemNumber("3"));
+        // Writing to a range stores its elements
+        assertResult("r = range(1, 3); r[0] = \"a\"; array_push(r, 4); x = \"\" ~ r;", new ZemString("[a, 2, 3, 4]"));
+        assertResult("r = range(1, 3); array_push(r, 4); x = \"\" ~ r;", new ZemString("[1, 2, 3, 4]"));
+        // Decimal ranges are built by adding the step
+        assertResult("x = \"\" ~ range(0, 1, 0.25);", new ZemString("[0, 0.25, 0.50, 0.75, 1.00]"));
+    }
+
+    @Test(expected = ZemException.class)
+    public void testRangeZeroStep() throws IOException {
+        interpreter.eval("x = range(1, 10, 0);");
+    }
+
+    @Test(expected = ZemException.class)
+    public void testRangeTooManyElements() throws IOException {
+        // Ranges that are not computed as they are read are stored
+        interpreter.eval("x = range(0, 100000000, 0.5);");
+    }
+
+    @Test
+    public void testStringFunctions() {
+        assertResult("p = split('GET /index.html 200', ' '); x = p[1] ~ '|' ~ len(p);", new ZemString("/index.html|3"));
+        assertResult("x = join(split('a,,b,', ','), '-');", new ZemString("a--b-"));
+        assertResult("x = join([1, 'two', true], ', ');", new ZemString("1, two, true"));
+        assertResult("x = substr('hello world', 6);", new ZemString("world"));
+        assertResult("x = substr('hello world', 0, 5) ~ substr('hello world', -5, 2) ~ substr('hello', 1, -1);",
+                new ZemString("hellowoell"));
+        assertResult("x = substr('hello', 9) ~ substr('hello', 2, 0);", new ZemString(""));
+        assertResult("x = index_of('a.b.c', '.') ~ index_of('a.b.c', '.', 2) ~ index_of('a.b.c', '!');",
+                new ZemString("13-1"));
+        assertResult("x = replace('a.b.c', '.', '::');", new ZemString("a::b::c"));
+        assertResult("x = starts_with('error: disk', 'error');", ZemBoolean.TRUE);
+        assertResult("x = starts_with('warn', 'warning');", ZemBoolean.FALSE);
+        assertResult("x = '[' ~ trim('  a b  ') ~ ']';", new ZemString("[a b]"));
+        assertResult("x = upper('MiXed') ~ lower('MiXed');", new ZemString("MIXEDmixed"));
+        // Substrings are keys of the same dictionary entries as literals
+        assertResult("d = {'id':0}; f = split('id=7', '='); d[f[0]] = f[1]; x = d['id'];", new ZemString("7"));
+    }
+
+    @Test(expected = ZemException.class)
+    public void testSplitEmptySeparator() throws IOException {
+        interpreter.eval("x = split('abc', '');");
+    }
+
+    @Test
+    public void testRegex() {
+        assertResult("m = match('GET /a.html 404', '(\\w+) (\\S+) (\\d+)'); x = m[1] ~ m[3] ~ len(m);",
+                new ZemString("GET4044"));
+        assertResult("x = len(match('abc', '\\d'));", new ZemNumber("0"));
+        assertResult("m = match('ab', 'a(x)?b'); x = '[' ~ m[1] ~ ']';", new ZemString("[]"));
+        assertResult("x = join(find_all('a1 b22 c333', '\\d+'), ',');", new ZemString("1,22,333"));
+        assertResult("x = join(find_all('Error error ERROR', 'error', 'i'), ',');", new ZemString("Error,error,ERROR"));
+        assertResult("x = replace_re('2024-05-01', '(\\d+)-(\\d+)-(\\d+)', '$3/$2/$1');", new ZemString("01/05/2024"));
+        assertResult("x = replace_re('a\nb', '^', '> ', 'm');", new ZemString("> a\n> b"));
+    }
+
+    @Test(expected = ZemException.class)
+    public void testRegexSyntaxError() throws IOException {
+        interpreter.eval("x = match('abc', '(');");
+    }
+
+    @Test(expected = ZemException.class)
+    public void testRegexUnknownFlag() throws IOException {
+        interpreter.eval("x = match('abc', 'a', 'q');");
+    }
+
+    @Test
+    public void testPushWhileIterating() throws IOException {
+        // Arrays of numbers and of strings are stored differently, but
+        // behave the same
+        String[] arrays = { "[1, 2]", "['p', 'q']" };
+        for (String array : arrays) {
+            try {
+                interpreter.eval("a = " + array + "; foreach (a as x) { array_push(a, x); }");
+                fail("Expected ConcurrentModificationException for " + array);
+            } catch (ConcurrentModificationException e) {
+                // expected
+            }
+        }
+    }
 }
@@ -24,6 +24,8 @@ package net.zeminvaders.lang;
 import java.io.IOException;
 import java.io.StringReader;
 
+import net.zeminvaders.lang.runtime.ZemNumber;
+
 import org.junit.*;
 import static org.junit.Assert.*;
 
@@ -109,12 +111,33 @@ public class LexerTest {
         assertTokenType("0B101", TokenType.NUMBER);
     }
 
+    @Test
+    public void testNumberValue() throws IOException {
+        // Values read from the digits match those parsed from the text
+        String[] numbers = {
+            "0", "007", "69", "0.01", "1.0", "0.00", ".05", "3e10", "3e-10", "3e+10", ".05e-10",
+            "3.04e10", "0E+7", "1.50e2", "9223372036854775807", "9223372036854775808",
+            "12345678901234567890.1234567890", "0o12345670", "0O777777777777777777777777",
+            "0x1234567890ABCDEFabcdef", "0xFFFFFFFFFFFFFFF", "0xFFFFFFFFFFFFFFFF", "0b101",
+            "0B1111111111111111111111111111111111111111111111111111111111111111",
+        };
+        for (String number : numbers) {
+            Lexer lexer = new Lexer(new StringReader(number));
+            NumberToken token = (NumberToken) lexer.getNextToken();
+            ZemNumber expected = ZemNumber.valueOf(number);
+            assertEquals(number, expected, token.getValue());
+            assertEquals(number, expected.toString(), token.getValue().toString());
+            assertEquals(number, expected.isLongForm(), token.getValue().isLongForm());
+        }
+    }
+
     @Test
     public void testInvalidNumber() throws IOException {
         assertError("12.23.4");
         assertError("12.");
         assertError("0o678");
         assertError("0x");
+        assertError("1e99999999999");
     }
 
     @Test
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang;
+
+import java.io.*;
+
+import net.zeminvaders.lang.ast.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class OptimizerTest {
+    /**
+     * Helper method to test the optimized syntax tree of a script.
+     *
+     * @param script   Script to optimize
+     * @param expected The expected syntax tree
+     */
+    private void assertOptimized(String script, String expected) {
+        try {
+            Lexer lexer = new Lexer(new StringReader(script));
+            Parser parser = new Parser(lexer);
+            RootNode program = parser.program();
+            new Optimizer(new Interpreter()).optimize(program);
+            assertEquals(expected, program.toString());
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testFold() {
+        assertOptimized("x = 2 ^ 10 * 3;", "(set! x 3072)");
+        assertOptimized("x = -(1 + 2);", "(set! x -3)");
+        assertOptimized("x = \"a\" ~ \"b\" ~ 1;", "(set! x \"ab1\")");
+        assertOptimized("x = 1 < 2 && !(2 == 3);", "(set! x true)");
+        assertOptimized("x = y + 2 * 3;", "(set! x (+ y 6))");
+        // Constants inside statements and functions
+        assertOptimized("while (i < 2 + 3) { f = function(a = 1 + 1) { return a * (2 + 2); }; }",
+                "(while (< i 5) ((set! f (function ((set! a 2)) ((return (* a 4)))))))");
+    }
+
+    @Test
+    public void testFoldError() {
+        // Errors are left to be raised when the program runs
+        assertOptimized("x = 1 / 0;", "(set! x (/ 1 0))");
+        assertOptimized("x = (0 - 2) ^ 0.5;", "(set! x (^ -2 0.5))");
+        assertOptimized("x = 1 == 1 && 2;", "(set! x (and true 2))");
+    }
+
+    @Test
+    public void testSimplify() {
+        assertOptimized("x = (y + 1) * 1;", "(set! x (+ y 1))");
+        assertOptimized("x = 0 + -y;", "(set! x (- y))");
+        assertOptimized("x = (y - 2) / 1 - 0;", "(set! x (- y 2))");
+        assertOptimized("x = true && y < 2;", "(set! x (< y 2))");
+        assertOptimized("x = false && y;", "(set! x false)");
+        assertOptimized("x = y || true;", "(set! x (or y true))");
+        assertOptimized("x = false || y == 1;", "(set! x (== y 1))");
+        assertOptimized("x = (y ~ \"a\") ~ \"\";", "(set! x (~ y \"a\"))");
+        // Operands that may not have the type of the operator are kept
+        assertOptimized("x = y * 1;", "(set! x (* y 1))");
+        assertOptimized("x = true && y;", "(set! x (and true y))");
+        assertOptimized("x = y ~ \"\";", "(set! x (~ y \"\"))");
+        // Identities that would change the scale of a number are kept
+        assertOptimized("x = (y + 1) * 1.0;", "(set! x (* (+ y 1) 1.0))");
+    }
+
+    @Test
+    public void testInternNumbers() throws IOException {
+        Lexer lexer = new Lexer(new StringReader("x = 123456; y = 123456; z = 123000 + 456; w = 123456.0;"));
+        RootNode program = new Parser(lexer).program();
+        new Optimizer(new Interpreter()).optimize(program);
+        Node x = ((AssignNode) program.get(0)).getRight();
+        Node y = ((AssignNode) program.get(1)).getRight();
+        Node z = ((AssignNode) program.get(2)).getRight();
+        Node w = ((AssignNode) program.get(3)).getRight();
+        assertSame(((NumberNode) x).getValue(), ((NumberNode) y).getValue());
+        assertSame(((NumberNode) x).getValue(), ((NumberNode) z).getValue());
+        // Numbers with a different scale are kept apart
+        assertNotSame(((NumberNode) x).getValue(), ((NumberNode) w).getValue());
+    }
+
+    @Test
+    public void testCountedLoop() throws IOException {
+        String[][] loops = {
+            { "while (i < n) { t = t + i; i = i + 1; }", "true" },
+            { "while (i >= 0) { i = i - 2; }", "true" },
+            { "while (i < n) { i = 1 + i; }", "true" },
+            { "while (i < n + 1) { i = i + 1; }", "false" },
+            { "while (i < n) { i = i + 0.5; }", "false" },
+            { "while (i < n) { i = i + 1; t = i; }", "false" },
+            { "while (i == n) { i = i + 1; }", "false" },
+            { "while (i < i) { i = i + 1; }", "false" },
+        };
+        for (String[] loop : loops) {
+            Parser parser = new Parser(new Lexer(new StringReader(loop[0])));
+            RootNode program = parser.program();
+            new Optimizer(new Interpreter()).optimize(program);
+            assertEquals(loop[0], Boolean.valueOf(loop[1]), program.get(0) instanceof CountedWhileNode);
+        }
+    }
+}
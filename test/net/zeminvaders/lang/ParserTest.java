@@ -75,6 +75,20 @@ public class ParserTest {
         assertType("n = false;", FalseNode.class);
     }
 
+    /**
+     * Test that equal string literals share one value.
+     */
+    @Test
+    public void testStringLiterals() throws IOException {
+        Lexer lexer = new Lexer(new StringReader("a = 'name'; b = 'name'; c = 'other';"));
+        RootNode node = new Parser(lexer).program();
+        StringNode a = (StringNode) ((AssignNode) node.get(0)).getRight();
+        StringNode b = (StringNode) ((AssignNode) node.get(1)).getRight();
+        StringNode c = (StringNode) ((AssignNode) node.get(2)).getRight();
+        assertSame(a.getValue(), b.getValue());
+        assertNotSame(a.getValue(), c.getValue());
+    }
+
     @Test
     public void testArithmeticOperators() {
         assertType("n = 1 + 1;", AddOpNode.class);
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.ast;
+
+import net.zeminvaders.lang.Interpreter;
+import net.zeminvaders.lang.SourcePosition;
+import net.zeminvaders.lang.runtime.ZemBoolean;
+import net.zeminvaders.lang.runtime.ZemNumber;
+import net.zeminvaders.lang.runtime.ZemString;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class BinaryOpNodeTest {
+    private SourcePosition pos = new SourcePosition(1, 1);
+    private Interpreter interpreter = new Interpreter();
+
+    private BinaryOpNode lessThan() {
+        return new LessThanOpNode(pos, new VariableNode(pos, "a"), new VariableNode(pos, "b"));
+    }
+
+    @Test
+    public void testSameTypes() {
+        BinaryOpNode node = lessThan();
+        interpreter.setVariable("a", new ZemNumber("1"));
+        interpreter.setVariable("b", new ZemNumber("2"));
+        assertEquals(ZemBoolean.TRUE, node.eval(interpreter));
+        assertEquals(ZemBoolean.TRUE, node.eval(interpreter));
+
+        node = lessThan();
+        interpreter.setVariable("a", new ZemString("a"));
+        interpreter.setVariable("b", new ZemString("b"));
+        assertEquals(ZemBoolean.TRUE, node.eval(interpreter));
+    }
+
+    @Test
+    public void testChangingTypes() {
+        BinaryOpNode node = lessThan();
+        interpreter.setVariable("a", new ZemNumber("1"));
+        interpreter.setVariable("b", new ZemNumber("2"));
+        node.eval(interpreter);
+        interpreter.setVariable("a", new ZemString("b"));
+        interpreter.setVariable("b", new ZemString("a"));
+        assertEquals(ZemBoolean.FALSE, node.eval(interpreter));
+        interpreter.setVariable("a", new ZemNumber("1"));
+        interpreter.setVariable("b", new ZemNumber("2"));
+        assertEquals(ZemBoolean.TRUE, node.eval(interpreter));
+
+        BinaryOpNode concat = new ConcatOpNode(pos, new VariableNode(pos, "a"), new VariableNode(pos, "b"));
+        interpreter.setVariable("a", new ZemString("a"));
+        interpreter.setVariable("b", new ZemString("b"));
+        assertEquals(new ZemString("ab"), concat.eval(interpreter));
+        interpreter.setVariable("b", new ZemNumber("1"));
+        assertEquals(new ZemString("a1"), concat.eval(interpreter));
+    }
+}
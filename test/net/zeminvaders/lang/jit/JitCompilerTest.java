@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.jit;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import net.zeminvaders.lang.Interpreter;
+import net.zeminvaders.lang.InterpreterTest;
+import net.zeminvaders.lang.ast.AssignNode;
+import net.zeminvaders.lang.ast.FunctionNode;
+import net.zeminvaders.lang.ast.RootNode;
+import net.zeminvaders.lang.runtime.ZemNumber;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Run the interpreter tests with every function compiled on its first call.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class JitCompilerTest extends InterpreterTest {
+    @Override
+    protected Interpreter createInterpreter() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.setJitThreshold(0);
+        return interpreter;
+    }
+
+    @Test
+    public void testCompile() throws IOException {
+        String script = "f = function(n) { total = 0; while (n > 0) { total = total + n; n = n - 1; } return total; };";
+        RootNode program = createInterpreter().parse(new StringReader(script));
+        FunctionNode function = (FunctionNode) ((AssignNode) program.getStatements().get(0)).getRight();
+        assertNotNull(new JitCompiler().compile(function.getBody()));
+    }
+
+    @Test
+    public void testCompiledCallSites() throws IOException {
+        // One call site in compiled code calling more functions than its
+        // inline cache holds, with and without default values
+        String script = "apply = function(f, n) { return f(n); };"
+            + " fs = [function(a) { return a + 1; }, function(a, b = 10) { return a + b; },"
+            + " function(a) { return a * 2; }, function(a, b = 1, c = 2) { return a + b + c; },"
+            + " function(a) { return a - 1; }, function(a) { return a; }];"
+            + " t = 0; foreach (fs as f) { t = t + apply(f, 5); } x = t;";
+        assertEquals(new ZemNumber("48"), createInterpreter().eval(script));
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.register;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import net.zeminvaders.lang.ExecutionEngine;
+import net.zeminvaders.lang.Interpreter;
+import net.zeminvaders.lang.InterpreterTest;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Run the interpreter tests against the register virtual machine.
+ *
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class RegisterMachineTest extends InterpreterTest {
+    @Override
+    protected Interpreter createInterpreter() {
+        return new Interpreter(ExecutionEngine.REGISTER_VM);
+    }
+
+    @Test
+    public void testDisassemble() throws IOException {
+        String script = "f = function(n) { total = n + 1; return total * 2; };";
+        RegisterBlock block = new RegisterCompiler().compile(
+                createInterpreter().parse(new StringReader(script)));
+        assertEquals("0: FUNCTION r1 function0 r2\n"
+                + "1: SET_NAME f r1\n"
+                + "2: MOVE r0 r1\n"
+                + "3: RETURN r0\n"
+                + "function0(n):\n"
+                + "    0: ADD total n 1\n"
+                + "    1: MULTIPLY r3 total 2\n"
+                + "    2: RETURN r3\n"
+                + "    3: RETURN r2\n", block.toString());
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.runtime;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import net.zeminvaders.lang.Interpreter;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class PatternCacheTest {
+    @Test
+    public void testLeastRecentlyUsed() {
+        PatternCache cache = new PatternCache(2);
+        Pattern a = cache.get("a", "", null);
+        Pattern b = cache.get("b", "", null);
+        assertSame(a, cache.get("a", "", null));
+        // b is the least recently used, so it is dropped for c
+        cache.get("c", "", null);
+        assertEquals(2, cache.size());
+        assertSame(a, cache.get("a", "", null));
+        assertNotSame(b, cache.get("b", "", null));
+        assertEquals(2, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void testFlags() {
+        PatternCache cache = new PatternCache(8);
+        Pattern plain = cache.get("a", "", null);
+        Pattern folded = cache.get("a", "im", null);
+        assertNotSame(plain, folded);
+        assertSame(folded, cache.get("a", "mi", null));
+        assertTrue(folded.matcher("A").matches());
+    }
+
+    @Test
+    public void testCounters() throws IOException {
+        Interpreter interpreter = new Interpreter();
+        interpreter.eval("i = 0; while (i < 100) { m = match('id=' ~ i, 'id=(\\d+)'); i = i + 1; }");
+        assertEquals(1, interpreter.getPatternCache().getMisses());
+        assertEquals(99, interpreter.getPatternCache().getHits());
+    }
+}
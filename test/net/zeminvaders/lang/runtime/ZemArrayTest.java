@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class ZemArrayTest {
+    private ZemArray createArray(ZemObject... elements) {
+        return new ZemArray(new ArrayList<ZemObject>(Arrays.asList(elements)));
+    }
+
+    @Test
+    public void testIntegers() {
+        ZemArray array = createArray(ZemNumber.valueOf(1), ZemNumber.valueOf(2));
+        for (int i = 3; i <= 20; i++) {
+            array.push(ZemNumber.valueOf(i * 1000));
+        }
+        array.set(0, ZemNumber.valueOf(-5));
+        assertEquals(20, array.size());
+        assertEquals(ZemNumber.valueOf(-5), array.get(0));
+        assertEquals(ZemNumber.valueOf(20000), array.get(19));
+        assertTrue(((ZemNumber) array.get(19)).isLongForm());
+        assertEquals("[1, 2, 3]", createArray(ZemNumber.valueOf(1), ZemNumber.valueOf(2),
+                ZemNumber.valueOf(3)).toString());
+    }
+
+    @Test
+    public void testDoubles() {
+        ZemArray array = new ZemArray(new ArrayList<ZemObject>());
+        array.push(ZemNumber.valueOf(0.5));
+        array.push(ZemNumber.valueOf(2.0));
+        assertTrue(((ZemNumber) array.get(0)).isDoubleForm());
+        assertEquals("[0.5, 2]", array.toString());
+    }
+
+    @Test
+    public void testMixed() {
+        // Elements of another kind move the array to a list
+        ZemArray array = createArray(ZemNumber.valueOf(1), ZemNumber.valueOf(2));
+        array.set(1, new ZemString("a"));
+        array.push(ZemNumber.valueOf(0.5));
+        assertEquals("[1, a, 0.5]", array.toString());
+        array = createArray(ZemNumber.valueOf(1), ZemNumber.valueOf(0.5), new ZemNumber("1.5"));
+        assertEquals("[1, 0.5, 1.5]", array.toString());
+        assertEquals(ZemNumber.valueOf(1), array.get(0));
+    }
+
+    /**
+     * Check that pushing while iterating fails the same way for every
+     * storage.
+     */
+    private void assertPushFails(ZemArray array, ZemObject element) {
+        Iterator<ZemObject> it = array.iterator();
+        it.next();
+        array.push(element);
+        try {
+            it.next();
+            fail("Expected ConcurrentModificationException");
+        } catch (ConcurrentModificationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testIterator() {
+        assertPushFails(createArray(ZemNumber.valueOf(1), ZemNumber.valueOf(2)), ZemNumber.valueOf(3));
+        assertPushFails(createArray(ZemNumber.valueOf(0.5), ZemNumber.valueOf(1.5)), ZemNumber.valueOf(2.5));
+        assertPushFails(createArray(new ZemString("p"), new ZemString("q")), new ZemString("r"));
+        assertPushFails(ZemArray.range(1, 1, 3), ZemNumber.valueOf(4));
+        // A push that changes the storage is seen too
+        assertPushFails(createArray(ZemNumber.valueOf(1), ZemNumber.valueOf(2)), new ZemString("r"));
+        // Setting elements while iterating is allowed
+        ZemArray array = createArray(ZemNumber.valueOf(1), ZemNumber.valueOf(2));
+        List<ZemObject> visited = new ArrayList<ZemObject>();
+        for (ZemObject element : array) {
+            visited.add(element);
+            array.set(1, new ZemString("two"));
+        }
+        assertEquals(Arrays.asList(ZemNumber.valueOf(1), new ZemString("two")), visited);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testIndexOutOfBounds() {
+        // Index within the capacity but past the last element
+        createArray(ZemNumber.valueOf(1)).get(1);
+    }
+
+    @Test
+    public void testRange() {
+        // Elements of a range are computed, not stored
+        ZemArray array = ZemArray.range(-5, 3, 2000000000);
+        assertEquals(2000000000, array.size());
+        assertEquals(ZemNumber.valueOf(-5), array.get(0));
+        assertEquals(ZemNumber.valueOf(5999999992L), array.get(1999999999));
+        assertEquals("[10, 8, 6]", ZemArray.range(10, -2, 3).toString());
+        array = ZemArray.range(1, 1, 3);
+        array.set(1, ZemNumber.valueOf(0.5));
+        assertEquals("[1, 0.5, 3]", array.toString());
+        // A range of doubles gives doubles and stores them as doubles
+        array = ZemArray.doubleRange(1, 1, 2000000000);
+        ZemNumber last = (ZemNumber) array.get(1999999999);
+        assertTrue(last.isDoubleForm());
+        assertEquals(2e9, last.doubleValue(), 0);
+        array = ZemArray.doubleRange(10, -2, 3);
+        array.push(ZemNumber.valueOf(0.5));
+        assertEquals("[10, 8, 6, 0.5]", array.toString());
+        assertNotNull(array.getDoubles());
+    }
+}
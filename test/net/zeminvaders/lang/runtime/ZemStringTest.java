@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2008 Cameron Zemek
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to
+ * deal in the Software without restriction, including without limitation the
+ * rights to use, copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ */
+package net.zeminvaders.lang.runtime;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.zeminvaders.lang.Interpreter;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="mailto:grom@zeminvaders.net">Cameron Zemek</a>
+ */
+public class ZemStringTest {
+    private String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testConcat() {
+        ZemString str = new ZemString("");
+        for (int i = 0; i < 100; i++) {
+            str = str.concat(new ZemString("a"));
+        }
+        assertEquals(100, str.length());
+        assertEquals(repeat('a', 100), str.toString());
+        assertEquals(new ZemString(repeat('a', 100)), str);
+        assertEquals(repeat('a', 100).hashCode(), str.hashCode());
+    }
+
+    @Test
+    public void testSharedBuilder() {
+        ZemString base = new ZemString(repeat('a', 70)).concat(new ZemString("b"));
+        ZemString first = base.concat(new ZemString("c"));
+        // base no longer ends the builder, so this must not overwrite "c"
+        ZemString second = base.concat(new ZemString("d"));
+        assertEquals(repeat('a', 70) + "b", base.toString());
+        assertEquals(repeat('a', 70) + "bc", first.toString());
+        assertEquals(repeat('a', 70) + "bd", second.toString());
+        ZemString twice = second.concat(second);
+        assertEquals(repeat('a', 70) + "bd" + repeat('a', 70) + "bd", twice.toString());
+        assertEquals(repeat('a', 70) + "bd", second.toString());
+    }
+
+    @Test
+    public void testSubstring() {
+        ZemString line = new ZemString("  level=info msg=started  ");
+        ZemString trimmed = line.trim();
+        ZemString level = trimmed.substring(6, 10);
+        assertEquals("level=info msg=started", trimmed.toString());
+        assertEquals(new ZemString("info"), level);
+        assertEquals("info".hashCode(), trimmed.substring(6, 10).hashCode());
+        assertEquals(11, trimmed.indexOf(new ZemString("msg"), 0));
+        assertEquals(-1, level.indexOf(new ZemString("msg"), 0));
+        assertTrue(trimmed.substring(11, 22).startsWith(new ZemString("msg=")));
+        assertEquals("info!", level.concat(new ZemString("!")).toString());
+        assertEquals(0, new ZemString("").indexOf(new ZemString(""), 0));
+    }
+
+    @Test
+    public void testBytes() {
+        byte[] data = "key=value;caf\u00e9".getBytes(StandardCharsets.ISO_8859_1);
+        ZemString all = new ZemString(data, 0, data.length);
+        ZemString key = all.substring(0, 3);
+        ZemString value = all.substring(4, 9);
+        assertEquals(14, all.length());
+        assertEquals("key=value;caf\u00e9", all.toString());
+        assertEquals('\u00e9', all.charAt(13));
+        assertEquals("value", value.toString());
+        assertEquals(new ZemString("key"), key);
+        assertEquals(key, new ZemString("key"));
+        assertEquals("key".hashCode(), key.hashCode());
+        assertEquals("caf\u00e9".hashCode(), all.substring(10, 14).hashCode());
+        assertTrue(key.compareTo(value) < 0);
+        assertTrue(all.substring(10, 14).compareTo(new ZemString("cafe")) > 0);
+        assertTrue(all.substring(10, 13).compareTo(all.substring(10, 14)) < 0);
+        assertEquals(new ZemString(data, 4, 5), value);
+        Map<ZemObject, ZemObject> map = new HashMap<ZemObject, ZemObject>();
+        map.put(new ZemString("key"), ZemBoolean.TRUE);
+        assertEquals(ZemBoolean.TRUE, map.get(key));
+    }
+
+    @Test
+    public void testBytesInScript() throws IOException {
+        byte[] data = "name=pear".getBytes(StandardCharsets.ISO_8859_1);
+        Interpreter interpreter = new Interpreter();
+        interpreter.setVariable("data", new ZemString(data, 5, 4));
+        interpreter.eval("d = {'pear':1}; p = 'pear'; x = d[data] ~ ' ' ~ len(data) ~ ' ' ~ (data == p) ~ ' ' ~ data;");
+        assertEquals(new ZemString("1 4 true pear"), interpreter.getVariable("x", null));
+        interpreter.eval("m = match(data, 'e(a)'); f = find_all(data, '[aeiou]'); r = replace_re(data, '[ea]', '_');");
+        assertEquals(new ZemString("[ea, a]"), interpreter.getVariable("m", null).toZString());
+        assertEquals(new ZemString("[e, a]"), interpreter.getVariable("f", null).toZString());
+        assertEquals(new ZemString("p__r"), interpreter.getVariable("r", null));
+    }
+}